@@ -0,0 +1,26 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Entry point of benchmarks.jar
+ * Runs all benchmarks (or those matching args[0]) with the gc profiler, so every result
+ * reports throughput and allocation rate (gc.alloc.rate.norm = bytes per operation).
+ * Results are written to benchmarks.json for comparison between releases.
+ */
+public class RunBenchmarks {
+	public static void main(String[] args) throws RunnerException {
+		Options opt = new OptionsBuilder()
+				.include(args.length > 0 ? args[0] : ".*Benchmark.*")
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("benchmarks.json")
+				.build();
+		new Runner(opt).run();
+	}
+}
@@ -0,0 +1,88 @@
+package cp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.openjdk.jmh.annotations.*;
+
+import core.Msg;
+import exceptions.IWProtocolException;
+
+/*
+ * CP layer codecs: cookie request/response, command create/parse, checksums and binary frames
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CPMsgBenchmark {
+    private static final String PRINT = "print HelloWorld";
+
+    private CPCommandMsg checksumMsg;
+    private String commandResponse;
+    private String checksumInput;
+    private byte[] binaryCommand;
+
+    @Setup
+    public void setup() {
+        checksumMsg = new CPCommandMsg(4711, 1);
+        checksumInput = "command_response 1 ok 0";
+        commandResponse = "cp " + checksumInput + " " + checksumMsg.toUnsignedChecksumString(checksumMsg.calculateChecksum(checksumInput));
+        binaryCommand = CPBinaryCodec.encodeCommand(1, 4711, true, "HelloWorld");
+    }
+
+    @Benchmark
+    public byte[] createCookieRequest() {
+        CPCookieRequestMsg m = new CPCookieRequestMsg();
+        m.create(null);
+        return m.getDataBytes();
+    }
+
+    @Benchmark
+    public Msg parseCookieRequest() throws IWProtocolException {
+        return new CPMsg().parse("cp cookie_request");
+    }
+
+    @Benchmark
+    public byte[] createCookieResponse() {
+        CPCookieResponseMsg m = new CPCookieResponseMsg(true);
+        m.create("4711");
+        return m.getDataBytes();
+    }
+
+    @Benchmark
+    public Msg parseCookieResponse() throws IWProtocolException {
+        return new CPMsg().parse("cp cookie_response ACK 4711");
+    }
+
+    @Benchmark
+    public byte[] createCommand() {
+        CPCommandMsg m = new CPCommandMsg(4711, 1);
+        m.create(PRINT);
+        return m.getDataBytes();
+    }
+
+    @Benchmark
+    public byte[] createCommandBinary() {
+        CPCommandMsg m = new CPCommandMsg(4711, 1);
+        m.createBinary(PRINT);
+        return m.getDataBytes();
+    }
+
+    @Benchmark
+    public Msg parseCommandResponse() throws IWProtocolException {
+        return new CPCommandMsg(4711, 1).parse(commandResponse);
+    }
+
+    @Benchmark
+    public CRC32 calculateChecksum() {
+        return checksumMsg.calculateChecksum(commandResponse);
+    }
+
+    @Benchmark
+    public CPBinaryCodec.Frame decodeCommandBinary() throws IWProtocolException {
+        return CPBinaryCodec.decode(binaryCommand);
+    }
+}
@@ -0,0 +1,95 @@
+package phy;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import core.Msg;
+import core.Protocol;
+import exceptions.IllegalMsgException;
+
+/*
+ * Phy layer codecs: text and binary framing, ping messages
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhyMsgBenchmark {
+	@Param({"16", "512"})
+	public int payloadSize;
+
+	private PhyConfiguration config;
+	private PhyConfiguration pingConfig;
+	private String payload;
+	private byte[] payloadBytes;
+	private byte[] textFrame;
+	private String textSentence;
+	private byte[] binaryFrame;
+	private byte[] pingFrame;
+
+	@Setup
+	public void setup() throws Exception {
+		config = new PhyConfiguration(InetAddress.getLoopbackAddress(), 4455, Protocol.proto_id.APP);
+		payload = "x".repeat(payloadSize);
+		payloadBytes = payload.getBytes();
+
+		PhyMsg text = new PhyMsg(config);
+		text.create(payload);
+		textFrame = text.getDataBytes();
+		textSentence = new String(textFrame);
+
+		PhyMsg binary = new PhyMsg(config);
+		binary.createBinary(payloadBytes);
+		binaryFrame = binary.getDataBytes();
+
+		pingConfig = new PhyConfiguration(InetAddress.getLoopbackAddress(), 4455, Protocol.proto_id.PHY);
+		PhyPingMsg ping = new PhyPingMsg(pingConfig);
+		ping.create(42, System.nanoTime(), false);
+		pingFrame = ping.getDataBytes();
+	}
+
+	@Benchmark
+	public byte[] createText() {
+		PhyMsg m = new PhyMsg(config);
+		m.create(payload);
+		return m.getDataBytes();
+	}
+
+	@Benchmark
+	public byte[] createBinary() {
+		PhyMsg m = new PhyMsg(config);
+		m.createBinary(payloadBytes);
+		return m.getDataBytes();
+	}
+
+	@Benchmark
+	public Msg parseTextBytes() throws IllegalMsgException {
+		return new PhyMsg().parse(textFrame, textFrame.length);
+	}
+
+	@Benchmark
+	public Msg parseTextString() throws IllegalMsgException {
+		return new PhyMsg().parse(textSentence);
+	}
+
+	@Benchmark
+	public Msg parseBinary() throws IllegalMsgException {
+		return new PhyMsg().parse(binaryFrame, binaryFrame.length);
+	}
+
+	@Benchmark
+	public byte[] createPing() {
+		PhyPingMsg m = new PhyPingMsg(pingConfig);
+		m.create(42, 123456789L, false);
+		return m.getDataBytes();
+	}
+
+	@Benchmark
+	public Msg parsePing() throws IllegalMsgException {
+		return new PhyMsg().parse(pingFrame, pingFrame.length);
+	}
+}
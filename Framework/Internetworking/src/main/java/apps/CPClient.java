@@ -1,5 +1,6 @@
 package apps;
 
+import core.Metrics;
 import cp.*;
 import exceptions.*;
 import phy.*;
@@ -33,6 +34,8 @@ public class CPClient {
         try {
             cp = new CPProtocol(InetAddress.getByName(SERVER_NAME), CPCommandServer.COMMAND_SERVER_PORT, phy);
             cp.setCookieServer(InetAddress.getByName(SERVER_NAME), CPCookieServer.COOKIE_SERVER_PORT);
+            Metrics.register("PhyProtocol", "client-" + id, phy.getMetrics());
+            Metrics.register("CPProtocol", "client-" + id, cp.getMetrics());
         } catch (Exception e) {
             e.printStackTrace();
             return;
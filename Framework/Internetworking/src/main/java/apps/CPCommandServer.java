@@ -1,9 +1,64 @@
 package apps;
 
+import core.EventLog;
+import core.Metrics;
+import cp.CPProtocol;
+import cp.CookieSigner;
+import cp.CookieStore;
+import cp.CookieValidationCache;
+import cp.CookieValidator;
+import cp.RemoteCookieValidator;
+import exceptions.IWProtocolException;
+import phy.PhyProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
 public class CPCommandServer {
     protected static final int COMMAND_SERVER_PORT = 2000;
+    private static final String COOKIE_SERVER_NAME = "localhost";
 
     public static void main(String[] args) {
+        // Optional arguments: number of workers (default: one per core) and the cookie server host
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        String cookieServer = args.length > 1 ? args[1] : COOKIE_SERVER_NAME;
+        Metrics.register("EventLog", "command-server", EventLog.getMBean());
+
+        // Set up the virtual link protocol
+        PhyProtocol phy = new PhyProtocol(COMMAND_SERVER_PORT);
+        Metrics.register("PhyProtocol", "command-server", phy.getMetrics());
+
+        // Set up command protocol
+        CPProtocol cp;
+        try {
+            cp = new CPProtocol(phy, false);
+            cp.setWorkers(workers);
+            cp.setCookieValidator(cookieValidator(cookieServer));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        Metrics.register("CPProtocol", "command-server", cp.getMetrics());
+        System.out.println("Command server running " + workers + " workers on port " + COMMAND_SERVER_PORT);
+
+        try {
+            // Will never return from this call
+            cp.receive();
+        } catch (IOException e) {
+            System.out.println("IO error");
+        } catch (IWProtocolException e) {
+            System.out.println("This should never happen.");
+        }
+    }
 
+    // stateless cookies are checked locally, otherwise the cookie server is asked once per client
+    private static CookieValidator cookieValidator(String cookieServer) throws IOException {
+        String secret = System.getProperty(CPCookieServer.SECRET_PROPERTY);
+        if (secret != null)
+            return CookieSigner.fromSecret(secret, CookieStore.DEFAULT_TTL);
+        // own port for the lookups, answers must not end up in the command receive loop
+        PhyProtocol lookupPhy = new PhyProtocol(0);
+        return new CookieValidationCache(new RemoteCookieValidator(lookupPhy,
+                InetAddress.getByName(cookieServer), CPCookieServer.COOKIE_SERVER_PORT));
     }
 }
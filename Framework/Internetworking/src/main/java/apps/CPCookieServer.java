@@ -1,26 +1,102 @@
 package apps;
 
+import core.EventLog;
+import core.Metrics;
 import cp.CPProtocol;
+import cp.CookieSigner;
+import cp.CookieStore;
+import cp.ExecutionMode;
 import exceptions.IWProtocolException;
+import phy.NioPhyProtocol;
 import phy.PhyProtocol;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class CPCookieServer {
     protected static final int COOKIE_SERVER_PORT = 3000;
+    private static final int SHARD_POOL_SIZE = 8;
+    private static final int DEFAULT_MAX_CONCURRENCY = 1000;
+    private static ExecutionMode mode = ExecutionMode.INLINE;
+    private static int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    // stateless cookies when set, command servers validate them with the same secret
+    protected static final String SECRET_PROPERTY = "internetworking.cookie.secret";
+    private static CookieSigner signer;
+    // comma separated hosts of the command servers that may validate cookies, loopback if not set
+    protected static final String VALIDATORS_PROPERTY = "internetworking.cookie.validators";
+    private static final List<InetAddress> validators = new ArrayList<>();
 
     public static void main(String[] args) {
-        // Set up the virtual link protocol
-        PhyProtocol phy = new PhyProtocol(COOKIE_SERVER_PORT);
-
-        // Set up command protocol
-        CPProtocol cp;
+        // Optional arguments: number of shards (sockets on the same port, one receive loop each),
+        // execution mode (inline | virtual) and the maximum number of requests in progress per shard
+        int shards = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        if (args.length > 1 && args[1].equals("virtual"))
+            mode = ExecutionMode.VIRTUAL_THREAD;
+        if (args.length > 2)
+            maxConcurrency = Integer.parseInt(args[2]);
+        String secret = System.getProperty(SECRET_PROPERTY);
+        if (secret != null)
+            signer = CookieSigner.fromSecret(secret, CookieStore.DEFAULT_TTL);
         try {
-            cp = new CPProtocol(phy, true);
-        } catch (Exception e) {
+            for (String host : System.getProperty(VALIDATORS_PROPERTY, "").split(","))
+                if (!host.isBlank())
+                    validators.add(InetAddress.getByName(host.trim()));
+        } catch (UnknownHostException e) {
+            System.out.println("Unknown command server host: " + e.getMessage());
             return;
         }
+        if (validators.isEmpty())
+            validators.add(InetAddress.getLoopbackAddress());
+        // log level can be switched at runtime via JMX (internetworking:type=EventLog)
+        Metrics.register("EventLog", "cookie-server", EventLog.getMBean());
+        if (shards > 1 && !NioPhyProtocol.isReusePortSupported()) {
+            System.out.println("SO_REUSEPORT not supported ... running a single shard");
+            shards = 1;
+        }
+        if (shards <= 1) {
+            // Set up the virtual link protocol
+            PhyProtocol phy = new PhyProtocol(COOKIE_SERVER_PORT);
+            Metrics.register("PhyProtocol", "cookie-server", phy.getMetrics());
+
+            // Set up command protocol
+            CPProtocol cp;
+            try {
+                cp = new CPProtocol(phy, true);
+            } catch (Exception e) {
+                return;
+            }
+            serve(cp);
+            return;
+        }
+
+        // The kernel hashes each client address to one socket, unevenly, so the shards share one
+        // cookie store: CP_HASHMAP_SIZE cookies in total however the clients are spread, and the
+        // shard a command server's cookie_validate lands on knows cookies issued by any other
+        // (stateless cookies need no state, all shards share the signer)
+        CookieStore cookies = new CookieStore(CPProtocol.CP_HASHMAP_SIZE, CookieStore.DEFAULT_TTL);
+        for (int i = 0; i < shards; i++) {
+            NioPhyProtocol phy = new NioPhyProtocol(COOKIE_SERVER_PORT, SHARD_POOL_SIZE, true);
+            Metrics.register("PhyProtocol", "cookie-shard-" + i, phy.getMetrics());
+            CPProtocol cp = new CPProtocol(phy, cookies);
+            new Thread(() -> serve(cp), "cookie-shard-" + i).start();
+        }
+        System.out.println("Cookie server running " + shards + " shards on port " + COOKIE_SERVER_PORT);
+    }
 
+    private static void serve(CPProtocol cp) {
+        cp.setExecutionMode(mode, maxConcurrency);
+        if (signer != null)
+            cp.setCookieSigner(signer);
+        cp.setValidationPeers(validators);
+        // Print the latency numbers of the selected mode on shutdown
+        String name = Thread.currentThread().getName();
+        // counters are visible via JMX (e.g. jconsole) under internetworking:type=CPProtocol
+        Metrics.register("CPProtocol", name.equals("main") ? "cookie-server" : name, cp.getMetrics());
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.out.println(name + " " + cp.getExecutionStats(mode))));
         // Start server processing
         while (true) {
             try {
@@ -34,4 +110,4 @@ public class CPCookieServer {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,183 @@
+package apps;
+
+import core.LatencyHistogram;
+import cp.CPProtocol;
+import exceptions.CookieRequestException;
+import exceptions.CookieTimeoutException;
+import phy.NioPhyProtocol;
+import phy.PhyReactor;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/*
+ * Open-loop load generator for the cookie and command servers
+ * Usage: CPLoadGenerator [rate/s] [duration s] [clients] [cookie|command] [host]
+ *
+ * Requests arrive on a fixed schedule (rate/s) no matter how fast the server answers.
+ * Each arrival is handed to an idle logical client (own UDP port -> own cookie on the server);
+ * if all clients are busy it waits for the next free one. Latency is measured from the
+ * scheduled arrival time, so queueing in front of a slow server is not hidden (coordinated omission).
+ * Every second a line with throughput, NAKs by reason, timeouts and latency percentiles is printed.
+ */
+public class CPLoadGenerator {
+    private static final String SERVER_NAME = "localhost";
+    private static final int CLIENT_POOL_SIZE = 2;
+    private static final int REPORT_INTERVAL = 1000;
+    // longest a request can take: three cookie attempts with backoff
+    private static final long DRAIN_TIMEOUT = 20000;
+    private static final String COMMAND = "print load";
+
+    private final PhyReactor reactor;
+    private final boolean commandMode;
+    // everything below is only touched on the reactor thread
+    private final ArrayDeque<CPProtocol> idle = new ArrayDeque<>();
+    private final ArrayDeque<Long> backlog = new ArrayDeque<>();
+    private final LatencyHistogram interval = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final Map<String, Long> naks = new TreeMap<>();
+    private long intervalCompleted;
+    private long intervalErrors;
+    private long scheduled;
+    private long completed;
+    private long timeouts;
+    private long errors;
+    private long maxBacklog;
+    private int outstanding;
+    private long startNanos;
+
+    private CPLoadGenerator(PhyReactor reactor, boolean commandMode) {
+        this.reactor = reactor;
+        this.commandMode = commandMode;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = args.length > 0 ? Double.parseDouble(args[0]) : 1000;
+        int duration = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        boolean commandMode = args.length > 3 && args[3].equals("command");
+        InetAddress server = InetAddress.getByName(args.length > 4 ? args[4] : SERVER_NAME);
+
+        PhyReactor reactor = new PhyReactor();
+        reactor.start();
+        CPLoadGenerator generator = new CPLoadGenerator(reactor, commandMode);
+        NioPhyProtocol[] endpoints = new NioPhyProtocol[clients];
+        for (int i = 0; i < clients; i++) {
+            // port 0 -> ephemeral port, every logical client is a distinct peer for the server
+            endpoints[i] = new NioPhyProtocol(0, CLIENT_POOL_SIZE);
+            CPProtocol cp = new CPProtocol(server, CPCommandServer.COMMAND_SERVER_PORT, endpoints[i]);
+            cp.setCookieServer(server, CPCookieServer.COOKIE_SERVER_PORT);
+            cp.attachReactor(reactor);
+            reactor.execute(() -> generator.idle.add(cp));
+        }
+        System.out.printf("%s load: %.0f req/s for %d s over %d clients%n",
+                commandMode ? "command" : "cookie", rate, duration, clients);
+        generator.run(rate, duration);
+
+        reactor.stop();
+        for (NioPhyProtocol endpoint : endpoints)
+            endpoint.close();
+    }
+
+    private void run(double rate, int duration) throws InterruptedException {
+        long period = (long) (1e9 / rate);
+        long count = (long) (rate * duration);
+        startNanos = System.nanoTime();
+        reactor.schedule(REPORT_INTERVAL, this::report);
+        // the schedule is fixed up front, a late generator catches up instead of shifting arrivals
+        for (long i = 0; i < count; i++) {
+            long intended = startNanos + i * period;
+            long wait = intended - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            reactor.execute(() -> arrive(intended));
+        }
+        long drainEnd = System.currentTimeMillis() + DRAIN_TIMEOUT;
+        while (System.currentTimeMillis() < drainEnd && onReactor(() -> outstanding + backlog.size()) > 0)
+            Thread.sleep(100);
+        onReactor(() -> {
+            summary();
+            return null;
+        });
+    }
+
+    // run a task on the reactor thread and wait for its result
+    private <T> T onReactor(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        reactor.execute(() -> result.complete(task.get()));
+        return result.join();
+    }
+
+    private void arrive(long intended) {
+        scheduled++;
+        CPProtocol client = idle.poll();
+        if (client == null) {
+            backlog.add(intended);
+            maxBacklog = Math.max(maxBacklog, backlog.size());
+            return;
+        }
+        issue(client, intended);
+    }
+
+    private void issue(CPProtocol client, long intended) {
+        outstanding++;
+        CompletableFuture<?> request = commandMode ? client.sendAsync(COMMAND) : client.requestCookieAsync();
+        // futures are completed on the reactor thread
+        request.whenComplete((r, e) -> {
+            outstanding--;
+            long latency = System.nanoTime() - intended;
+            if (e == null) {
+                interval.record(latency);
+                total.record(latency);
+                intervalCompleted++;
+                completed++;
+            } else {
+                fail(e instanceof CompletionException ? e.getCause() : e);
+            }
+            Long next = backlog.poll();
+            if (next != null)
+                issue(client, next);
+            else
+                idle.add(client);
+        });
+    }
+
+    private void fail(Throwable e) {
+        intervalErrors++;
+        if (e instanceof CookieRequestException && ((CookieRequestException) e).getReason() != null)
+            naks.merge(((CookieRequestException) e).getReason(), 1L, Long::sum);
+        else if (e instanceof CookieRequestException || e instanceof CookieTimeoutException)
+            timeouts++;
+        else
+            errors++;
+    }
+
+    private void report() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("%6.1f s  %7d ok/s  %6d err/s  backlog %5d  p50 %8.3f  p99 %8.3f  p99.9 %8.3f  max %8.3f ms%n",
+                elapsed, intervalCompleted * 1000 / REPORT_INTERVAL, intervalErrors * 1000 / REPORT_INTERVAL, backlog.size(),
+                interval.getValueAtPercentile(50) / 1e6, interval.getValueAtPercentile(99) / 1e6,
+                interval.getValueAtPercentile(99.9) / 1e6, interval.getMax() / 1e6);
+        interval.reset();
+        intervalCompleted = 0;
+        intervalErrors = 0;
+        reactor.schedule(REPORT_INTERVAL, this::report);
+    }
+
+    private void summary() {
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println("--- load generator summary ---");
+        System.out.printf("%d scheduled, %d ok, %d timeouts, %d errors, %d still pending, max backlog %d%n",
+                scheduled, completed, timeouts, errors, outstanding + backlog.size(), maxBacklog);
+        for (Map.Entry<String, Long> nak : naks.entrySet())
+            System.out.printf("NAK %s: %d (%.1f%%)%n", nak.getKey(), nak.getValue(), 100.0 * nak.getValue() / Math.max(1, scheduled));
+        System.out.printf("throughput %.0f ok/s over %.1f s%n", completed / elapsed, elapsed);
+        System.out.println(total);
+    }
+}
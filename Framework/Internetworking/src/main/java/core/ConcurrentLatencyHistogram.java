@@ -0,0 +1,44 @@
+package core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * LatencyHistogram for many recording threads (e.g. metrics)
+ * record() is allocation-free and lock-free, readers take a snapshot.
+ * Sum, min and max are striped, the bucket counts are atomic per bucket.
+ */
+public class ConcurrentLatencyHistogram {
+	private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public void record(long value) {
+		value = LatencyHistogram.clamp(value);
+		counts.incrementAndGet(LatencyHistogram.index(value));
+		sum.add(value);
+		min.accumulate(value);
+		max.accumulate(value);
+	}
+
+	/*
+	 * Copy of the current state (not atomic across buckets while recording continues)
+	 */
+	public LatencyHistogram snapshot() {
+		LatencyHistogram h = new LatencyHistogram();
+		long sum = this.sum.sum();
+		long min = this.min.get();
+		long max = this.max.get();
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			long n = counts.get(i);
+			if (n > 0) {
+				h.add(i, n, sum, min, max);
+				// the sum belongs to all buckets, add it once
+				sum = 0;
+			}
+		}
+		return h;
+	}
+}
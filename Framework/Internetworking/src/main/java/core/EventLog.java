@@ -0,0 +1,233 @@
+package core;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Asynchronous event log
+ * Producers write fixed-size records (time, thread, event id, two long arguments and an optional
+ * object reference, e.g. an exception) into a preallocated ring buffer; a daemon thread formats
+ * and prints them. Nothing is allocated or formatted on the producer side.
+ * A disabled level costs one volatile read, a full buffer drops the record (counted) instead of blocking.
+ *
+ * Usage: static final EventLog.Event RECEIVED = EventLog.event(Level.DEBUG, "received %d bytes");
+ *        EventLog.log(RECEIVED, length);
+ * Format arguments are a, b, ref in this order (use %3$s to skip to ref).
+ * The initial level is read from the system property internetworking.log (default INFO).
+ */
+public final class EventLog implements EventLogMBean {
+	public enum Level {
+		OFF, ERROR, WARN, INFO, DEBUG, TRACE
+	}
+
+	/*
+	 * Event type: level and format are fixed, records only carry the id
+	 */
+	public static final class Event {
+		private final int id;
+		private final Level level;
+		private final String format;
+
+		private Event(int id, Level level, String format) {
+			this.id = id;
+			this.level = level;
+			this.format = format;
+		}
+
+		public Level getLevel() {return level;}
+	}
+
+	private static final int CAPACITY = 8192;
+	private static final int MASK = CAPACITY - 1;
+	private static final int MAX_EVENTS = 256;
+	// idle drain thread polls at this interval (ns)
+	private static final long DRAIN_PARK = 1_000_000;
+	private static final EventLog INSTANCE = new EventLog();
+	private static final Event[] events = new Event[MAX_EVENTS];
+	private static int eventCount;
+	private static volatile int threshold = initialLevel().ordinal();
+
+	// ring buffer, one slot per record
+	private final long[] times = new long[CAPACITY];
+	private final long[] threads = new long[CAPACITY];
+	private final int[] ids = new int[CAPACITY];
+	private final long[] argsA = new long[CAPACITY];
+	private final long[] argsB = new long[CAPACITY];
+	private final Object[] refs = new Object[CAPACITY];
+	// sequence number written last -> the record in the slot is complete
+	private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+	private final LongAdder dropped = new LongAdder();
+	private volatile PrintStream out = System.out;
+	private volatile Thread drainer;
+
+	private EventLog() {
+		for (int i = 0; i < CAPACITY; i++)
+			published.set(i, -1);
+	}
+
+	private static Level initialLevel() {
+		try {
+			return Level.valueOf(System.getProperty("internetworking.log", "INFO").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			return Level.INFO;
+		}
+	}
+
+	/*
+	 * Define an event type (typically as a static final field)
+	 */
+	public static synchronized Event event(Level level, String format) {
+		if (eventCount == MAX_EVENTS)
+			throw new IllegalStateException("Too many event types");
+		Event e = new Event(eventCount, level, format);
+		events[eventCount++] = e;
+		return e;
+	}
+
+	public static boolean isEnabled(Level level) {
+		return level.ordinal() <= threshold;
+	}
+
+	public static void log(Event e) {
+		if (e.level.ordinal() <= threshold)
+			INSTANCE.append(e, 0, 0, null);
+	}
+
+	public static void log(Event e, long a) {
+		if (e.level.ordinal() <= threshold)
+			INSTANCE.append(e, a, 0, null);
+	}
+
+	public static void log(Event e, long a, long b) {
+		if (e.level.ordinal() <= threshold)
+			INSTANCE.append(e, a, b, null);
+	}
+
+	public static void log(Event e, long a, long b, Object ref) {
+		if (e.level.ordinal() <= threshold)
+			INSTANCE.append(e, a, b, ref);
+	}
+
+	private void append(Event e, long a, long b, Object ref) {
+		long seq;
+		do {
+			seq = head.get();
+			if (seq - tail >= CAPACITY) {
+				dropped.increment();
+				return;
+			}
+		} while (!head.compareAndSet(seq, seq + 1));
+		int i = (int) (seq & MASK);
+		times[i] = System.currentTimeMillis();
+		threads[i] = Thread.currentThread().threadId();
+		ids[i] = e.id;
+		argsA[i] = a;
+		argsB[i] = b;
+		refs[i] = ref;
+		published.lazySet(i, seq);
+		if (drainer == null)
+			startDrainer();
+	}
+
+	private synchronized void startDrainer() {
+		if (drainer != null)
+			return;
+		Thread t = new Thread(this::drainLoop, "event-log");
+		t.setDaemon(true);
+		t.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::drain));
+		drainer = t;
+	}
+
+	private void drainLoop() {
+		while (true) {
+			if (!drain())
+				LockSupport.parkNanos(DRAIN_PARK);
+		}
+	}
+
+	/*
+	 * Print all published records, returns false if there was nothing to do
+	 */
+	private synchronized boolean drain() {
+		long seq = tail;
+		boolean any = false;
+		while (seq < head.get()) {
+			int i = (int) (seq & MASK);
+			// claimed but not yet completely written
+			if (published.get(i) != seq)
+				break;
+			print(i);
+			refs[i] = null;
+			tail = ++seq;
+			any = true;
+		}
+		return any;
+	}
+
+	private void print(int i) {
+		Event e = events[ids[i]];
+		PrintStream ps = this.out;
+		Object ref = refs[i];
+		String msg;
+		try {
+			msg = String.format(e.format, argsA[i], argsB[i], ref);
+		} catch (RuntimeException ex) {
+			msg = e.format;
+		}
+		LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(times[i]), ZoneId.systemDefault());
+		ps.println(time + " [" + threads[i] + "] " + e.level + " " + msg);
+		if (ref instanceof Throwable && isEnabled(Level.DEBUG))
+			((Throwable) ref).printStackTrace(ps);
+	}
+
+	/*
+	 * Wait until everything logged so far is printed
+	 */
+	public static void flush() {
+		while (INSTANCE.tail < INSTANCE.head.get()) {
+			if (!INSTANCE.drain())
+				Thread.onSpinWait();
+		}
+	}
+
+	public static void setLevel(Level level) {
+		threshold = level.ordinal();
+	}
+
+	public static Level getLevel() {
+		return Level.values()[threshold];
+	}
+
+	public static void setOutput(PrintStream out) {
+		INSTANCE.out = out;
+	}
+
+	public static long getDroppedRecords() {
+		return INSTANCE.dropped.sum();
+	}
+
+	/*
+	 * MBean for runtime level changes via JMX (see Metrics.register)
+	 */
+	public static EventLogMBean getMBean() {
+		return INSTANCE;
+	}
+
+	@Override
+	public String getThreshold() {return getLevel().name();}
+	@Override
+	public void setThreshold(String level) {setLevel(Level.valueOf(level.toUpperCase()));}
+	@Override
+	public long getDropped() {return dropped.sum();}
+	@Override
+	public long getPending() {return head.get() - tail;}
+}
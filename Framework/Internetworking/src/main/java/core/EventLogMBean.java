@@ -0,0 +1,11 @@
+package core;
+
+/*
+ * JMX view of the EventLog: switch the level at runtime, watch drops
+ */
+public interface EventLogMBean {
+	String getThreshold();
+	void setThreshold(String level);
+	long getDropped();
+	long getPending();
+}
@@ -0,0 +1,109 @@
+package core;
+
+import java.util.Arrays;
+
+/*
+ * Log-linear latency histogram (values in ns)
+ * Every power of two is split into 64 buckets -> relative error below 1.6%.
+ * The bucket array is allocated once, record() is allocation-free.
+ * Not thread safe: one recording thread, read after recording (or merge per-thread copies).
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// values above ~18 minutes are clamped to the last bucket
+	public static final long MAX_VALUE = (1L << 40) - 1;
+	static final int BUCKETS = index(MAX_VALUE) + 1;
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	/*
+	 * Bucket of a value: values < 128 map 1:1, larger values keep their 7 most significant bits
+	 */
+	static int index(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	// highest value that falls into the bucket
+	private static long highestValue(int index) {
+		int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+		long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	static long clamp(long value) {
+		return value < 0 ? 0 : Math.min(value, MAX_VALUE);
+	}
+
+	public void record(long value) {
+		value = clamp(value);
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+	}
+
+	/*
+	 * Value at the given percentile (0..100), exact to the bucket resolution
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.max(min, Math.min(max, highestValue(i)));
+		}
+		return max;
+	}
+
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	// used for snapshots of a ConcurrentLatencyHistogram
+	void add(int index, long n, long sum, long min, long max) {
+		counts[index] += n;
+		count += n;
+		this.sum += sum;
+		this.min = Math.min(this.min, min);
+		this.max = Math.max(this.max, max);
+	}
+
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	public long getCount() {return count;}
+	public long getMin() {return count == 0 ? 0 : min;}
+	public long getMax() {return max;}
+	public double getMean() {return count == 0 ? 0 : (double) sum / count;}
+
+	/*
+	 * One line summary in ms
+	 */
+	@Override
+	public String toString() {
+		return String.format("min/avg/p50/p99/p99.9/max = %.3f/%.3f/%.3f/%.3f/%.3f/%.3f ms",
+				getMin() / 1e6, getMean() / 1e6, getValueAtPercentile(50) / 1e6,
+				getValueAtPercentile(99) / 1e6, getValueAtPercentile(99.9) / 1e6, getMax() / 1e6);
+	}
+}
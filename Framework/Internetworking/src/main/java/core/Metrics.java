@@ -0,0 +1,41 @@
+package core;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Registration of metrics MBeans with the platform MBean server
+ * Names: internetworking:type=<type>,name=<name> (e.g. type=PhyProtocol,name=3000)
+ */
+public final class Metrics {
+	public static final String DOMAIN = "internetworking";
+
+	private Metrics() {}
+
+	/*
+	 * Register (or replace) an MBean, returns its name or null if registration failed
+	 */
+	public static ObjectName register(String type, String name, Object mbean) {
+		try {
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName))
+				server.unregisterMBean(objectName);
+			server.registerMBean(mbean, objectName);
+			return objectName;
+		} catch (JMException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	public static void unregister(ObjectName name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException ignored) {
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Hierarchical timing wheel (Varghese & Lauck)
+ * LEVELS wheels of SLOTS buckets each; level n covers SLOTS^(n+1) ticks. A timer is put into the
+ * coarsest bucket that still resolves its deadline and moves down one level whenever the wheel
+ * below wraps around (cascade). Scheduling and cancelling are O(1), advancing costs O(1) per
+ * tick plus the timers that are due or cascaded -> no scans over all pending timers.
+ *
+ * Time is passed in by the caller (ms, any monotonic origin), nothing runs on its own:
+ * advance() fires due tasks on the calling thread after the wheel lock is released.
+ * Timers fire at the first tick boundary after their deadline, i.e. up to one tick late, never early.
+ */
+public class TimingWheel {
+	private static final int BITS = 6;
+	private static final int SLOTS = 1 << BITS;
+	private static final int MASK = SLOTS - 1;
+	private static final int LEVELS = 4;
+	// ticks covered by all levels, later deadlines wait in the last bucket and are re-sorted on cascade
+	private static final long RANGE = 1L << (BITS * LEVELS);
+
+	private final long tickMillis;
+	// one sentinel per bucket -> circular doubly linked lists
+	private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+	// last tick that was processed
+	private long currentTick;
+	private int size;
+
+	/*
+	 * Scheduled task -> can be cancelled until it fires
+	 */
+	public static class Timeout {
+		private final long deadline;
+		private final long tick;
+		private final Runnable task;
+		private Timeout prev;
+		private Timeout next;
+		private TimingWheel wheel;
+
+		private Timeout(long deadline, long tick, Runnable task, TimingWheel wheel) {
+			this.deadline = deadline;
+			this.tick = tick;
+			this.task = task;
+			this.wheel = wheel;
+		}
+
+		public long getDeadline() {return deadline;}
+
+		// false if the timer already fired or was cancelled
+		public boolean cancel() {
+			TimingWheel w = this.wheel;
+			if (w == null)
+				return false;
+			synchronized (w) {
+				if (this.wheel == null)
+					return false;
+				w.unlink(this);
+				this.wheel = null;
+				w.size--;
+				return true;
+			}
+		}
+	}
+
+	public TimingWheel(long tickMillis, long now) {
+		if (tickMillis <= 0)
+			throw new IllegalArgumentException("tick must be positive");
+		this.tickMillis = tickMillis;
+		this.currentTick = now / tickMillis;
+		for (Timeout[] wheel : wheels) {
+			for (int i = 0; i < SLOTS; i++) {
+				Timeout head = new Timeout(0, 0, null, null);
+				head.prev = head;
+				head.next = head;
+				wheel[i] = head;
+			}
+		}
+	}
+
+	/*
+	 * Run the task once advance() has been called with a time >= deadline
+	 */
+	public synchronized Timeout schedule(long deadline, Runnable task) {
+		// round up -> never fires early
+		long tick = (deadline + tickMillis - 1) / tickMillis;
+		Timeout t = new Timeout(deadline, tick, task, this);
+		insert(t);
+		size++;
+		return t;
+	}
+
+	/*
+	 * Process all ticks up to now and run the tasks that became due, returns their number
+	 */
+	public int advance(long now) {
+		List<Timeout> due = null;
+		synchronized (this) {
+			long target = now / tickMillis;
+			if (size == 0 && target > currentTick)
+				currentTick = target;
+			while (currentTick < target) {
+				long tick = currentTick + 1;
+				// refill the lower levels first, timers cascaded into this tick's bucket fire right away
+				for (int level = 1; level < LEVELS && (tick & ((1L << (BITS * level)) - 1)) == 0; level++)
+					cascade(level, (int) (tick >>> (BITS * level)) & MASK);
+				currentTick = tick;
+				Timeout head = wheels[0][(int) tick & MASK];
+				while (head.next != head) {
+					Timeout t = head.next;
+					unlink(t);
+					t.wheel = null;
+					size--;
+					if (due == null)
+						due = new ArrayList<>();
+					due.add(t);
+				}
+				if (size == 0)
+					currentTick = target;
+			}
+		}
+		if (due == null)
+			return 0;
+		for (Timeout t : due)
+			t.task.run();
+		return due.size();
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	private void cascade(int level, int slot) {
+		Timeout head = wheels[level][slot];
+		Timeout t = head.next;
+		head.next = head;
+		head.prev = head;
+		while (t != head) {
+			Timeout next = t.next;
+			insert(t);
+			t = next;
+		}
+	}
+
+	private void insert(Timeout t) {
+		// ticks up to currentTick were processed already -> next tick
+		long tick = Math.max(t.tick, currentTick + 1);
+		long delta = tick - (currentTick + 1);
+		if (delta >= RANGE) {
+			delta = RANGE - 1;
+			tick = currentTick + RANGE;
+		}
+		int level = 0;
+		while (delta >= 1L << (BITS * (level + 1)))
+			level++;
+		Timeout head = wheels[level][(int) (tick >>> (BITS * level)) & MASK];
+		t.prev = head.prev;
+		t.next = head;
+		head.prev.next = t;
+		head.prev = t;
+	}
+
+	private void unlink(Timeout t) {
+		t.prev.next = t.next;
+		t.next.prev = t.prev;
+		t.prev = null;
+		t.next = null;
+	}
+}
@@ -0,0 +1,115 @@
+package cp;
+
+import exceptions.BadChecksumException;
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/*
+ * Binary framing for cp messages (carried in binary phy frames)
+ *
+ * Fixed-width header, big endian:
+ *   type (1) | flags (1) | id (2) | cookie (4) | length (2) | message (length) | crc32 (4)
+ *
+ * type:   cookie_request, cookie_response, command, command_response, command_batch, command_batch_response
+ * flags:  ACK/NAK for cookie responses, status/print for commands, ok/error for command responses
+ * Batches carry the number of commands in the id field and their entries in the message.
+ * The checksum covers everything in front of it.
+ */
+public class CPBinaryCodec {
+    public static final byte COOKIE_REQUEST = 1;
+    public static final byte COOKIE_RESPONSE = 2;
+    public static final byte COMMAND = 3;
+    public static final byte COMMAND_RESPONSE = 4;
+    public static final byte COMMAND_BATCH = 5;
+    public static final byte COMMAND_BATCH_RESPONSE = 6;
+    protected static final int HEADER_LENGTH = 10;
+    protected static final int CHECKSUM_LENGTH = 4;
+    protected static final int MAX_ID = 65535;
+
+    /*
+     * Decoded binary cp frame
+     */
+    public static class Frame {
+        private final byte type;
+        private final byte flags;
+        private final int id;
+        private final int cookie;
+        private final byte[] message;
+
+        protected Frame(byte type, byte flags, int id, int cookie, byte[] message) {
+            this.type = type;
+            this.flags = flags;
+            this.id = id;
+            this.cookie = cookie;
+            this.message = message;
+        }
+
+        public byte getType() {return type;}
+        public int getId() {return id;}
+        public int getCookie() {return cookie;}
+        public byte[] getMessage() {return message;}
+        public String getMessageString() {return new String(message);}
+        // ACK for cookie responses, ok for command responses, print for commands
+        public boolean isSet() {return flags != 0;}
+    }
+
+    public static byte[] encode(byte type, boolean flag, int id, int cookie, byte[] message) {
+        if (id < 0 || id > MAX_ID || message.length > MAX_ID)
+            throw new IllegalArgumentException("Field exceeds 16 bit range");
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + message.length + CHECKSUM_LENGTH);
+        buf.put(type);
+        buf.put((byte) (flag ? 1 : 0));
+        buf.putShort((short) id);
+        buf.putInt(cookie);
+        buf.putShort((short) message.length);
+        buf.put(message);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        return buf.array();
+    }
+
+    public static byte[] encodeCookieRequest() {
+        return encode(COOKIE_REQUEST, false, 0, 0, new byte[0]);
+    }
+
+    public static byte[] encodeCookieResponse(boolean ack, int cookie, String reason) {
+        return encode(COOKIE_RESPONSE, ack, 0, cookie, ack ? new byte[0] : reason.getBytes());
+    }
+
+    public static byte[] encodeCommand(int id, int cookie, boolean isPrint, String message) {
+        return encode(COMMAND, isPrint, id, cookie, message.getBytes());
+    }
+
+    public static byte[] encodeCommandResponse(int id, boolean ok, String message) {
+        return encode(COMMAND_RESPONSE, ok, id, 0, message.getBytes());
+    }
+
+    /*
+     * Check length fields and checksum, then split the frame into its fields
+     */
+    public static Frame decode(byte[] frame) throws IllegalMsgException, BadChecksumException {
+        if (frame.length < HEADER_LENGTH + CHECKSUM_LENGTH)
+            throw new IllegalMsgException();
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        byte type = buf.get();
+        byte flags = buf.get();
+        int id = Short.toUnsignedInt(buf.getShort());
+        int cookie = buf.getInt();
+        int length = Short.toUnsignedInt(buf.getShort());
+        if (type < COOKIE_REQUEST || type > COMMAND_BATCH_RESPONSE
+                || frame.length != HEADER_LENGTH + length + CHECKSUM_LENGTH)
+            throw new IllegalMsgException();
+
+        CRC32 crc = new CRC32();
+        crc.update(frame, 0, HEADER_LENGTH + length);
+        if ((int) crc.getValue() != buf.getInt(HEADER_LENGTH + length))
+            throw new BadChecksumException();
+
+        byte[] message = new byte[length];
+        buf.get(message);
+        return new Frame(type, flags, id, cookie, message);
+    }
+}
@@ -0,0 +1,197 @@
+package cp;
+
+import exceptions.BadChecksumException;
+import exceptions.IllegalCommandException;
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Several commands of one client in one datagram, under one cookie and one checksum
+ * Every command keeps its own id, the server answers with one CPCommandBatchResponseMsg.
+ *
+ * Text:   cp⟨WS⟩command_batch⟨WS⟩⟨cookie⟩⟨WS⟩⟨count⟩{⟨WS⟩⟨id⟩⟨WS⟩⟨length⟩⟨WS⟩⟨command⟩[⟨WS⟩⟨message⟩]}⟨WS⟩⟨checksum⟩
+ * Binary: COMMAND_BATCH frame, id field = count, message = {id (2) | print (1) | length (2) | message}
+ * The checksum covers everything between the cp header and the checksum.
+ */
+class CPCommandBatchMsg extends CPMsg {
+    protected static final String CP_BATCH_HEADER = "command_batch";
+    private final int cookie;
+    private final List<CPCommandMsg> commands = new ArrayList<>();
+
+    protected CPCommandBatchMsg(int cookie) {
+        this.cookie = cookie;
+    }
+
+    /*
+     * Append a command created with CPCommandMsg.create/createBinary (the cookie of the batch applies)
+     */
+    protected void add(CPCommandMsg command) {
+        if (commands.size() == CPBinaryCodec.MAX_ID)
+            throw new IllegalArgumentException("Too many commands in one batch");
+        commands.add(command);
+    }
+
+    @Override
+    protected void create(String unused) {
+        StringBuilder batch = new StringBuilder(CP_BATCH_HEADER).append(' ').append(cookie).append(' ').append(commands.size());
+        for (CPCommandMsg command : commands) {
+            String message = command.getMessage();
+            batch.append(' ').append(command.getCommandId()).append(' ').append(message.length()).append(' ')
+                    .append(command.getCommandType() == CommandType.PRINT ? "print" : "status");
+            if (!message.isEmpty())
+                batch.append(' ').append(message);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(batch.toString().getBytes());
+        super.create(batch.append(' ').append(checksum.getValue()).toString());
+    }
+
+    protected void createBinary() {
+        byte[][] messages = new byte[commands.size()][];
+        int length = 0;
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = commands.get(i).getMessage().getBytes();
+            length += 5 + messages[i].length;
+        }
+        if (length > CPBinaryCodec.MAX_ID)
+            throw new IllegalArgumentException("Batch exceeds 16 bit length");
+        ByteBuffer entries = ByteBuffer.allocate(length);
+        for (int i = 0; i < messages.length; i++) {
+            CPCommandMsg command = commands.get(i);
+            entries.putShort((short) command.getCommandId());
+            entries.put((byte) (command.getCommandType() == CommandType.PRINT ? 1 : 0));
+            entries.putShort((short) messages[i].length);
+            entries.put(messages[i]);
+        }
+        this.dataBytes = CPBinaryCodec.encode(CPBinaryCodec.COMMAND_BATCH, false, commands.size(), cookie, entries.array());
+    }
+
+    /*
+     * Server side: parse a received batch and verify its checksum
+     */
+    protected static CPCommandBatchMsg parseBatch(String sentence) throws IllegalMsgException, IllegalCommandException, BadChecksumException {
+        if (!sentence.startsWith(CP_HEADER + " " + CP_BATCH_HEADER + " "))
+            throw new IllegalMsgException();
+        int checksumStart = sentence.lastIndexOf(' ');
+        String body = sentence.substring(CP_HEADER.length() + 1, checksumStart);
+        CRC32 calculated = new CRC32();
+        calculated.update(body.getBytes());
+        if (!sentence.substring(checksumStart + 1).equals(Long.toUnsignedString(calculated.getValue())))
+            throw new BadChecksumException();
+
+        Fields fields = new Fields(body, CP_BATCH_HEADER.length() + 1);
+        CPCommandBatchMsg batch = new CPCommandBatchMsg(fields.nextInt());
+        int count = fields.nextInt();
+        for (int i = 0; i < count; i++) {
+            int id = fields.nextInt();
+            int length = fields.nextInt();
+            if (id > CPBinaryCodec.MAX_ID)
+                throw new IllegalMsgException();
+            String command = fields.next();
+            String message = length > 0 ? fields.next(length) : "";
+            if (command.equals("print"))
+                batch.commands.add(CPCommandMsg.of(batch.cookie, id, CommandType.PRINT, message));
+            else if (command.equals("status") && length == 0)
+                batch.commands.add(CPCommandMsg.of(batch.cookie, id, CommandType.STATUS, message));
+            else
+                throw new IllegalCommandException();
+        }
+        if (!fields.atEnd())
+            throw new IllegalMsgException();
+        batch.data = sentence;
+        batch.dataBytes = sentence.getBytes();
+        return batch;
+    }
+
+    /*
+     * Server side: batch from a decoded binary frame (checksum verified by the codec)
+     */
+    protected static CPCommandBatchMsg fromFrame(CPBinaryCodec.Frame frame) throws IllegalMsgException {
+        if (frame.getType() != CPBinaryCodec.COMMAND_BATCH)
+            throw new IllegalMsgException();
+        CPCommandBatchMsg batch = new CPCommandBatchMsg(frame.getCookie());
+        ByteBuffer entries = ByteBuffer.wrap(frame.getMessage());
+        for (int i = 0; i < frame.getId(); i++) {
+            if (entries.remaining() < 5)
+                throw new IllegalMsgException();
+            int id = Short.toUnsignedInt(entries.getShort());
+            boolean print = entries.get() != 0;
+            int length = Short.toUnsignedInt(entries.getShort());
+            if (entries.remaining() < length)
+                throw new IllegalMsgException();
+            byte[] message = new byte[length];
+            entries.get(message);
+            if (!print && length > 0)
+                throw new IllegalMsgException();
+            batch.commands.add(CPCommandMsg.of(batch.cookie, id, print ? CommandType.PRINT : CommandType.STATUS, new String(message)));
+        }
+        if (entries.hasRemaining())
+            throw new IllegalMsgException();
+        return batch;
+    }
+
+    public int getCookie() {
+        return cookie;
+    }
+
+    List<CPCommandMsg> getCommands() {
+        return Collections.unmodifiableList(commands);
+    }
+
+    /*
+     * Reads the space separated fields of a text batch; messages are read by their length field,
+     * so they may contain spaces
+     */
+    static final class Fields {
+        private final String text;
+        private int pos;
+
+        Fields(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+
+        String next() throws IllegalMsgException {
+            if (pos >= text.length())
+                throw new IllegalMsgException();
+            int end = text.indexOf(' ', pos);
+            if (end < 0)
+                end = text.length();
+            if (end == pos)
+                throw new IllegalMsgException();
+            String field = text.substring(pos, end);
+            pos = end + 1;
+            return field;
+        }
+
+        // exactly length characters, followed by a space or the end
+        String next(int length) throws IllegalMsgException {
+            int end = pos + length;
+            if (end > text.length() || (end < text.length() && text.charAt(end) != ' '))
+                throw new IllegalMsgException();
+            String field = text.substring(pos, end);
+            pos = end + 1;
+            return field;
+        }
+
+        int nextInt() throws IllegalMsgException {
+            try {
+                int value = Integer.parseInt(next());
+                if (value < 0)
+                    throw new IllegalMsgException();
+                return value;
+            } catch (NumberFormatException e) {
+                throw new IllegalMsgException();
+            }
+        }
+
+        boolean atEnd() {
+            return pos >= text.length();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cp;
+
+import exceptions.BadChecksumException;
+import exceptions.IllegalMsgException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Command server answer to a CPCommandBatchMsg, one result per command of the batch
+ *
+ * Text:   cp⟨WS⟩command_batch_response⟨WS⟩⟨count⟩{⟨WS⟩⟨id⟩⟨WS⟩⟨success⟩⟨WS⟩⟨length⟩[⟨WS⟩⟨message⟩]}⟨WS⟩⟨checksum⟩
+ * Binary: COMMAND_BATCH_RESPONSE frame, id field = count, message = {id (2) | ok (1) | length (2) | message}
+ * The checksum covers everything between the cp header and the checksum.
+ */
+class CPCommandBatchResponseMsg extends CPMsg {
+    protected static final String CP_BATCH_RESPONSE_HEADER = "command_batch_response";
+    private final List<Result> results = new ArrayList<>();
+
+    /*
+     * Outcome of one command: JSON for status, empty for print, the reason for errors
+     */
+    record Result(int commandId, boolean ok, String message) {}
+
+    protected void add(Result result) {
+        if (results.size() == CPBinaryCodec.MAX_ID)
+            throw new IllegalArgumentException("Too many results in one batch");
+        results.add(result);
+    }
+
+    @Override
+    protected void create(String unused) {
+        StringBuilder response = new StringBuilder(CP_BATCH_RESPONSE_HEADER).append(' ').append(results.size());
+        for (Result result : results) {
+            response.append(' ').append(result.commandId()).append(' ').append(result.ok() ? "ok" : "error")
+                    .append(' ').append(result.message().length());
+            if (!result.message().isEmpty())
+                response.append(' ').append(result.message());
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(response.toString().getBytes());
+        super.create(response.append(' ').append(checksum.getValue()).toString());
+    }
+
+    protected void createBinary() {
+        byte[][] messages = new byte[results.size()][];
+        int length = 0;
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = results.get(i).message().getBytes();
+            length += 5 + messages[i].length;
+        }
+        if (length > CPBinaryCodec.MAX_ID)
+            throw new IllegalArgumentException("Batch exceeds 16 bit length");
+        ByteBuffer entries = ByteBuffer.allocate(length);
+        for (int i = 0; i < messages.length; i++) {
+            entries.putShort((short) results.get(i).commandId());
+            entries.put((byte) (results.get(i).ok() ? 1 : 0));
+            entries.putShort((short) messages[i].length);
+            entries.put(messages[i]);
+        }
+        this.dataBytes = CPBinaryCodec.encode(CPBinaryCodec.COMMAND_BATCH_RESPONSE, false, results.size(), 0, entries.array());
+    }
+
+    /*
+     * Client side: parse a received batch response and verify its checksum
+     */
+    protected static CPCommandBatchResponseMsg parseResponse(String sentence) throws IllegalMsgException, BadChecksumException {
+        if (!sentence.startsWith(CP_HEADER + " " + CP_BATCH_RESPONSE_HEADER + " "))
+            throw new IllegalMsgException();
+        int checksumStart = sentence.lastIndexOf(' ');
+        String body = sentence.substring(CP_HEADER.length() + 1, checksumStart);
+        CRC32 calculated = new CRC32();
+        calculated.update(body.getBytes());
+        if (!sentence.substring(checksumStart + 1).equals(Long.toUnsignedString(calculated.getValue())))
+            throw new BadChecksumException();
+
+        CPCommandBatchMsg.Fields fields = new CPCommandBatchMsg.Fields(body, CP_BATCH_RESPONSE_HEADER.length() + 1);
+        CPCommandBatchResponseMsg response = new CPCommandBatchResponseMsg();
+        int count = fields.nextInt();
+        for (int i = 0; i < count; i++) {
+            int id = fields.nextInt();
+            String success = fields.next();
+            if (!success.matches("ok|error"))
+                throw new IllegalMsgException();
+            int length = fields.nextInt();
+            String message = length > 0 ? fields.next(length) : "";
+            response.results.add(new Result(id, success.equals("ok"), message));
+        }
+        if (!fields.atEnd())
+            throw new IllegalMsgException();
+        response.data = sentence;
+        response.dataBytes = sentence.getBytes();
+        return response;
+    }
+
+    /*
+     * Client side: batch response from a decoded binary frame (checksum verified by the codec)
+     */
+    protected static CPCommandBatchResponseMsg fromFrame(CPBinaryCodec.Frame frame) throws IllegalMsgException {
+        if (frame.getType() != CPBinaryCodec.COMMAND_BATCH_RESPONSE)
+            throw new IllegalMsgException();
+        CPCommandBatchResponseMsg response = new CPCommandBatchResponseMsg();
+        ByteBuffer entries = ByteBuffer.wrap(frame.getMessage());
+        for (int i = 0; i < frame.getId(); i++) {
+            if (entries.remaining() < 5)
+                throw new IllegalMsgException();
+            int id = Short.toUnsignedInt(entries.getShort());
+            boolean ok = entries.get() != 0;
+            int length = Short.toUnsignedInt(entries.getShort());
+            if (entries.remaining() < length)
+                throw new IllegalMsgException();
+            byte[] message = new byte[length];
+            entries.get(message);
+            response.results.add(new Result(id, ok, new String(message)));
+        }
+        if (entries.hasRemaining())
+            throw new IllegalMsgException();
+        return response;
+    }
+
+    List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+}
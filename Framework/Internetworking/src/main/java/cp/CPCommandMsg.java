@@ -1,5 +1,6 @@
 package cp;
 
+import exceptions.BadChecksumException;
 import exceptions.IllegalCommandException;
 import exceptions.IllegalMsgException;
 
@@ -10,10 +11,13 @@ public class CPCommandMsg extends CPMsg {
     protected static final String CP_COMMAND_HEADER = "command";
     protected static final String COMMAND_RESPONSE_HEADER = "command_response";
     protected static final String CP_COMMAND_RESPONSE_HEADER = "cp command_response";
+    // (?s)=DOTALL, \\s*=0 oder mehr Leerzeichen, .*=matched alle Chars
+    protected static final String COMMAND_PATTERN = "(?s)status\\s*|print\\s+.*";
     protected int commandId = 0;
     protected int cookie;
     protected CRC32 checksum;
     private CommandType commandType;
+    private String message = "";
 
     public CPCommandMsg(int cookie, int commandId){
         this.commandId = commandId;
@@ -23,27 +27,108 @@ public class CPCommandMsg extends CPMsg {
     // task 3: implement a message class to create command messages
     protected void create(String cmdString) {
 
-        // (?s)=DOTALL, \\s+=0 oder mehr Leerzeichen, .*=matched alle Chars
-        if (!cmdString.matches("(?s)status\\s+|print\\s+.*")) {
+        if (!cmdString.matches(COMMAND_PATTERN)) {
             throw new IllegalArgumentException("Command not supported");
         }
 
-        String[] cmdParts = cmdString.split("\\s+");
+        // the print message may contain whitespace
+        String[] cmdParts = cmdString.trim().split("\\s+", 2);
         String command = cmdParts[0];
         boolean isPrintCommand = command.equals("print");
-        String message = isPrintCommand ? cmdParts[1] : "";
+        String message = isPrintCommand && cmdParts.length > 1 ? cmdParts[1] : "";
 
         commandType = isPrintCommand ? CommandType.PRINT : CommandType.STATUS;
+        this.message = message;
         String commandMessage;
 
         // Format laut 3.3.: cp⟨WS⟩command⟨WS⟩⟨id⟩⟨WS⟩⟨cookie⟩⟨WS⟩⟨length⟩⟨WS⟩⟨command⟩[⟨WS⟩⟨message⟩]⟨WS⟩⟨checksum⟩
-        commandMessage = CP_HEADER + " " + CP_COMMAND_HEADER + " " + this.commandId + " " + this.cookie + " " + command + " " + message.length() + message;
+        // the checksum covers everything between the cp header and the checksum (same as for responses)
+        commandMessage = CP_COMMAND_HEADER + " " + this.commandId + " " + this.cookie + " " + message.length() + " " + command
+                + (message.isEmpty() ? "" : " " + message);
 
         this.checksum = calculateChecksum(commandMessage);
 
         super.create(commandMessage + " " + checksum.getValue());
     }
 
+    /*
+     * Server side: parse a received command message and verify its checksum
+     */
+    protected static CPCommandMsg parseCommand(String sentence) throws IllegalMsgException, IllegalCommandException, BadChecksumException {
+        if (!sentence.startsWith(CP_HEADER + " " + CP_COMMAND_HEADER + " "))
+            throw new IllegalMsgException();
+        int checksumStart = sentence.lastIndexOf(' ');
+        String body = sentence.substring(CP_HEADER.length() + 1, checksumStart);
+        CRC32 calculated = new CRC32();
+        calculated.update(body.getBytes());
+        if (!sentence.substring(checksumStart + 1).equals(Long.toUnsignedString(calculated.getValue())))
+            throw new BadChecksumException();
+
+        // command = 0; id = 1; cookie = 2; length = 3; command = 4; [message = 5]
+        String[] parts = body.split(" ", 6);
+        if (parts.length < 5)
+            throw new IllegalMsgException();
+        CPCommandMsg msg;
+        int length;
+        try {
+            msg = new CPCommandMsg(Integer.parseInt(parts[2]), Integer.parseInt(parts[1]));
+            length = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalMsgException();
+        }
+        if (msg.commandId < 0 || msg.commandId > CPBinaryCodec.MAX_ID)
+            throw new IllegalMsgException();
+        String message = parts.length > 5 ? parts[5] : "";
+        if (message.length() != length)
+            throw new IllegalMsgException();
+        if (parts[4].equals("print")) {
+            msg.commandType = CommandType.PRINT;
+        } else if (parts[4].equals("status") && length == 0) {
+            msg.commandType = CommandType.STATUS;
+        } else {
+            throw new IllegalCommandException();
+        }
+        msg.message = message;
+        msg.data = sentence;
+        msg.dataBytes = sentence.getBytes();
+        return msg;
+    }
+
+    /*
+     * Server side: command from a decoded binary frame (checksum verified by the codec)
+     */
+    protected static CPCommandMsg fromFrame(CPBinaryCodec.Frame frame) throws IllegalMsgException {
+        if (frame.getType() != CPBinaryCodec.COMMAND)
+            throw new IllegalMsgException();
+        CPCommandMsg msg = new CPCommandMsg(frame.getCookie(), frame.getId());
+        msg.commandType = frame.isSet() ? CommandType.PRINT : CommandType.STATUS;
+        msg.message = frame.getMessageString();
+        return msg;
+    }
+
+    // entry of a received batch (CPCommandBatchMsg), already checked there
+    protected static CPCommandMsg of(int cookie, int commandId, CommandType type, String message) {
+        CPCommandMsg msg = new CPCommandMsg(cookie, commandId);
+        msg.commandType = type;
+        msg.message = message;
+        return msg;
+    }
+
+    // Binary variant of create: fixed-width id, cookie and length fields instead of decimal text
+    protected void createBinary(String cmdString) {
+        if (!cmdString.matches(COMMAND_PATTERN)) {
+            throw new IllegalArgumentException("Command not supported");
+        }
+
+        String[] cmdParts = cmdString.trim().split("\\s+", 2);
+        boolean isPrintCommand = cmdParts[0].equals("print");
+        String message = isPrintCommand && cmdParts.length > 1 ? cmdParts[1] : "";
+
+        commandType = isPrintCommand ? CommandType.PRINT : CommandType.STATUS;
+        this.message = message;
+        this.dataBytes = CPBinaryCodec.encodeCommand(this.commandId, this.cookie, isPrintCommand, message);
+    }
+
 
     // task 3: implement a message class to create command messages
     public CPMsg parse(String response) throws IllegalCommandException, IllegalMsgException {
@@ -68,7 +153,6 @@ public class CPCommandMsg extends CPMsg {
 
         CPMsg parsedCommandResponseMsg = new CPMsg();
         String commandResponseMsg;
-        boolean isCommandTypeStatus = this.commandType == CommandType.STATUS;
 
 
         // id: The server uses the same id the client used in the command message
@@ -92,10 +176,16 @@ public class CPCommandMsg extends CPMsg {
          * command messages and the time-to-live value of the current cookie.
          *
          */
-        String message = isCommandTypeStatus ? responseParts[5] : "";
+        // everything between length and checksum, the message may contain whitespace (e.g. error reasons)
+        String[] fields = responseWithoutChecksum.split("\\s+", 5);
+        String message = fields.length > 4 ? fields[4] : "";
+        if (message.length() != length) {
+            throw new IllegalCommandException();
+        }
 
         // Format laut 3.4.: cp⟨WS⟩command_response⟨WS⟩⟨id⟩⟨WS⟩⟨success⟩⟨WS⟩⟨length⟩[⟨WS⟩⟨message⟩]⟨WS⟩⟨checksum⟩
-        commandResponseMsg = COMMAND_RESPONSE_HEADER + " " + responseId + " " + responseSuccess + " " + length + " " + message + " " + responseChecksum;
+        commandResponseMsg = COMMAND_RESPONSE_HEADER + " " + responseId + " " + responseSuccess + " " + length
+                + (message.isEmpty() ? "" : " " + message) + " " + responseChecksum;
         parsedCommandResponseMsg.create(commandResponseMsg);
         return parsedCommandResponseMsg;
     }
@@ -117,9 +207,16 @@ public class CPCommandMsg extends CPMsg {
     public int getCommandId() {
         return commandId;
     }
-}
 
-enum CommandType {
-    STATUS,
-    PRINT
-}
\ No newline at end of file
+    public int getCookie() {
+        return cookie;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    CommandType getCommandType() {
+        return commandType;
+    }
+}
@@ -0,0 +1,34 @@
+package cp;
+
+import java.util.zip.CRC32;
+
+/*
+ * Command server answer
+ * Format laut 3.4.: cp⟨WS⟩command_response⟨WS⟩⟨id⟩⟨WS⟩⟨success⟩⟨WS⟩⟨length⟩[⟨WS⟩⟨message⟩]⟨WS⟩⟨checksum⟩
+ * The checksum covers everything between the cp header and the checksum.
+ */
+class CPCommandResponseMsg extends CPMsg {
+    private final int commandId;
+    private final boolean ok;
+
+    protected CPCommandResponseMsg(int commandId, boolean ok) {
+        this.commandId = commandId;
+        this.ok = ok;
+    }
+
+    protected boolean isOk() {return this.ok;}
+
+    /*
+     * message: JSON for status, empty for print, the reason for errors
+     */
+    @Override
+    protected void create(String message) {
+        if (message == null)
+            message = "";
+        String response = CPCommandMsg.COMMAND_RESPONSE_HEADER + " " + commandId + " " + (ok ? "ok" : "error") + " "
+                + message.length() + (message.isEmpty() ? "" : " " + message);
+        CRC32 checksum = new CRC32();
+        checksum.update(response.getBytes());
+        super.create(response + " " + checksum.getValue());
+    }
+}
@@ -35,6 +35,18 @@ class CPCookieResponseMsg extends CPMsg {
         super.create(data);
     }
 
+    /*
+     * Populate the message from a decoded binary frame
+     */
+    protected static CPCookieResponseMsg fromFrame(CPBinaryCodec.Frame frame) throws IllegalMsgException {
+        if (frame.getType() != CPBinaryCodec.COOKIE_RESPONSE)
+            throw new IllegalMsgException();
+        CPCookieResponseMsg msg = new CPCookieResponseMsg(frame.isSet());
+        msg.cookie = frame.getCookie();
+        msg.data = frame.getMessageString();
+        return msg;
+    }
+
     protected Msg parse(String sentence) throws IllegalMsgException {
         if (!sentence.startsWith(CP_CRES_HEADER)) {
             throw new IllegalMsgException();
@@ -0,0 +1,59 @@
+package cp;
+
+import core.Msg;
+import exceptions.IllegalMsgException;
+import phy.PhyConfiguration;
+
+/*
+ * Cookie server -> command server: answer to cookie_validate
+ * Format: cp cookie_ttl <cookie> <client address> <client port> <ttl>
+ * ttl is the remaining lifetime in ms (relative -> no clock synchronisation between servers),
+ * -1 if the cookie is unknown, belongs to another client or has expired.
+ */
+class CPCookieTtlMsg extends CPMsg {
+    protected static final String CP_CTTL_HEADER = "cookie_ttl";
+    private int cookie;
+    private PhyConfiguration client;
+    private long ttl;
+
+    protected CPCookieTtlMsg() {
+
+    }
+
+    protected CPCookieTtlMsg(int cookie, PhyConfiguration client, long ttl) {
+        this.cookie = cookie;
+        this.client = client;
+        this.ttl = ttl;
+    }
+
+    protected int getCookie() {return this.cookie;}
+
+    protected PhyConfiguration getClient() {return this.client;}
+
+    protected long getTtl() {return this.ttl;}
+
+    @Override
+    protected void create(String data) {
+        data = CP_CTTL_HEADER + " " + cookie + " " + client.getRemoteIPAddress().getHostAddress() + " "
+                + client.getRemotePort() + " " + ttl;
+        super.create(data);
+    }
+
+    @Override
+    protected Msg parse(String sentence) throws IllegalMsgException {
+        if (!sentence.startsWith(CP_CTTL_HEADER))
+            throw new IllegalMsgException();
+        String[] parts = sentence.split("\\s+");
+        if (parts.length != 5)
+            throw new IllegalMsgException();
+        this.cookie = CPCookieValidateMsg.parseInt(parts[1]);
+        this.client = CPCookieValidateMsg.parseClient(parts[2], parts[3]);
+        try {
+            this.ttl = Long.parseLong(parts[4]);
+        } catch (NumberFormatException e) {
+            throw new IllegalMsgException();
+        }
+        this.data = sentence;
+        return this;
+    }
+}
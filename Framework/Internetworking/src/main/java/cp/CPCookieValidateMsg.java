@@ -0,0 +1,77 @@
+package cp;
+
+import core.Msg;
+import core.Protocol;
+import exceptions.IllegalMsgException;
+import phy.PhyConfiguration;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/*
+ * Command server -> cookie server: is this cookie valid for this client?
+ * Format: cp cookie_validate <cookie> <client address> <client port>
+ */
+class CPCookieValidateMsg extends CPMsg {
+    protected static final String CP_CVAL_HEADER = "cookie_validate";
+    private int cookie;
+    private PhyConfiguration client;
+
+    protected CPCookieValidateMsg() {
+
+    }
+
+    protected CPCookieValidateMsg(int cookie, PhyConfiguration client) {
+        this.cookie = cookie;
+        this.client = client;
+    }
+
+    protected int getCookie() {return this.cookie;}
+
+    protected PhyConfiguration getClient() {return this.client;}
+
+    /*
+     * Create cookie validation request.
+     * The cp header is prepended in the super-class.
+     */
+    @Override
+    protected void create(String data) {
+        data = CP_CVAL_HEADER + " " + cookie + " " + client.getRemoteIPAddress().getHostAddress() + " " + client.getRemotePort();
+        super.create(data);
+    }
+
+    @Override
+    protected Msg parse(String sentence) throws IllegalMsgException {
+        if (!sentence.startsWith(CP_CVAL_HEADER))
+            throw new IllegalMsgException();
+        String[] parts = sentence.split("\\s+");
+        if (parts.length != 4)
+            throw new IllegalMsgException();
+        this.cookie = parseInt(parts[1]);
+        this.client = parseClient(parts[2], parts[3]);
+        this.data = sentence;
+        return this;
+    }
+
+    static int parseInt(String s) throws IllegalMsgException {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalMsgException();
+        }
+    }
+
+    // address literals only, no name lookups on the server
+    static PhyConfiguration parseClient(String address, String port) throws IllegalMsgException {
+        if (!address.matches("[0-9a-fA-F.:%]+"))
+            throw new IllegalMsgException();
+        int p = parseInt(port);
+        if (p < 0 || p > 65535)
+            throw new IllegalMsgException();
+        try {
+            return new PhyConfiguration(InetAddress.getByName(address), p, Protocol.proto_id.CP);
+        } catch (UnknownHostException e) {
+            throw new IllegalMsgException();
+        }
+    }
+}
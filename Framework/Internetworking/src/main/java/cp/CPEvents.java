@@ -0,0 +1,69 @@
+package cp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * JDK Flight Recorder events of the cp layer
+ * Fields are only filled if shouldCommit() is true, so disabled events cost next to nothing.
+ */
+final class CPEvents {
+    private CPEvents() {}
+
+    @Name("internetworking.cp.CookieRequest")
+    @Label("CP Cookie Request")
+    @Category({"Internetworking", "CP"})
+    @Description("Client side cookie request from the first attempt to the answer or giving up")
+    static final class CookieRequest extends Event {
+        @Label("Server")
+        String server;
+        @Label("Attempts")
+        int attempts;
+        @Label("Outcome")
+        @Description("ACK, NAK reason or TIMEOUT")
+        String outcome;
+    }
+
+    @Name("internetworking.cp.Command")
+    @Label("CP Command")
+    @Category({"Internetworking", "CP"})
+    @Description("Command completed by its response or given up, committed at completion")
+    static final class Command extends Event {
+        @Label("Command Id")
+        int commandId;
+        @Label("Command")
+        String command;
+        @Label("Retries")
+        int retries;
+        @Label("RTT")
+        @Description("Time since the last transmission of the command")
+        @Timespan(Timespan.NANOSECONDS)
+        long rtt;
+        @Label("Latency")
+        @Description("Time since the first transmission of the command")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+        @Label("Outcome")
+        @Description("ok, error or TIMEOUT")
+        String outcome;
+    }
+
+    @Name("internetworking.cp.CookieDecision")
+    @Label("CP Cookie Decision")
+    @Category({"Internetworking", "CP"})
+    @Description("Cookie server decision for one request")
+    static final class CookieDecision extends Event {
+        @Label("Client")
+        String client;
+        @Label("Decision")
+        @Description("ISSUED or the NAK reason")
+        String decision;
+        @Label("Cookies")
+        @Description("Cookie map size after the request")
+        int cookies;
+    }
+}
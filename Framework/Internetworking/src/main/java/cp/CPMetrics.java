@@ -0,0 +1,73 @@
+package cp;
+
+import core.ConcurrentLatencyHistogram;
+import exceptions.BadChecksumException;
+import exceptions.IllegalCommandException;
+import exceptions.IllegalMsgException;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/*
+ * Counters and command latencies of one CPProtocol instance
+ * Recording only touches LongAdders and preallocated histogram buckets -> no allocation on the hot path.
+ */
+public class CPMetrics implements CPMetricsMBean {
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LongAdder checksumFailures = new LongAdder();
+    private final LongAdder cookiesIssued = new LongAdder();
+    private final LongAdder cookiesRejected = new LongAdder();
+    private final LongAdder commandsRejected = new LongAdder();
+    private final ConcurrentLatencyHistogram statusLatency = new ConcurrentLatencyHistogram();
+    private final ConcurrentLatencyHistogram printLatency = new ConcurrentLatencyHistogram();
+    private volatile IntSupplier cookieMapOccupancy = () -> 0;
+
+    void retry() {retries.increment();}
+    void timeout() {timeouts.increment();}
+    void cookieIssued() {cookiesIssued.increment();}
+    void cookieRejected() {cookiesRejected.increment();}
+    void commandRejected() {commandsRejected.increment();}
+
+    // classify a failure to decode a received message
+    void failure(Exception e) {
+        if (e instanceof BadChecksumException)
+            checksumFailures.increment();
+        else if (e instanceof IllegalMsgException || e instanceof IllegalCommandException || e instanceof NumberFormatException)
+            parseFailures.increment();
+    }
+
+    void commandCompleted(CommandType type, long nanos) {
+        (type == CommandType.PRINT ? printLatency : statusLatency).record(nanos);
+    }
+
+    void setCookieMapOccupancy(IntSupplier occupancy) {
+        this.cookieMapOccupancy = occupancy;
+    }
+
+    @Override
+    public long getRetries() {return retries.sum();}
+    @Override
+    public long getTimeouts() {return timeouts.sum();}
+    @Override
+    public long getParseFailures() {return parseFailures.sum();}
+    @Override
+    public long getChecksumFailures() {return checksumFailures.sum();}
+    @Override
+    public long getCookiesIssued() {return cookiesIssued.sum();}
+    @Override
+    public long getCookiesRejected() {return cookiesRejected.sum();}
+    @Override
+    public long getCommandsRejected() {return commandsRejected.sum();}
+    @Override
+    public int getCookieMapOccupancy() {return cookieMapOccupancy.getAsInt();}
+    @Override
+    public long getStatusCommands() {return statusLatency.snapshot().getCount();}
+    @Override
+    public long getPrintCommands() {return printLatency.snapshot().getCount();}
+    @Override
+    public String getStatusLatency() {return statusLatency.snapshot().toString();}
+    @Override
+    public String getPrintLatency() {return printLatency.snapshot().toString();}
+}
@@ -0,0 +1,21 @@
+package cp;
+
+/*
+ * JMX view of CPMetrics
+ */
+public interface CPMetricsMBean {
+    long getRetries();
+    long getTimeouts();
+    long getParseFailures();
+    long getChecksumFailures();
+    long getCookiesIssued();
+    long getCookiesRejected();
+    // command server overload: worker queue full
+    long getCommandsRejected();
+    int getCookieMapOccupancy();
+    long getStatusCommands();
+    long getPrintCommands();
+    // min/avg/p50/p99/p99.9/max of completed commands
+    String getStatusLatency();
+    String getPrintLatency();
+}
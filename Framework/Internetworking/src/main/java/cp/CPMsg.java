@@ -28,6 +28,10 @@ class CPMsg extends Msg {
             parsedMsg = new CPCookieRequestMsg();
         } else if(parts[1].startsWith(CPCookieResponseMsg.CP_CRES_HEADER)) {
             parsedMsg = new CPCookieResponseMsg();
+        } else if(parts[1].startsWith(CPCookieValidateMsg.CP_CVAL_HEADER)) {
+            parsedMsg = new CPCookieValidateMsg();
+        } else if(parts[1].startsWith(CPCookieTtlMsg.CP_CTTL_HEADER)) {
+            parsedMsg = new CPCookieTtlMsg();
         } else {
             throw new IllegalMsgException();
         }
@@ -3,7 +3,6 @@ package cp;
 
 import core.*;
 import exceptions.*;
-import org.junit.platform.commons.util.StringUtils;
 import phy.*;
 
 import java.io.IOException;
@@ -11,18 +10,44 @@ import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CPProtocol extends Protocol {
-    private static final int CP_TIMEOUT = 2000;
-    private static final int CP_HASHMAP_SIZE = 20;
+    static final int CP_TIMEOUT = 2000;
+    public static final int CP_HASHMAP_SIZE = 20;
     private int cookie;
     private int id;
     private PhyConfiguration PhyConfigCommandServer;
     private PhyConfiguration PhyConfigCookieServer;
     private final PhyProtocol PhyProto;
     private final cp_role role;
-    HashMap<PhyConfiguration, Cookie> cookieMap;
-    Random rnd;
+    private WireFormat wireFormat = WireFormat.TEXT;
+    // server roles, null unless this instance plays them
+    private final CookieServer cookieServer;
+    private final CommandServer commandServer;
+    // asynchronous client state -> only touched on the reactor thread
+    private PhyReactor reactor;
+    // asynchronous and pipelined client: commands sent and not answered, and those waiting for room in the window
+    private final InFlightTable inFlight = new InFlightTable();
+    private final Deque<QueuedCommand> queuedCommands = new ArrayDeque<>();
+    private int batchSize = 1;
+    private boolean startScheduled;
+    private CompletableFuture<Integer> pendingCookie;
+    private PhyReactor.Deadline cookieTimeout;
+    private long cookieSentAt;
+    private int cookieAttempt;
+    // round trip times per peer -> adaptive retransmission timeouts
+    private final Map<PhyConfiguration, RttEstimator> rttEstimators = new ConcurrentHashMap<>();
+    private long commandSentAt;
+    private CommandType commandType;
+    // last command of the synchronous client, sent again when its response does not arrive in time
+    private byte[] commandBytes;
+    private boolean commandBinary;
+    private boolean commandRetransmitted;
+    private final CPMetrics metrics = new CPMetrics();
+    // log events, formatted off the hot path by the EventLog thread
+    private static final EventLog.Event RECEIVING = EventLog.event(EventLog.Level.TRACE, "cp receive, role %3$s");
 
     private enum cp_role {
         CLIENT, COOKIE, COMMAND
@@ -32,44 +57,213 @@ public class CPProtocol extends Protocol {
     public CPProtocol(InetAddress rname, int rp, PhyProtocol phyP) throws UnknownHostException {
         this.PhyConfigCommandServer = new PhyConfiguration(rname, rp, proto_id.CP);
         this.PhyProto = phyP;
+        // only cp traffic is returned to this layer, other protocol ids are queued by the phy layer
+        this.PhyProto.bind(proto_id.CP);
         this.role = cp_role.CLIENT;
         this.cookie = -1;
+        this.cookieServer = null;
+        this.commandServer = null;
     }
 
     // Constructor for servers
     public CPProtocol(PhyProtocol phyP, boolean isCookieServer) {
         this.PhyProto = phyP;
+        this.PhyProto.bind(proto_id.CP);
         if (isCookieServer) {
             this.role = cp_role.COOKIE;
-            this.cookieMap = new HashMap<>();
-            this.rnd = new Random();
+            this.cookieServer = new CookieServer(phyP, this.metrics, new CookieStore(CP_HASHMAP_SIZE, CookieStore.DEFAULT_TTL));
+            this.commandServer = null;
         } else {
             this.role = cp_role.COMMAND;
+            this.cookieServer = null;
+            this.commandServer = new CommandServer(phyP, this.metrics);
         }
     }
 
+    // Constructor for cookie servers that share one cookie store (e.g. one shard per core)
+    public CPProtocol(PhyProtocol phyP, CookieStore cookies) {
+        this(phyP, true);
+        this.cookieServer.setCookieStore(cookies);
+    }
+
+    private CookieServer cookieServer() {
+        if (this.cookieServer == null)
+            throw new IllegalStateException("Not a cookie server");
+        return this.cookieServer;
+    }
+
+    private CommandServer commandServer() {
+        if (this.commandServer == null)
+            throw new IllegalStateException("Not a command server");
+        return this.commandServer;
+    }
+
+    /*
+     * Cookie server: lifetime (ms) of issued cookies, set before the server starts receiving
+     * Replaces the cookie store -> shards sharing a store get the ttl when the store is created
+     */
+    public void setCookieTtl(long ttl) {
+        cookieServer().setCookieStore(new CookieStore(cookieServer().getCookieStore().getCapacity(), ttl));
+    }
+
+    public CookieStore getCookieStore() {
+        return cookieServer().getCookieStore();
+    }
+
+    /*
+     * Cookie server: issue stateless signed cookies instead of storing them
+     * Any server with the same secret can validate them, there is no limit on the number of clients.
+     */
+    public void setCookieSigner(CookieSigner signer) {
+        cookieServer().setCookieSigner(signer);
+    }
+
+    public CookieSigner getCookieSigner() {
+        return cookieServer().getCookieSigner();
+    }
+
+    /*
+     * Cookie server: hosts of the command servers that may validate cookies (cookie_validate)
+     * Requests from anywhere else are not answered, otherwise anyone could test guessed cookies
+     * of other clients. None by default.
+     */
+    public void setValidationPeers(Collection<InetAddress> peers) {
+        cookieServer().setValidationPeers(peers);
+    }
+
+    /*
+     * Command server: how cookies of incoming commands are checked
+     * (CookieSigner for stateless cookies, otherwise a CookieValidationCache in front of a RemoteCookieValidator)
+     */
+    public void setCookieValidator(CookieValidator validator) {
+        commandServer().setCookieValidator(validator);
+    }
+
+    /*
+     * Command server: number of worker threads, set before the server starts receiving
+     */
+    public void setWorkers(int count) {
+        commandServer().setWorkers(count, CommandServer.WORKER_QUEUE_SIZE);
+    }
+
+    /*
+     * queueSize: commands waiting per worker, further commands are answered with "Out of Resources"
+     */
+    public void setWorkers(int count, int queueSize) {
+        commandServer().setWorkers(count, queueSize);
+    }
+
     public void setCookieServer(InetAddress rname, int rp) throws UnknownHostException {
         this.PhyConfigCookieServer = new PhyConfiguration(rname, rp, proto_id.CP);
     }
 
-    private static int commandId = 0;
-    private static final List<Integer> existingCommandIds = new ArrayList<>();
+    /*
+     * TEXT (default) or BINARY framing for messages this instance initiates
+     * Servers answer in the format of the request they received
+     * BINARY is refused if the phy layer cannot carry binary payloads (e.g. SLPTransport)
+     */
+    public void setWireFormat(WireFormat format) {
+        if (format == WireFormat.BINARY && !this.PhyProto.supportsBinary())
+            throw new IllegalArgumentException("Binary framing is not supported by " + this.PhyProto.getClass().getSimpleName());
+        this.wireFormat = format;
+    }
 
-    private int createCommandId() {
-        if (commandId < 65535) {
-            commandId++;
+    /*
+     * Cookie server: handle requests inline or on one virtual thread per request
+     * maxConcurrency bounds the number of requests in progress; the receive loop waits when it is reached
+     */
+    public void setExecutionMode(ExecutionMode mode, int maxConcurrency) {
+        cookieServer().setExecutionMode(mode, maxConcurrency);
+    }
+
+    /*
+     * Counters and command latencies, see core.Metrics for JMX registration
+     */
+    public CPMetrics getMetrics() {
+        return metrics;
+    }
+
+    public ExecutionStats getExecutionStats(ExecutionMode mode) {
+        return cookieServer().getExecutionStats(mode);
+    }
+
+    /*
+     * Round trip time estimate and current retransmission timeout for a peer
+     */
+    public RttEstimator getRttEstimator(PhyConfiguration peer) {
+        return rttEstimators.computeIfAbsent(peer, p -> new RttEstimator(CP_TIMEOUT));
+    }
+
+    private static double millisSince(long start) {
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    // JFR event for a completed or abandoned command (sync and async client)
+    static void commandEvent(int commandId, CommandType type, int retries, long sentAt, long firstSentAt, String outcome) {
+        CPEvents.Command event = new CPEvents.Command();
+        if (event.shouldCommit()) {
+            long now = System.nanoTime();
+            event.commandId = commandId;
+            event.command = String.valueOf(type);
+            event.retries = retries;
+            event.rtt = now - sentAt;
+            event.latency = now - firstSentAt;
+            event.outcome = outcome;
+            event.commit();
         }
+    }
 
-        if (existingCommandIds.contains(commandId)) {
-            while (existingCommandIds.contains(commandId)) {
-                commandId++;
-            }
+    // ids of this client's commands; the synchronous API holds at most one until its response is consumed
+    private final CommandIdAllocator commandIds = new CommandIdAllocator();
+    private boolean idPending;
+
+    private int createCommandId() {
+        int id = commandIds.allocate();
+        if (id < 0)
+            throw new IllegalStateException("All command ids in use");
+        return id;
+    }
+
+    private void releaseSyncId() {
+        this.commandBytes = null;
+        if (this.idPending) {
+            commandIds.release(this.id);
+            this.idPending = false;
         }
+    }
+
+    private PendingCommand removePending(int commandId) {
+        PendingCommand pending = this.inFlight.remove(commandId);
+        if (pending != null)
+            commandIds.release(commandId);
+        return pending;
+    }
+
+    /*
+     * Number of commands the asynchronous and pipelined client keeps in flight at once
+     * Further commands wait until a response (or a final timeout) frees a slot; at most
+     * InFlightTable.MAX_WINDOW, the command server answers retransmissions only that far back.
+     */
+    public void setWindow(int window) {
+        this.inFlight.setWindow(window);
+    }
+
+    public int getWindow() {
+        return this.inFlight.getWindow();
+    }
 
-        this.id = commandId;
-        existingCommandIds.add(this.id);
+    /*
+     * Number of commands the asynchronous and pipelined client packs into one command_batch datagram
+     * 1 (default) sends every command on its own; the command server must understand batches otherwise.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1 || batchSize > CPBinaryCodec.MAX_ID)
+            throw new IllegalArgumentException("batch size must be between 1 and " + CPBinaryCodec.MAX_ID);
+        this.batchSize = batchSize;
+    }
 
-        return this.id;
+    public CommandIdAllocator getCommandIds() {
+        return commandIds;
     }
 
 
@@ -84,15 +278,33 @@ public class CPProtocol extends Protocol {
 
         // Task 1.2.1: complete send method
         // 1a: legal command
-        if (StringUtils.isBlank(s)) {
+        if (s == null || s.isBlank()) {
             throw new IllegalMsgException();
         }
 
         // 1b: create cmd msg obj
-        int id = createCommandId();
-        CPCommandMsg commandMsg = new CPCommandMsg(this.cookie, id);
-        commandMsg.create(s);
-        this.PhyProto.send(Arrays.toString(commandMsg.getDataBytes()), this.PhyConfigCommandServer);
+        // a command whose response was never read gives its id back
+        releaseSyncId();
+        this.id = createCommandId();
+        this.idPending = true;
+        CPCommandMsg commandMsg = new CPCommandMsg(this.cookie, this.id);
+        this.commandBinary = this.wireFormat == WireFormat.BINARY;
+        if (this.commandBinary)
+            commandMsg.createBinary(s);
+        else
+            commandMsg.create(s);
+        this.commandType = commandMsg.getCommandType();
+        this.commandBytes = commandMsg.getDataBytes();
+        this.commandRetransmitted = false;
+        this.commandSentAt = System.nanoTime();
+        sendCommand();
+    }
+
+    private void sendCommand() throws IOException, IWProtocolException {
+        if (this.commandBinary)
+            this.PhyProto.send(this.commandBytes, this.PhyConfigCommandServer);
+        else
+            this.PhyProto.send(new String(this.commandBytes), this.PhyConfigCommandServer);
     }
 
     @Override
@@ -102,71 +314,87 @@ public class CPProtocol extends Protocol {
         int retries = 0;
         Msg in;
 
-        System.out.println("Receiving message");
+        EventLog.log(RECEIVING, 0, 0, this.role);
 
         switch (this.role) {
-            case COOKIE -> {
-                while (true) {
-                    Msg receivedMsg;
-                    System.out.println("Entered cookie server loop");
-
-                    try {
-                        System.out.println("Waiting for message");
-                        receivedMsg = this.PhyProto.receive(CP_TIMEOUT);
-                        String msg = receivedMsg != null ? receivedMsg.getData() : "";
-                        System.out.println(msg + " received");
-
-                        // bei null überspringen
-                        if (receivedMsg == null) {
-                            System.out.println("WIESO ZUR HÖLLE SPRINGST DU JETZT HIER REIN, DIE MESSAGE IST DOCH NICHT NULL IM DEBUGGER");
-                            continue;
-                        }
-
-                        // bei nicht-cp-nachrichten überspringen
-                        if (((PhyConfiguration) receivedMsg.getConfiguration()).getPid() != proto_id.CP) {
-                            continue;
-                        }
-
-                        // wenn richtiger header, cookie request verarbeiten
-                        if (msg.matches("cp cookie_request")) {
-                            System.out.println("Cookie wird gecookt");
-                            processCookie(receivedMsg);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+            case COOKIE -> this.cookieServer.serve();
             case CLIENT -> {
-                while (retries < maxRetries) {
-                    try {
-                        // msg empfangen
-                        in = this.PhyProto.receive(CP_TIMEOUT);
-
-                        // parsen
-                        Msg responseMsg = new CPCommandMsg(this.cookie, this.id);
-                        responseMsg = ((CPCommandMsg) responseMsg).parse(in.getData());
-
-                        // Check that the response matches the command message by comparing the message id of the received message with id of the sent message
-                        String[] responseParts = responseMsg.getData().split("\\s+");
-                        int receivedId = Integer.parseInt(responseParts[2]);
-                        String successStatus = responseParts[3];
-
-                        if (this.id == receivedId) {
-                            if (successStatus.equals("ok")) {
-                                return responseMsg;
-                            } else if (successStatus.equals("error")) {
-                                break;
+                try {
+                    RttEstimator rtt = getRttEstimator(this.PhyConfigCommandServer);
+                    int timeouts = 0;
+                    long sentAt = this.commandSentAt;
+                    String outcome = "TIMEOUT";
+                    // a lost command or response is sent again after each (backed off) RTO, but the client
+                    // waits as long in total as with fixed timeouts: the first execution of a command may
+                    // be slow (cookie lookup at the cookie server, busy worker)
+                    long giveUp = System.nanoTime() + (long) maxRetries * CP_TIMEOUT * 1_000_000L;
+                    while (retries < maxRetries) {
+                        long remaining = (giveUp - System.nanoTime()) / 1_000_000L;
+                        if (remaining <= 0)
+                            break;
+                        try {
+                            // msg empfangen
+                            in = this.PhyProto.receive((int) Math.min(rtt.getTimeout(timeouts), remaining));
+
+                            if (isBinary(in)) {
+                                CPBinaryCodec.Frame frame = CPBinaryCodec.decode(((PhyMsg) in).getPayload());
+                                if (frame.getType() != CPBinaryCodec.COMMAND_RESPONSE)
+                                    throw new IllegalMsgException();
+                                if (this.id == frame.getId()) {
+                                    sampleCommandRtt(rtt);
+                                    if (frame.isSet()) {
+                                        commandEvent(this.id, this.commandType, timeouts, sentAt, sentAt, "ok");
+                                        CPMsg responseMsg = new CPMsg();
+                                        responseMsg.create(CPCommandMsg.COMMAND_RESPONSE_HEADER + " " + frame.getId() + " ok "
+                                                + frame.getMessage().length + " " + frame.getMessageString());
+                                        return responseMsg;
+                                    }
+                                    outcome = "error";
+                                    break;
+                                }
+                                continue;
+                            }
+
+                            // parsen
+                            Msg responseMsg = new CPCommandMsg(this.cookie, this.id);
+                            responseMsg = ((CPCommandMsg) responseMsg).parse(in.getData());
+
+                            // Check that the response matches the command message by comparing the message id of the received message with id of the sent message
+                            String[] responseParts = responseMsg.getData().split("\\s+");
+                            int receivedId = Integer.parseInt(responseParts[2]);
+                            String successStatus = responseParts[3];
+
+                            if (this.id == receivedId) {
+                                sampleCommandRtt(rtt);
+                                if (successStatus.equals("ok")) {
+                                    commandEvent(this.id, this.commandType, timeouts, sentAt, sentAt, "ok");
+                                    return responseMsg;
+                                } else if (successStatus.equals("error")) {
+                                    outcome = "error";
+                                    break;
+                                }
                             }
+                        } catch (SocketTimeoutException e) {
+                            // retry bei timeout
+                            timeouts++;
+                            metrics.timeout();
+                            if (this.commandBytes != null && giveUp - System.nanoTime() > 0) {
+                                this.commandRetransmitted = true;
+                                metrics.retry();
+                                sendCommand();
+                            }
+                        } catch (Exception e) {
+                            retries++; // retry wenn fehler beim parsen oder an anderer stelle auftritt
+                            metrics.failure(e);
                         }
-                    } catch (SocketTimeoutException e) {
-                        retries++; // retry bei timeout
-                    } catch (Exception e) {
-                        retries++; // retry wenn fehler beim parsen oder an anderer stelle auftritt
                     }
+                    commandEvent(this.id, this.commandType, timeouts, sentAt, sentAt, outcome);
+                } finally {
+                    // response consumed or given up -> the id can be reused
+                    releaseSyncId();
                 }
             }
-            case COMMAND -> System.out.println("do command server stuff");
+            case COMMAND -> this.commandServer.serve();
             default -> throw new IllegalStateException("Unexpected value: " + this.role);
         }
 
@@ -180,86 +408,437 @@ public class CPProtocol extends Protocol {
         reqMsg.create(null);
         Msg resMsg = new CPMsg();
 
+        CPEvents.CookieRequest event = new CPEvents.CookieRequest();
+        event.begin();
         boolean waitForResp = true;
         int count = 0;
+        int attempts = 0;
+        long sentAt = 0;
+        RttEstimator rtt = getRttEstimator(this.PhyConfigCookieServer);
         while (waitForResp && count < 3) {
-            this.PhyProto.send(new String(reqMsg.getDataBytes()), this.PhyConfigCookieServer);
+            if (attempts++ > 0)
+                metrics.retry();
+            sentAt = System.nanoTime();
+            if (this.wireFormat == WireFormat.BINARY)
+                this.PhyProto.send(CPBinaryCodec.encodeCookieRequest(), this.PhyConfigCookieServer);
+            else
+                this.PhyProto.send(new String(reqMsg.getDataBytes()), this.PhyConfigCookieServer);
 
             try {
-                Msg in = this.PhyProto.receive(CP_TIMEOUT);
+                Msg in = this.PhyProto.receive(rtt.getTimeout(count));
                 if (((PhyConfiguration) in.getConfiguration()).getPid() != proto_id.CP)
                     continue;
-                resMsg = ((CPMsg) resMsg).parse(in.getData());
+                if (isBinary(in))
+                    resMsg = CPCookieResponseMsg.fromFrame(CPBinaryCodec.decode(((PhyMsg) in).getPayload()));
+                else
+                    resMsg = ((CPMsg) resMsg).parse(in.getData());
                 if (resMsg instanceof CPCookieResponseMsg)
                     waitForResp = false;
             } catch (SocketTimeoutException e) {
                 count += 1;
-            } catch (IWProtocolException ignored) {
+                metrics.timeout();
+            } catch (IWProtocolException e) {
+                metrics.failure(e);
             }
         }
 
-        if (count == 3)
+        if (count == 3) {
+            cookieRequestEvent(event, attempts, "TIMEOUT", null);
             throw new CookieRequestException();
+        }
+        // Karn's rule: only a response to a request that was sent once is an unambiguous sample
+        if (attempts == 1)
+            rtt.sample(millisSince(sentAt));
         if (resMsg instanceof CPCookieResponseMsg && !((CPCookieResponseMsg) resMsg).getSuccess()) {
-            throw new CookieRequestException();
+            cookieRequestEvent(event, attempts, "NAK", resMsg.getData());
+            throw new CookieRequestException(resMsg.getData());
         }
         assert resMsg instanceof CPCookieResponseMsg;
         this.cookie = ((CPCookieResponseMsg) resMsg).getCookie();
+        cookieRequestEvent(event, attempts, "ACK", null);
     }
 
-    // subtask 2.1.1: The cookie requests shall be processed in a dedicated method
-    private void processCookie(Msg msg) throws IWProtocolException, IOException {
-        CPCookieResponseMsg responseMsg;
-        PhyConfiguration clientConfiguration = (PhyConfiguration) msg.getConfiguration();
-
-        // 2.1.2. b) processing of premature cookie renewal
-        if (cookieMap.containsKey(clientConfiguration)) {
-            /* 2.1.2. b) Should a client be allowed to request a new cookie while the old cookie has not yet expired?
-             * design decision:
-             * no, when a client requests a cookie while having an active cookie, i dont want other clients to wait longer for the 20 limit queue just because
-             * one client renews its cookies before they expire, so I will just return a responsemsg object stating that an active cookie already exists
-             */
-            responseMsg = new CPCookieResponseMsg(false);
-            responseMsg.create("ACTIVE_COOKIE_EXISTS");
-            this.PhyProto.send(new String(responseMsg.getDataBytes()), clientConfiguration);
+    private void cookieRequestEvent(CPEvents.CookieRequest event, int attempts, String outcome, String reason) {
+        if (event.shouldCommit()) {
+            event.server = this.PhyConfigCookieServer.getSocketAddress().toString();
+            event.attempts = attempts;
+            event.outcome = reason == null ? outcome : outcome + " " + reason;
+            event.commit();
         }
+    }
 
-        // 2.1.2. a) There shall never be more than 20 entries in the HashMap
-        if (cookieMap.size() >= CP_HASHMAP_SIZE) {
-            // 2.1.2. c) Send an appropriate response message to the client.
-            responseMsg = new CPCookieResponseMsg(false);
-            responseMsg.create("TOO_MANY_COOKIES");
-            this.PhyProto.send(new String(responseMsg.getDataBytes()), clientConfiguration);
+    /*
+     * Enable the asynchronous client API
+     * The reactor reads the phy endpoint (NIO or loopback) and hands cp messages to this instance, messages of
+     * other protocol ids stay with their own handler or queue. The blocking receive methods must not
+     * be used afterwards.
+     */
+    public void attachReactor(PhyReactor reactor) throws IOException {
+        this.reactor = reactor;
+        this.PhyProto.registerHandler(proto_id.CP, this::onAsyncMessage);
+        if (this.PhyProto instanceof LoopbackPhyProtocol)
+            reactor.register((LoopbackPhyProtocol) this.PhyProto);
+        else
+            reactor.register((NioPhyProtocol) this.PhyProto);
+    }
+
+    /*
+     * Send a command without blocking
+     * A cookie is requested first if necessary; retries and timeouts run as reactor deadlines.
+     * The future completes with the parsed command response or fails with the exception
+     * the blocking API would have thrown.
+     */
+    public CompletableFuture<Msg> sendAsync(String command) {
+        if (this.reactor == null)
+            throw new IllegalStateException("No reactor attached");
+        CompletableFuture<Msg> result = new CompletableFuture<>();
+        this.reactor.execute(() -> cookieAsync().whenComplete((c, e) -> {
+            if (e != null)
+                result.completeExceptionally(e);
+            else
+                sendCommandAsync(command, result);
+        }));
+        return result;
+    }
+
+    /*
+     * Send a batch of commands over the blocking phy endpoint, up to the window at a time
+     * Responses are matched by command id in whatever order they arrive; each command has its own
+     * retransmission deadline, so a lost datagram only delays its own command. Returns after every
+     * command was answered or timed out -> all futures are complete.
+     */
+    public List<CompletableFuture<Msg>> sendPipelined(List<String> commands) throws IOException, IWProtocolException {
+        if (this.reactor != null)
+            throw new IllegalStateException("Reactor attached, use sendAsync");
+        if (cookie < 0)
+            requestCookie();
+        releaseSyncId();
+
+        List<CompletableFuture<Msg>> results = new ArrayList<>(commands.size());
+        for (String command : commands) {
+            CompletableFuture<Msg> result = new CompletableFuture<>();
+            results.add(result);
+            enqueueCommand(command, result);
+        }
+        startQueued();
+        while (this.inFlight.size() > 0) {
+            PendingCommand next = this.inFlight.nextDeadline();
+            long wait = (next.deadline - System.nanoTime() + 999_999) / 1_000_000;
+            if (wait <= 0) {
+                onCommandTimeout(next);
+                startQueued();
+                continue;
+            }
+            try {
+                onAsyncMessage(this.PhyProto.receive((int) wait));
+            } catch (SocketTimeoutException e) {
+                // the expired deadline is handled above
+            }
+        }
+        return results;
+    }
+
+    /*
+     * Request a new cookie without blocking, even if a cookie is held already
+     * The future fails with a CookieRequestException carrying the NAK reason, if any.
+     */
+    public CompletableFuture<Integer> requestCookieAsync() {
+        if (this.reactor == null)
+            throw new IllegalStateException("No reactor attached");
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        this.reactor.execute(() -> {
+            this.cookie = -1;
+            cookieAsync().whenComplete((c, e) -> {
+                if (e != null)
+                    result.completeExceptionally(e);
+                else
+                    result.complete(c);
+            });
+        });
+        return result;
+    }
+
+    private CompletableFuture<Integer> cookieAsync() {
+        if (this.cookie >= 0)
+            return CompletableFuture.completedFuture(this.cookie);
+        if (this.pendingCookie == null) {
+            this.pendingCookie = new CompletableFuture<>();
+            requestCookieAsync(0);
         }
+        return this.pendingCookie;
+    }
 
-        responseMsg = new CPCookieResponseMsg(true);
-        // cookie erstellen
-        Cookie cookieForRequest = new Cookie(System.currentTimeMillis(), rnd.nextInt());
+    // send a cookie request and fail after three unanswered attempts
+    private void requestCookieAsync(int attempt) {
+        CompletableFuture<Integer> future = this.pendingCookie;
+        if (future == null || future.isDone())
+            return;
+        if (attempt > 0)
+            metrics.timeout();
+        if (attempt == 3) {
+            this.pendingCookie = null;
+            future.completeExceptionally(new CookieRequestException());
+            return;
+        }
+        try {
+            if (this.wireFormat == WireFormat.BINARY) {
+                this.PhyProto.send(CPBinaryCodec.encodeCookieRequest(), this.PhyConfigCookieServer);
+            } else {
+                CPCookieRequestMsg reqMsg = new CPCookieRequestMsg();
+                reqMsg.create(null);
+                this.PhyProto.send(new String(reqMsg.getDataBytes()), this.PhyConfigCookieServer);
+            }
+        } catch (IOException | IWProtocolException e) {
+            this.pendingCookie = null;
+            future.completeExceptionally(e);
+            return;
+        }
+        if (attempt > 0)
+            metrics.retry();
+        this.cookieSentAt = System.nanoTime();
+        this.cookieAttempt = attempt;
+        this.cookieTimeout = this.reactor.schedule(getRttEstimator(this.PhyConfigCookieServer).getTimeout(attempt),
+                () -> requestCookieAsync(attempt + 1));
+    }
 
-        // cookie zum client zuweisen
-        cookieMap.put(clientConfiguration, cookieForRequest);
+    private void sendCommandAsync(String s, CompletableFuture<Msg> result) {
+        if (!enqueueCommand(s, result))
+            return;
+        if (this.batchSize == 1) {
+            startQueued();
+        } else if (!this.startScheduled) {
+            // commands submitted in the same reactor turn go out in one batch
+            this.startScheduled = true;
+            this.reactor.execute(() -> {
+                this.startScheduled = false;
+                startQueued();
+            });
+        }
+    }
 
-        // 2.1.2. c) Send an appropriate response message to the client.
-        responseMsg.create(String.valueOf(cookieForRequest.getCookieValue()));
-        this.PhyProto.send(new String(responseMsg.getDataBytes()), clientConfiguration);
+    private boolean enqueueCommand(String s, CompletableFuture<Msg> result) {
+        if (s == null || s.isBlank()) {
+            result.completeExceptionally(new IllegalMsgException());
+            return false;
+        }
+        this.queuedCommands.add(new QueuedCommand(s, result));
+        return true;
     }
-}
 
-class Cookie {
-    private final long timeOfCreation;
-    private final int cookieValue;
+    // move waiting commands into the window, up to batchSize of them per datagram
+    private void startQueued() {
+        while (this.inFlight.hasRoom() && !this.queuedCommands.isEmpty()) {
+            List<PendingCommand> batch = new ArrayList<>();
+            while (batch.size() < this.batchSize && this.inFlight.hasRoom() && !this.queuedCommands.isEmpty()) {
+                PendingCommand pending = startCommand(this.queuedCommands.poll());
+                if (pending != null)
+                    batch.add(pending);
+            }
+            if (batch.size() == 1)
+                transmit(batch.get(0));
+            else if (batch.size() > 1)
+                transmitBatch(batch);
+        }
+    }
 
-    public Cookie(long toc, int c) {
-        this.timeOfCreation = toc;
-        this.cookieValue = c;
+    // id and message of a queued command, null if it failed right away
+    private PendingCommand startCommand(QueuedCommand queued) {
+        int commandId = commandIds.allocate();
+        if (commandId < 0) {
+            queued.result().completeExceptionally(new IllegalStateException("All command ids in use"));
+            return null;
+        }
+        CPCommandMsg commandMsg = new CPCommandMsg(this.cookie, commandId);
+        try {
+            if (this.wireFormat == WireFormat.BINARY)
+                commandMsg.createBinary(queued.command());
+            else
+                commandMsg.create(queued.command());
+        } catch (IllegalArgumentException e) {
+            commandIds.release(commandId);
+            queued.result().completeExceptionally(e);
+            return null;
+        }
+        PendingCommand pending = new PendingCommand(commandMsg, queued.result());
+        this.inFlight.add(pending);
+        return pending;
     }
 
-    public long getTimeOfCreation() {
-        return timeOfCreation;
+    /*
+     * First transmission of several commands in one datagram
+     * Each command keeps its own deadline; retransmissions go out as single commands, the server
+     * answers those it has already executed from its recent results.
+     */
+    private void transmitBatch(List<PendingCommand> batch) {
+        CPCommandBatchMsg batchMsg = new CPCommandBatchMsg(this.cookie);
+        try {
+            for (PendingCommand pending : batch)
+                batchMsg.add(pending.msg);
+            if (this.wireFormat == WireFormat.BINARY) {
+                batchMsg.createBinary();
+                this.PhyProto.send(batchMsg.getDataBytes(), this.PhyConfigCommandServer);
+            } else {
+                batchMsg.create(null);
+                this.PhyProto.send(new String(batchMsg.getDataBytes()), this.PhyConfigCommandServer);
+            }
+        } catch (IllegalArgumentException e) {
+            // does not fit into one frame -> one datagram per command
+            for (PendingCommand pending : batch)
+                transmit(pending);
+            return;
+        } catch (IOException | IWProtocolException e) {
+            for (PendingCommand pending : batch) {
+                removePending(pending.msg.getCommandId());
+                pending.result.completeExceptionally(e);
+            }
+            return;
+        }
+        for (PendingCommand pending : batch)
+            armTimeout(pending);
+    }
+
+    // (re)send an in-flight command and set its retransmission deadline
+    private void transmit(PendingCommand pending) {
+        try {
+            if (this.wireFormat == WireFormat.BINARY)
+                this.PhyProto.send(pending.msg.getDataBytes(), this.PhyConfigCommandServer);
+            else
+                this.PhyProto.send(new String(pending.msg.getDataBytes()), this.PhyConfigCommandServer);
+        } catch (IOException | IWProtocolException e) {
+            removePending(pending.msg.getCommandId());
+            pending.result.completeExceptionally(e);
+            return;
+        }
+        if (pending.retries > 0)
+            metrics.retry();
+        armTimeout(pending);
+    }
+
+    private void armTimeout(PendingCommand pending) {
+        pending.sentAt = System.nanoTime();
+        int timeout = getRttEstimator(this.PhyConfigCommandServer).getTimeout(pending.retries);
+        pending.deadline = pending.sentAt + timeout * 1_000_000L;
+        // sendPipelined() watches the deadlines itself
+        if (this.reactor != null)
+            pending.timeout = this.reactor.schedule(timeout, () -> {
+                onCommandTimeout(pending);
+                startQueued();
+            });
+    }
+
+    // no response before the deadline -> retransmit this command only, give up after the second timeout
+    private void onCommandTimeout(PendingCommand pending) {
+        metrics.timeout();
+        if (++pending.retries >= 2) {
+            removePending(pending.msg.getCommandId());
+            commandEvent(pending.msg.getCommandId(), pending.msg.getCommandType(), pending.retries,
+                    pending.sentAt, pending.createdAt, "TIMEOUT");
+            pending.result.completeExceptionally(new CookieTimeoutException());
+        } else {
+            transmit(pending);
+        }
+    }
+
+    // callers start queued commands afterwards, once for all responses of a datagram
+    private void completeCommand(PendingCommand pending, Msg responseMsg, boolean ok) {
+        removePending(pending.msg.getCommandId());
+        sampleAsync(pending);
+        pending.complete(responseMsg, ok);
+    }
+
+    private void completeResults(CPCommandBatchResponseMsg response) {
+        for (CPCommandBatchResponseMsg.Result result : response.getResults()) {
+            PendingCommand pending = this.inFlight.get(result.commandId());
+            if (pending == null)
+                continue;
+            // same shape as the response to a single command
+            CPCommandResponseMsg responseMsg = new CPCommandResponseMsg(result.commandId(), result.ok());
+            responseMsg.create(result.message());
+            completeCommand(pending, responseMsg, result.ok());
+        }
+        startQueued();
+    }
+
+    // runs on the reactor thread (or in sendPipelined) for every cp message received on the phy endpoint
+    private void onAsyncMessage(Msg in) {
+        try {
+            if (isBinary(in)) {
+                CPBinaryCodec.Frame frame = CPBinaryCodec.decode(((PhyMsg) in).getPayload());
+                if (frame.getType() == CPBinaryCodec.COOKIE_RESPONSE) {
+                    onCookieResponse(CPCookieResponseMsg.fromFrame(frame));
+                } else if (frame.getType() == CPBinaryCodec.COMMAND_RESPONSE) {
+                    // responses may arrive in any order, each one completes its own command
+                    PendingCommand pending = this.inFlight.get(frame.getId());
+                    if (pending == null)
+                        return;
+                    CPMsg responseMsg = new CPMsg();
+                    responseMsg.create(CPCommandMsg.COMMAND_RESPONSE_HEADER + " " + frame.getId() + " "
+                            + (frame.isSet() ? "ok" : "error") + " " + frame.getMessage().length + " " + frame.getMessageString());
+                    completeCommand(pending, responseMsg, frame.isSet());
+                    startQueued();
+                } else if (frame.getType() == CPBinaryCodec.COMMAND_BATCH_RESPONSE) {
+                    completeResults(CPCommandBatchResponseMsg.fromFrame(frame));
+                }
+                return;
+            }
+            String data = in.getData();
+            if (data.startsWith(CPCommandMsg.CP_COMMAND_RESPONSE_HEADER)) {
+                // cp command_response <id> ... -> look up the command, then let its message object check the rest
+                String[] parts = data.split("\\s+", 4);
+                PendingCommand pending = this.inFlight.get(Integer.parseInt(parts[2]));
+                if (pending == null)
+                    return;
+                Msg responseMsg = pending.msg.parse(data);
+                completeCommand(pending, responseMsg, responseMsg.getData().split("\\s+")[3].equals("ok"));
+                startQueued();
+            } else if (data.startsWith(CPMsg.CP_HEADER + " " + CPCommandBatchResponseMsg.CP_BATCH_RESPONSE_HEADER + " ")) {
+                completeResults(CPCommandBatchResponseMsg.parseResponse(data));
+            } else {
+                Msg resMsg = new CPMsg().parse(data);
+                if (resMsg instanceof CPCookieResponseMsg)
+                    onCookieResponse((CPCookieResponseMsg) resMsg);
+            }
+        } catch (IWProtocolException | RuntimeException e) {
+            // malformed or corrupted response -> the command's timeout takes care of it
+            metrics.failure(e);
+        }
+    }
+
+    // Karn's rule: no samples from retransmitted commands
+    private void sampleAsync(PendingCommand pending) {
+        metrics.commandCompleted(pending.msg.getCommandType(), System.nanoTime() - pending.createdAt);
+        if (pending.retries == 0)
+            getRttEstimator(this.PhyConfigCommandServer).sample(millisSince(pending.sentAt));
+    }
+
+    // synchronous client: only the answer to a command that was sent once is a valid sample (Karn)
+    private void sampleCommandRtt(RttEstimator rtt) {
+        if (this.commandSentAt != 0) {
+            if (!this.commandRetransmitted)
+                rtt.sample(millisSince(this.commandSentAt));
+            metrics.commandCompleted(this.commandType, System.nanoTime() - this.commandSentAt);
+        }
+        this.commandSentAt = 0;
+    }
+
+    private void onCookieResponse(CPCookieResponseMsg resMsg) {
+        CompletableFuture<Integer> future = this.pendingCookie;
+        if (future == null)
+            return;
+        this.pendingCookie = null;
+        this.cookieTimeout.cancel();
+        if (this.cookieAttempt == 0)
+            getRttEstimator(this.PhyConfigCookieServer).sample(millisSince(this.cookieSentAt));
+        if (resMsg.getSuccess()) {
+            this.cookie = resMsg.getCookie();
+            future.complete(this.cookie);
+        } else {
+            future.completeExceptionally(new CookieRequestException(resMsg.getData()));
+        }
     }
 
-    public int getCookieValue() {
-        return cookieValue;
+    static boolean isBinary(Msg msg) {
+        return msg instanceof PhyMsg && ((PhyMsg) msg).isBinary();
     }
 }
 
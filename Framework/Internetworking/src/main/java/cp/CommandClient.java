@@ -0,0 +1,28 @@
+package cp;
+
+// command server: per client state, owned by the client's worker
+class CommandClient {
+    /*
+     * Responses kept for retransmissions. Clients keep at most InFlightTable.MAX_WINDOW commands in
+     * flight and hand out ids consecutively, so while a command can still be retransmitted the server
+     * has seen at most 2 * MAX_WINDOW other ids around it; larger windows would need a deeper cache.
+     */
+    private static final int RECENT = 2 * InFlightTable.MAX_WINDOW;
+    final int cookie;
+    long processed;
+    private final CPCommandBatchResponseMsg.Result[] results = new CPCommandBatchResponseMsg.Result[RECENT];
+
+    CommandClient(int cookie) {
+        this.cookie = cookie;
+    }
+
+    // result of a command answered before, either as a single response or in a batch
+    CPCommandBatchResponseMsg.Result recentResult(int id) {
+        CPCommandBatchResponseMsg.Result result = this.results[id % RECENT];
+        return result != null && result.commandId() == id ? result : null;
+    }
+
+    void remember(CPCommandBatchResponseMsg.Result result) {
+        this.results[result.commandId() % RECENT] = result;
+    }
+}
@@ -0,0 +1,25 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// least recently active clients are forgotten beyond MAX_CLIENTS (per worker)
+class CommandClients extends LinkedHashMap<PhyConfiguration, CommandClient> {
+    private static final long serialVersionUID = 7333127971866562128L;
+    private static final int MAX_CLIENTS = 65536;
+    // commands waiting for a cookie lookup, in arrival order per client; not part of the client table
+    final transient Map<PhyConfiguration, Deque<ParkedCommand>> parked = new HashMap<>();
+
+    CommandClients() {
+        super(16, 0.75f, true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<PhyConfiguration, CommandClient> eldest) {
+        return size() > MAX_CLIENTS;
+    }
+}
@@ -0,0 +1,82 @@
+package cp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Command ids of one client (1..65535, the 16 bit id field; 0 is never used)
+ * One bit per id marks it as in use. allocate() claims the next free id after the previous one
+ * with a CAS on its 64 bit word, release() clears the bit once the response was consumed or the
+ * command timed out. Lock-free, fixed 8 KB of memory, no boxing.
+ * Ids are handed out round robin, so a released id is only reused after all other free ids
+ * -> a late response to an old command is unlikely to match a new one.
+ */
+public class CommandIdAllocator {
+    public static final int MAX_ID = CPBinaryCodec.MAX_ID;
+    private static final int WORDS = (MAX_ID + 1) / Long.SIZE;
+
+    private final AtomicLongArray used = new AtomicLongArray(WORDS);
+    // next id to try
+    private final AtomicInteger cursor = new AtomicInteger(1);
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    public CommandIdAllocator() {
+        // id 0 is reserved
+        used.set(0, 1L);
+    }
+
+    /*
+     * Claim a free id, -1 if all ids are in use
+     */
+    public int allocate() {
+        int start = cursor.get();
+        int word = start >>> 6;
+        // first the rest of the cursor's word, then every word once (wrapping around)
+        long mask = -1L << (start & 63);
+        for (int i = 0; i <= WORDS; i++) {
+            int w = (word + i) % WORDS;
+            while (true) {
+                long bits = used.get(w);
+                long free = ~bits & mask;
+                if (free == 0)
+                    break;
+                long bit = Long.lowestOneBit(free);
+                if (used.compareAndSet(w, bits, bits | bit)) {
+                    int id = (w << 6) + Long.numberOfTrailingZeros(bit);
+                    cursor.set(id == MAX_ID ? 1 : id + 1);
+                    inUse.incrementAndGet();
+                    return id;
+                }
+            }
+            mask = -1L;
+        }
+        return -1;
+    }
+
+    /*
+     * Give an id back, false if it was not in use
+     */
+    public boolean release(int id) {
+        if (id <= 0 || id > MAX_ID)
+            return false;
+        int w = id >>> 6;
+        long bit = 1L << (id & 63);
+        while (true) {
+            long bits = used.get(w);
+            if ((bits & bit) == 0)
+                return false;
+            if (used.compareAndSet(w, bits, bits & ~bit)) {
+                inUse.decrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public boolean isInUse(int id) {
+        return id > 0 && id <= MAX_ID && (used.get(id >>> 6) & (1L << (id & 63))) != 0;
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+}
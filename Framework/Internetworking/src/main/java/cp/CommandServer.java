@@ -0,0 +1,257 @@
+package cp;
+
+import core.EventLog;
+import core.Msg;
+import core.Protocol;
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+import phy.PhyMsg;
+import phy.PhyProtocol;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/*
+ * Command server role of CPProtocol: checks the cookie of every command and executes it on the
+ * client's worker (CommandWorkers), answering retransmissions from the client's recent results
+ */
+class CommandServer {
+    private static final EventLog.Event RECEIVE_FAILED = EventLog.event(EventLog.Level.WARN, "command server receive failed: %3$s");
+    private static final EventLog.Event COMMAND_FAILED = EventLog.event(EventLog.Level.WARN, "command from port %d failed: %3$s");
+    private static final EventLog.Event PRINT = EventLog.event(EventLog.Level.INFO, "print from port %d: %3$s");
+    static final int WORKER_QUEUE_SIZE = 1024;
+    // commands per client that may wait for a cookie lookup, a window of retransmissions on top of a window
+    private static final int MAX_PARKED = 2 * InFlightTable.MAX_WINDOW;
+    // hands commands back to their worker once a cookie lookup completed; may wait for room in the worker queue
+    private static final Executor RESUMER = task -> Thread.ofVirtual().name("command-resume").start(task);
+    private final PhyProtocol phy;
+    private final CPMetrics metrics;
+    private CookieValidator cookieValidator;
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+    private int workerQueueSize = WORKER_QUEUE_SIZE;
+    private CommandWorkers<CommandClients> commandWorkers;
+
+    CommandServer(PhyProtocol phy, CPMetrics metrics) {
+        this.phy = phy;
+        this.metrics = metrics;
+    }
+
+    void setCookieValidator(CookieValidator validator) {
+        this.cookieValidator = validator;
+    }
+
+    void setWorkers(int count, int queueSize) {
+        this.workerCount = count;
+        this.workerQueueSize = queueSize;
+    }
+
+    // receive loop, does not return
+    void serve() {
+        if (this.cookieValidator == null)
+            throw new IllegalStateException("No cookie validator set");
+        if (this.commandWorkers == null)
+            this.commandWorkers = new CommandWorkers<>(workerCount, workerQueueSize, CommandClients::new);
+        while (true) {
+            try {
+                Msg receivedMsg = this.phy.receive(CPProtocol.CP_TIMEOUT);
+                PhyConfiguration client = (PhyConfiguration) receivedMsg.getConfiguration();
+                if (client.getPid() != Protocol.proto_id.CP)
+                    continue;
+                long receivedAt = System.nanoTime();
+                // the receive loop only hands off, parsing and checksums run on the client's worker
+                if (!this.commandWorkers.submit(client, clients -> processCommand(receivedMsg, clients, receivedAt, null)))
+                    rejectCommand(receivedMsg);
+            } catch (SocketTimeoutException e) {
+                // idle, poll again
+            } catch (Exception e) {
+                metrics.failure(e);
+                EventLog.log(RECEIVE_FAILED, 0, 0, e);
+            }
+        }
+    }
+
+    /*
+     * Runs on the client's worker -> the client's state is not shared with other threads
+     * lookup: answered cookie lookup of a resumed command, null to look the cookie up here
+     */
+    private void processCommand(Msg msg, CommandClients clients, long receivedAt, CompletableFuture<Long> lookup) {
+        PhyConfiguration client = (PhyConfiguration) msg.getConfiguration();
+        boolean binary = CPProtocol.isBinary(msg);
+        try {
+            Deque<ParkedCommand> waiting = clients.parked.get(client);
+            if (waiting != null) {
+                // an earlier command of the client waits for its cookie lookup -> keep the order
+                if (waiting.size() < MAX_PARKED)
+                    waiting.add(new ParkedCommand(msg, receivedAt, null));
+                else
+                    rejectCommand(msg);
+                return;
+            }
+            CPMsg parsed = parseCommand(msg);
+            CPCommandBatchMsg batch = parsed instanceof CPCommandBatchMsg ? (CPCommandBatchMsg) parsed : null;
+            CPCommandMsg command = batch == null ? (CPCommandMsg) parsed : null;
+            if (command != null) {
+                CommandClient state = clients.get(client);
+                // retransmission of a recent command -> same answer, not executed twice
+                CPCommandBatchResponseMsg.Result answered = state != null && state.cookie == command.getCookie()
+                        ? state.recentResult(command.getCommandId()) : null;
+                if (answered != null) {
+                    sendCommandResponse(commandResponse(answered.commandId(), answered.ok(), answered.message(), binary), client, binary);
+                    return;
+                }
+            }
+            if (lookup == null)
+                lookup = this.cookieValidator.getTtlAsync(client, batch != null ? batch.getCookie() : command.getCookie());
+            if (!lookup.isDone()) {
+                park(new ParkedCommand(msg, receivedAt, lookup), clients, client);
+                return;
+            }
+            long ttl = CookieValidator.join(lookup);
+            if (batch != null) {
+                processBatch(batch, clients, client, binary, ttl, receivedAt);
+                return;
+            }
+            if (ttl <= 0) {
+                metrics.cookieRejected();
+                sendCommandResponse(commandResponse(command.getCommandId(), false, "Invalid cookie", binary), client, binary);
+                return;
+            }
+            CPCommandBatchResponseMsg.Result result = execute(command, clientState(clients, client, command.getCookie()), client, ttl, receivedAt);
+            sendCommandResponse(commandResponse(result.commandId(), true, result.message(), binary), client, binary);
+        } catch (IWProtocolException | IOException | RuntimeException e) {
+            // corrupted or malformed commands are dropped, the client retransmits
+            metrics.failure(e);
+            EventLog.log(COMMAND_FAILED, client.getRemotePort(), 0, e);
+        }
+    }
+
+    /*
+     * The cookie server has not answered yet: the worker goes on with other clients, the client's
+     * commands wait until the lookup completes and then continue on the worker
+     */
+    private void park(ParkedCommand command, CommandClients clients, PhyConfiguration client) {
+        Deque<ParkedCommand> waiting = new ArrayDeque<>();
+        waiting.add(command);
+        clients.parked.put(client, waiting);
+        command.lookup().whenCompleteAsync((ttl, e) -> {
+            try {
+                this.commandWorkers.resubmit(client, c -> resume(c, client));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }, RESUMER);
+    }
+
+    // lookup answered -> process the parked commands in order until one has to wait for a lookup again
+    private void resume(CommandClients clients, PhyConfiguration client) {
+        Deque<ParkedCommand> waiting = clients.parked.remove(client);
+        while (waiting != null && !waiting.isEmpty()) {
+            ParkedCommand next = waiting.poll();
+            processCommand(next.msg(), clients, next.receivedAt(), next.lookup());
+            Deque<ParkedCommand> parkedAgain = clients.parked.get(client);
+            if (parkedAgain != null) {
+                parkedAgain.addAll(waiting);
+                return;
+            }
+        }
+    }
+
+    // one cookie check for the whole batch, one response datagram with a result per command
+    private void processBatch(CPCommandBatchMsg batch, CommandClients clients, PhyConfiguration client, boolean binary,
+                              long ttl, long receivedAt) throws IOException, IWProtocolException {
+        CPCommandBatchResponseMsg response = new CPCommandBatchResponseMsg();
+        if (ttl <= 0) {
+            metrics.cookieRejected();
+            for (CPCommandMsg command : batch.getCommands())
+                response.add(new CPCommandBatchResponseMsg.Result(command.getCommandId(), false, "Invalid cookie"));
+        } else {
+            CommandClient state = clientState(clients, client, batch.getCookie());
+            for (CPCommandMsg command : batch.getCommands()) {
+                CPCommandBatchResponseMsg.Result answered = state.recentResult(command.getCommandId());
+                response.add(answered != null ? answered : execute(command, state, client, ttl, receivedAt));
+            }
+        }
+        sendCommandResponse(batchResponse(response, binary), client, binary);
+    }
+
+    private static CommandClient clientState(CommandClients clients, PhyConfiguration client, int cookie) {
+        CommandClient state = clients.get(client);
+        if (state == null || state.cookie != cookie) {
+            // counters start over with every cookie
+            state = new CommandClient(cookie);
+            clients.put(client, state);
+        }
+        return state;
+    }
+
+    private CPCommandBatchResponseMsg.Result execute(CPCommandMsg command, CommandClient state, PhyConfiguration client,
+                                                     long ttl, long receivedAt) {
+        state.processed++;
+        String message = "";
+        if (command.getCommandType() == CommandType.STATUS)
+            message = "{\"processed\":" + state.processed + ",\"ttl\":" + ttl + "}";
+        else
+            EventLog.log(PRINT, client.getRemotePort(), 0, command.getMessage());
+        CPCommandBatchResponseMsg.Result result = new CPCommandBatchResponseMsg.Result(command.getCommandId(), true, message);
+        state.remember(result);
+        metrics.commandCompleted(command.getCommandType(), System.nanoTime() - receivedAt);
+        return result;
+    }
+
+    // worker queue full -> answer with an error right away instead of letting the client time out
+    private void rejectCommand(Msg msg) throws IWProtocolException, IOException {
+        metrics.commandRejected();
+        boolean binary = CPProtocol.isBinary(msg);
+        CPMsg parsed = parseCommand(msg);
+        byte[] response;
+        if (parsed instanceof CPCommandBatchMsg) {
+            CPCommandBatchResponseMsg batchResponse = new CPCommandBatchResponseMsg();
+            for (CPCommandMsg command : ((CPCommandBatchMsg) parsed).getCommands())
+                batchResponse.add(new CPCommandBatchResponseMsg.Result(command.getCommandId(), false, "Out of Resources"));
+            response = batchResponse(batchResponse, binary);
+        } else {
+            response = commandResponse(((CPCommandMsg) parsed).getCommandId(), false, "Out of Resources", binary);
+        }
+        sendCommandResponse(response, (PhyConfiguration) msg.getConfiguration(), binary);
+    }
+
+    // a single command (CPCommandMsg) or a batch (CPCommandBatchMsg)
+    private static CPMsg parseCommand(Msg msg) throws IWProtocolException {
+        if (CPProtocol.isBinary(msg)) {
+            CPBinaryCodec.Frame frame = CPBinaryCodec.decode(((PhyMsg) msg).getPayload());
+            if (frame.getType() == CPBinaryCodec.COMMAND_BATCH)
+                return CPCommandBatchMsg.fromFrame(frame);
+            return CPCommandMsg.fromFrame(frame);
+        }
+        if (msg.getData().startsWith(CPMsg.CP_HEADER + " " + CPCommandBatchMsg.CP_BATCH_HEADER + " "))
+            return CPCommandBatchMsg.parseBatch(msg.getData());
+        return CPCommandMsg.parseCommand(msg.getData());
+    }
+
+    private static byte[] commandResponse(int commandId, boolean ok, String message, boolean binary) {
+        if (binary)
+            return CPBinaryCodec.encodeCommandResponse(commandId, ok, message);
+        CPCommandResponseMsg response = new CPCommandResponseMsg(commandId, ok);
+        response.create(message);
+        return response.getDataBytes();
+    }
+
+    private static byte[] batchResponse(CPCommandBatchResponseMsg response, boolean binary) {
+        if (binary)
+            response.createBinary();
+        else
+            response.create(null);
+        return response.getDataBytes();
+    }
+
+    private void sendCommandResponse(byte[] response, PhyConfiguration client, boolean binary) throws IOException, IWProtocolException {
+        if (binary)
+            this.phy.send(response, client);
+        else
+            this.phy.send(new String(response), client);
+    }
+}
@@ -0,0 +1,9 @@
+package cp;
+
+/*
+ * Commands the command server understands
+ */
+enum CommandType {
+    STATUS,
+    PRINT
+}
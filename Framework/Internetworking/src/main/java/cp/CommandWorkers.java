@@ -0,0 +1,86 @@
+package cp;
+
+import core.EventLog;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/*
+ * Worker pool of the command server with client affinity
+ * Every client is hashed to one worker, so its commands are processed in the order they were
+ * received and its state (type S) is only ever touched by that worker -> no locks, no shared maps.
+ * Each worker has a bounded queue; submit() fails instead of blocking when it is full, so an
+ * overloaded worker sheds load without stalling the receive loop for the other workers.
+ */
+public class CommandWorkers<S> {
+    private static final EventLog.Event TASK_FAILED = EventLog.event(EventLog.Level.ERROR, "command worker %d failed: %3$s");
+    private final Worker<S>[] workers;
+
+    @SuppressWarnings("unchecked")
+    public CommandWorkers(int count, int queueSize, Supplier<S> state) {
+        this.workers = (Worker<S>[]) new Worker<?>[count];
+        for (int i = 0; i < count; i++) {
+            workers[i] = new Worker<>(i, new ArrayBlockingQueue<>(queueSize), state.get());
+            Thread t = new Thread(workers[i], "command-worker-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /*
+     * Queue a task on the client's worker, false if that worker is overloaded
+     */
+    public boolean submit(Object client, Consumer<S> task) {
+        return workers[indexOf(client, workers.length)].queue.offer(task);
+    }
+
+    /*
+     * Queue a task on the client's worker, waiting while that worker is overloaded
+     * For work the server has accepted already (commands resumed after a cookie lookup), never from the receive loop.
+     */
+    public void resubmit(Object client, Consumer<S> task) throws InterruptedException {
+        workers[indexOf(client, workers.length)].queue.put(task);
+    }
+
+    static int indexOf(Object client, int count) {
+        int h = client.hashCode();
+        // spread the hash, addresses and ports differ mostly in the low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, count);
+    }
+
+    public int size() {
+        return workers.length;
+    }
+
+    // tasks waiting per worker
+    public int[] getQueueLengths() {
+        int[] lengths = new int[workers.length];
+        for (int i = 0; i < workers.length; i++)
+            lengths[i] = workers[i].queue.size();
+        return lengths;
+    }
+
+    private record Worker<S>(int index, BlockingQueue<Consumer<S>> queue, S state) implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Consumer<S> task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.accept(state);
+                } catch (RuntimeException e) {
+                    EventLog.log(TASK_FAILED, index, 0, e);
+                }
+            }
+        }
+    }
+}
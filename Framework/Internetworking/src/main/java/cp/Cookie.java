@@ -0,0 +1,36 @@
+package cp;
+
+import core.TimingWheel;
+
+/*
+ * Cookie issued by the cookie server, the value type of the CookieStore
+ */
+class Cookie {
+    private final long timeOfCreation;
+    private final int cookieValue;
+    private final long expiresAt;
+    // expiry timer in the CookieStore's wheel
+    volatile TimingWheel.Timeout expiry;
+
+    public Cookie(long toc, int c, long expiresAt) {
+        this.timeOfCreation = toc;
+        this.cookieValue = c;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getTimeOfCreation() {
+        return timeOfCreation;
+    }
+
+    public int getCookieValue() {
+        return cookieValue;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+}
@@ -0,0 +1,245 @@
+package cp;
+
+import core.EventLog;
+import core.Msg;
+import core.Protocol;
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+import phy.PhyMsg;
+import phy.PhyProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/*
+ * Cookie server role of CPProtocol: issues cookies and answers cookie_validate requests of the
+ * command servers (validation peers)
+ * Shards of one cookie server share a CookieStore (or a CookieSigner secret), see CPProtocol.
+ */
+class CookieServer {
+    private static final EventLog.Event RECEIVED = EventLog.event(EventLog.Level.DEBUG, "received from port %d: %3$s");
+    private static final EventLog.Event COOKIE_REQUEST = EventLog.event(EventLog.Level.DEBUG, "cookie request from port %d");
+    private static final EventLog.Event RECEIVE_FAILED = EventLog.event(EventLog.Level.WARN, "cookie server receive failed: %3$s");
+    private static final EventLog.Event VALIDATION_REFUSED = EventLog.event(EventLog.Level.WARN, "cookie validation from %3$s:%d refused");
+    private static final EventLog.Event COOKIE_FAILED = EventLog.event(EventLog.Level.WARN, "cookie request from port %d failed: %3$s");
+    private final PhyProtocol phy;
+    private final CPMetrics metrics;
+    private final Random rnd = new Random();
+    private CookieStore cookieStore;
+    // stateless mode: cookies are signed instead of stored
+    private CookieSigner cookieSigner;
+    // hosts whose cookie_validate requests are answered
+    private volatile Set<InetAddress> validationPeers = Set.of();
+    private ExecutionMode executionMode = ExecutionMode.INLINE;
+    private Semaphore executionPermits;
+    private final Map<ExecutionMode, ExecutionStats> executionStats = new EnumMap<>(ExecutionMode.class);
+
+    CookieServer(PhyProtocol phy, CPMetrics metrics, CookieStore cookies) {
+        this.phy = phy;
+        this.metrics = metrics;
+        // filled once, read-only afterwards
+        for (ExecutionMode mode : ExecutionMode.values())
+            executionStats.put(mode, new ExecutionStats(mode));
+        setCookieStore(cookies);
+    }
+
+    void setCookieStore(CookieStore cookies) {
+        this.cookieStore = cookies;
+        this.metrics.setCookieMapOccupancy(this.cookieStore::size);
+    }
+
+    CookieStore getCookieStore() {
+        return cookieStore;
+    }
+
+    void setCookieSigner(CookieSigner signer) {
+        this.cookieSigner = signer;
+        this.metrics.setCookieMapOccupancy(() -> 0);
+    }
+
+    CookieSigner getCookieSigner() {
+        return cookieSigner;
+    }
+
+    void setValidationPeers(Collection<InetAddress> peers) {
+        this.validationPeers = Set.copyOf(peers);
+    }
+
+    void setExecutionMode(ExecutionMode mode, int maxConcurrency) {
+        this.executionMode = mode;
+        this.executionPermits = new Semaphore(maxConcurrency);
+    }
+
+    ExecutionStats getExecutionStats(ExecutionMode mode) {
+        return executionStats.get(mode);
+    }
+
+    // receive loop, does not return
+    void serve() {
+        while (true) {
+            Msg receivedMsg;
+            // expired cookies are dropped here even if no requests arrive
+            cookieStore.expire();
+
+            try {
+                receivedMsg = this.phy.receive(CPProtocol.CP_TIMEOUT);
+                String msg = receivedMsg != null ? receivedMsg.getData() : "";
+
+                // bei null überspringen
+                if (receivedMsg == null) {
+                    continue;
+                }
+                EventLog.log(RECEIVED, ((PhyConfiguration) receivedMsg.getConfiguration()).getRemotePort(), 0, msg);
+
+                // bei nicht-cp-nachrichten überspringen
+                if (((PhyConfiguration) receivedMsg.getConfiguration()).getPid() != Protocol.proto_id.CP) {
+                    continue;
+                }
+
+                // binaere cookie requests erkennen
+                if (CPProtocol.isBinary(receivedMsg)) {
+                    CPBinaryCodec.Frame frame = CPBinaryCodec.decode(((PhyMsg) receivedMsg).getPayload());
+                    if (frame.getType() == CPBinaryCodec.COOKIE_REQUEST)
+                        dispatch(receivedMsg);
+                    continue;
+                }
+
+                // wenn richtiger header, cookie request verarbeiten
+                if (msg.matches("cp cookie_request")) {
+                    EventLog.log(COOKIE_REQUEST, ((PhyConfiguration) receivedMsg.getConfiguration()).getRemotePort());
+                    dispatch(receivedMsg);
+                } else if (msg.startsWith(CPMsg.CP_HEADER + " " + CPCookieValidateMsg.CP_CVAL_HEADER)) {
+                    // lookup of a command server
+                    dispatch(receivedMsg);
+                }
+            } catch (SocketTimeoutException e) {
+                // idle, poll again
+            } catch (Exception e) {
+                metrics.failure(e);
+                EventLog.log(RECEIVE_FAILED, 0, 0, e);
+            }
+        }
+    }
+
+    // Hand a decoded request to the configured execution mode
+    private void dispatch(Msg msg) throws InterruptedException {
+        long start = System.nanoTime();
+        ExecutionStats stats = getExecutionStats(this.executionMode);
+        if (this.executionMode == ExecutionMode.INLINE) {
+            handle(msg, start, stats);
+            return;
+        }
+        executionPermits.acquire();
+        Thread.ofVirtual().start(() -> {
+            try {
+                handle(msg, start, stats);
+            } finally {
+                executionPermits.release();
+            }
+        });
+    }
+
+    private void handle(Msg msg, long start, ExecutionStats stats) {
+        try {
+            if (!CPProtocol.isBinary(msg) && msg.getData().startsWith(CPMsg.CP_HEADER + " " + CPCookieValidateMsg.CP_CVAL_HEADER))
+                processValidation(msg);
+            else
+                processCookie(msg);
+        } catch (IWProtocolException | IOException e) {
+            EventLog.log(COOKIE_FAILED, ((PhyConfiguration) msg.getConfiguration()).getRemotePort(), 0, e);
+        }
+        stats.record(System.nanoTime() - start);
+    }
+
+    // subtask 2.1.1: The cookie requests shall be processed in a dedicated method
+    private void processCookie(Msg msg) throws IWProtocolException, IOException {
+        PhyConfiguration clientConfiguration = (PhyConfiguration) msg.getConfiguration();
+        boolean binary = CPProtocol.isBinary(msg);
+        CPEvents.CookieDecision event = new CPEvents.CookieDecision();
+        event.begin();
+        if (cookieSigner != null) {
+            // nothing to check or remember, the same client gets the same cookie until the key rotates
+            int cookieValue = cookieSigner.issue(clientConfiguration);
+            if (event.shouldCommit()) {
+                event.client = clientConfiguration.getSocketAddress().toString();
+                event.decision = "SIGNED";
+                event.commit();
+            }
+            metrics.cookieIssued();
+            sendCookieResponse(true, cookieValue, null, clientConfiguration, binary);
+            return;
+        }
+        // cookie erstellen und zum client zuweisen
+        // requests may be handled concurrently -> the store checks and updates atomically, send afterwards
+        // non-negative, clients use -1 for "no cookie"
+        int cookieValue = rnd.nextInt(Integer.MAX_VALUE);
+        CookieStore.Decision decision = cookieStore.issue(clientConfiguration, cookieValue);
+        if (event.shouldCommit()) {
+            event.client = clientConfiguration.getSocketAddress().toString();
+            event.decision = decision.name();
+            event.cookies = cookieStore.size();
+            event.commit();
+        }
+
+        // 2.1.2. b) processing of premature cookie renewal
+        if (decision == CookieStore.Decision.ACTIVE_COOKIE_EXISTS) {
+            /* 2.1.2. b) Should a client be allowed to request a new cookie while the old cookie has not yet expired?
+             * design decision:
+             * no, when a client requests a cookie while having an active cookie, i dont want other clients to wait longer for the 20 limit queue just because
+             * one client renews its cookies before they expire, so I will just return a responsemsg object stating that an active cookie already exists
+             */
+            metrics.cookieRejected();
+            sendCookieResponse(false, 0, "ACTIVE_COOKIE_EXISTS", clientConfiguration, binary);
+            return;
+        }
+
+        // 2.1.2. a) There shall never be more than 20 entries in the HashMap
+        if (decision == CookieStore.Decision.TOO_MANY_COOKIES) {
+            // 2.1.2. c) Send an appropriate response message to the client.
+            metrics.cookieRejected();
+            sendCookieResponse(false, 0, "TOO_MANY_COOKIES", clientConfiguration, binary);
+            return;
+        }
+
+        // 2.1.2. c) Send an appropriate response message to the client.
+        metrics.cookieIssued();
+        sendCookieResponse(true, cookieValue, null, clientConfiguration, binary);
+    }
+
+    // Answer a command server's cookie_validate with the remaining ttl of the cookie (-1 = invalid)
+    // The validation socket may be hashed to any shard, so this relies on the shards sharing one
+    // store (or signer): a shard that only knew its own cookies would deny valid ones, and the
+    // command server would cache the denial
+    private void processValidation(Msg msg) throws IWProtocolException, IOException {
+        PhyConfiguration peer = (PhyConfiguration) msg.getConfiguration();
+        if (!validationPeers.contains(peer.getRemoteIPAddress())) {
+            EventLog.log(VALIDATION_REFUSED, peer.getRemotePort(), 0, peer.getRemoteIPAddress().getHostAddress());
+            return;
+        }
+        CPCookieValidateMsg request = (CPCookieValidateMsg) new CPMsg().parse(msg.getData());
+        CookieValidator validator = cookieSigner != null ? cookieSigner : cookieStore;
+        long ttl = validator.getTtl(request.getClient(), request.getCookie());
+        CPCookieTtlMsg response = new CPCookieTtlMsg(request.getCookie(), request.getClient(), ttl);
+        response.create(null);
+        this.phy.send(new String(response.getDataBytes()), (PhyConfiguration) msg.getConfiguration());
+    }
+
+    // Answer in the format the request was received in
+    private void sendCookieResponse(boolean ack, int cookieValue, String reason, PhyConfiguration clientConfiguration,
+                                    boolean binary) throws IOException, IWProtocolException {
+        if (binary) {
+            this.phy.send(CPBinaryCodec.encodeCookieResponse(ack, cookieValue, reason), clientConfiguration);
+            return;
+        }
+        CPCookieResponseMsg responseMsg = new CPCookieResponseMsg(ack);
+        responseMsg.create(ack ? String.valueOf(cookieValue) : reason);
+        this.phy.send(new String(responseMsg.getDataBytes()), clientConfiguration);
+    }
+}
@@ -0,0 +1,139 @@
+package cp;
+
+import phy.PhyConfiguration;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.function.LongSupplier;
+
+/*
+ * Stateless cookies
+ * A cookie is a truncated HMAC-SHA256 over client address, port and expiry time, so every server
+ * that knows the secret can validate it without a lookup -> no per-client state, no capacity limit.
+ *
+ * Time is divided into epochs of ttl ms. The key of an epoch is derived from the secret
+ * (HMAC(secret, "epoch" || n)), i.e. keys rotate every epoch without any coordination.
+ * A cookie issued in epoch n expires at the end of epoch n + 1 (lifetime between ttl and 2 * ttl).
+ * The cookie is a non-negative int (clients use negative values for "no cookie"): bit 30 is the
+ * parity of n, bits 0..29 the MAC. The parity tells the validator which of the two possibly valid
+ * epochs to check, so validation costs one HMAC.
+ * A client asking again within the same epoch receives the same cookie.
+ */
+public class CookieSigner implements CookieValidator {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MAC_MASK = 0x3fffffff;
+    private static final int PARITY_SHIFT = 30;
+
+    private final SecretKeySpec secret;
+    private final long epochMillis;
+    private final LongSupplier clock;
+    // keys of the current and previous epoch, replaced as a whole on rotation
+    private volatile Keys keys;
+    // Mac instances are not thread safe
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private record Keys(long epoch, SecretKeySpec current, SecretKeySpec previous) {}
+
+    public CookieSigner(byte[] secret, long ttl) {
+        this(secret, ttl, System::currentTimeMillis);
+    }
+
+    // clock in ms, replaceable for tests
+    CookieSigner(byte[] secret, long ttl, LongSupplier clock) {
+        if (secret.length == 0)
+            throw new IllegalArgumentException("empty secret");
+        if (ttl <= 0)
+            throw new IllegalArgumentException("ttl must be positive");
+        this.secret = new SecretKeySpec(secret, ALGORITHM);
+        this.epochMillis = ttl;
+        this.clock = clock;
+    }
+
+    /*
+     * Secret from a string (e.g. a system property), shared by cookie and command servers
+     */
+    public static CookieSigner fromSecret(String secret, long ttl) {
+        return new CookieSigner(secret.getBytes(StandardCharsets.UTF_8), ttl);
+    }
+
+    /*
+     * Cookie for the peer, getTtl() tells how long it stays valid
+     */
+    public int issue(PhyConfiguration peer) {
+        long epoch = clock.getAsLong() / epochMillis;
+        return sign(peer, epoch, keysFor(epoch).current);
+    }
+
+    /*
+     * Remaining time to live (ms) of the peer's cookie, -1 if it is forged, belongs to another peer or has expired
+     */
+    @Override
+    public long getTtl(PhyConfiguration peer, int cookie) {
+        long now = clock.getAsLong();
+        long epoch = now / epochMillis;
+        Keys k = keysFor(epoch);
+        // issued in this epoch or in the previous one, the parity bit tells which
+        long issued = (cookie >>> PARITY_SHIFT) == (epoch & 1) ? epoch : epoch - 1;
+        SecretKeySpec key = issued == epoch ? k.current : k.previous;
+        if (sign(peer, issued, key) != cookie)
+            return -1;
+        return expiry(issued) - now;
+    }
+
+    public boolean validate(PhyConfiguration peer, int cookie) {
+        return getTtl(peer, cookie) > 0;
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    private long expiry(long epoch) {
+        return (epoch + 2) * epochMillis;
+    }
+
+    private int sign(PhyConfiguration peer, long epoch, SecretKeySpec key) {
+        byte[] address = peer.getRemoteIPAddress().getAddress();
+        ByteBuffer data = ByteBuffer.allocate(address.length + Integer.BYTES + Long.BYTES);
+        data.put(address).putInt(peer.getRemotePort()).putLong(expiry(epoch));
+        byte[] mac = hmac(key, data.array());
+        int value = ByteBuffer.wrap(mac).getInt() & MAC_MASK;
+        return value | (int) ((epoch & 1) << PARITY_SHIFT);
+    }
+
+    private byte[] hmac(SecretKeySpec key, byte[] data) {
+        Mac mac = macs.get();
+        try {
+            mac.init(key);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        return mac.doFinal(data);
+    }
+
+    // derive the epoch keys once per rotation
+    private Keys keysFor(long epoch) {
+        Keys k = this.keys;
+        if (k != null && k.epoch == epoch)
+            return k;
+        SecretKeySpec previous = k != null && k.epoch == epoch - 1 ? k.current : deriveKey(epoch - 1);
+        k = new Keys(epoch, deriveKey(epoch), previous);
+        this.keys = k;
+        return k;
+    }
+
+    private SecretKeySpec deriveKey(long epoch) {
+        byte[] label = "epoch".getBytes(StandardCharsets.US_ASCII);
+        byte[] data = ByteBuffer.allocate(label.length + Long.BYTES).put(label).putLong(epoch).array();
+        return new SecretKeySpec(hmac(secret, data), ALGORITHM);
+    }
+}
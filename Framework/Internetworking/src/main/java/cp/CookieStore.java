@@ -0,0 +1,140 @@
+package cp;
+
+import core.TimingWheel;
+import phy.PhyConfiguration;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/*
+ * Cookies issued by a cookie server, one per client
+ * Lookups and updates go through a ConcurrentHashMap, the capacity is enforced with an atomic
+ * slot counter, so concurrent requests (virtual thread execution mode) never take a global lock.
+ * Every cookie expires ttl ms after it was issued; expiry is scheduled on a timing wheel instead
+ * of scanning the map. The wheel is advanced by issue() and expire() (the server's receive loop),
+ * lookups check the exact expiry time, so a cookie is never valid past its ttl.
+ */
+public class CookieStore implements CookieValidator {
+    public static final long DEFAULT_TTL = 60000;
+    private static final long TICK = 100;
+
+    public enum Decision {
+        ISSUED, ACTIVE_COOKIE_EXISTS, TOO_MANY_COOKIES
+    }
+
+    private final ConcurrentHashMap<PhyConfiguration, Cookie> cookies = new ConcurrentHashMap<>();
+    // entries in the map plus slots reserved by issue() calls in progress
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    private final long ttl;
+    private final LongSupplier clock;
+    private final TimingWheel wheel;
+
+    public CookieStore(int capacity, long ttl) {
+        this(capacity, ttl, System::currentTimeMillis);
+    }
+
+    // clock in ms, replaceable for tests
+    CookieStore(int capacity, long ttl, LongSupplier clock) {
+        this.capacity = capacity;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.wheel = new TimingWheel(TICK, clock.getAsLong());
+    }
+
+    /*
+     * Store a new cookie for the peer unless it holds an active one or the store is full
+     */
+    public Decision issue(PhyConfiguration peer, int value) {
+        long now = clock.getAsLong();
+        wheel.advance(now);
+        Cookie current = cookies.get(peer);
+        if (current != null) {
+            if (!current.isExpired(now))
+                return Decision.ACTIVE_COOKIE_EXISTS;
+            remove(peer, current);
+        }
+        if (!reserve())
+            return Decision.TOO_MANY_COOKIES;
+        Cookie cookie = new Cookie(now, value, now + ttl);
+        if (cookies.putIfAbsent(peer, cookie) != null) {
+            // a concurrent request of the same peer won
+            size.decrementAndGet();
+            return Decision.ACTIVE_COOKIE_EXISTS;
+        }
+        cookie.expiry = wheel.schedule(cookie.getExpiresAt(), () -> remove(peer, cookie));
+        return Decision.ISSUED;
+    }
+
+    /*
+     * Active cookie of the peer or null
+     */
+    public Cookie get(PhyConfiguration peer) {
+        Cookie cookie = cookies.get(peer);
+        if (cookie == null || cookie.isExpired(clock.getAsLong()))
+            return null;
+        return cookie;
+    }
+
+    /*
+     * Remaining time to live (ms) of the peer's cookie, -1 if it has none
+     */
+    public long getTtl(PhyConfiguration peer) {
+        Cookie cookie = cookies.get(peer);
+        if (cookie == null)
+            return -1;
+        long remaining = cookie.getExpiresAt() - clock.getAsLong();
+        return remaining > 0 ? remaining : -1;
+    }
+
+    /*
+     * Remaining time to live (ms) if the cookie is the peer's current one, -1 otherwise
+     */
+    @Override
+    public long getTtl(PhyConfiguration peer, int cookie) {
+        Cookie current = cookies.get(peer);
+        if (current == null || current.getCookieValue() != cookie)
+            return -1;
+        return getTtl(peer);
+    }
+
+    /*
+     * Remove all cookies whose ttl has passed, returns their number
+     */
+    public int expire() {
+        return wheel.advance(clock.getAsLong());
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    private boolean reserve() {
+        int n;
+        do {
+            n = size.get();
+            if (n >= capacity)
+                return false;
+        } while (!size.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    // only removes this exact cookie, a newer one of the same peer stays
+    private void remove(PhyConfiguration peer, Cookie cookie) {
+        if (cookies.remove(peer, cookie)) {
+            size.decrementAndGet();
+            TimingWheel.Timeout expiry = cookie.expiry;
+            if (expiry != null)
+                expiry.cancel();
+        }
+    }
+}
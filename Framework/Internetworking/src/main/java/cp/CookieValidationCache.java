@@ -0,0 +1,202 @@
+package cp;
+
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Validation results of the command server, in front of a (remote) CookieValidator
+ * Only the first command of a client waits for the cookie server, later ones are answered from here.
+ *
+ * - bounded: least recently used entries are evicted beyond the capacity
+ * - TTL-aware: a valid cookie is cached until it expires, but at most maxAge ms, so cookies the
+ *   cookie server stops accepting are noticed
+ * - negative caching: invalid cookies are remembered for negativeTtl ms, a client sending a forged
+ *   or expired cookie in a loop does not turn into one lookup per command
+ * - background refresh: a valid entry used during the last REFRESH_AHEAD of its cache lifetime
+ *   is reloaded on the executor while the cached result is still returned
+ * - concurrent misses of the same cookie share one lookup
+ */
+public class CookieValidationCache implements CookieValidator {
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final long DEFAULT_MAX_AGE = 10000;
+    public static final long DEFAULT_NEGATIVE_TTL = 1000;
+    private static final double REFRESH_AHEAD = 0.2;
+
+    private final CookieValidator source;
+    private final int capacity;
+    private final long maxAge;
+    private final long negativeTtl;
+    private final Executor refresher;
+    private final LongSupplier clock;
+    // access order -> eldest entry is the least recently used one; guarded by itself
+    private final LinkedHashMap<Key, Entry> entries;
+    private final Map<Key, CompletableFuture<Long>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    private record Key(PhyConfiguration client, int cookie) {}
+
+    private static final class Entry {
+        // cookie expiry, 0 for an invalid cookie
+        final long expiresAt;
+        final long cachedUntil;
+        final long refreshAt;
+        volatile boolean refreshing;
+
+        Entry(long expiresAt, long cachedUntil, long refreshAt) {
+            this.expiresAt = expiresAt;
+            this.cachedUntil = cachedUntil;
+            this.refreshAt = refreshAt;
+        }
+    }
+
+    public CookieValidationCache(CookieValidator source) {
+        this(source, DEFAULT_CAPACITY, DEFAULT_MAX_AGE, DEFAULT_NEGATIVE_TTL,
+                task -> Thread.ofVirtual().name("cookie-refresh").start(task), System::currentTimeMillis);
+    }
+
+    CookieValidationCache(CookieValidator source, int capacity, long maxAge, long negativeTtl,
+                          Executor refresher, LongSupplier clock) {
+        this.source = source;
+        this.capacity = capacity;
+        this.maxAge = maxAge;
+        this.negativeTtl = negativeTtl;
+        this.refresher = refresher;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > CookieValidationCache.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public long getTtl(PhyConfiguration client, int cookie) throws IOException, IWProtocolException {
+        Key key = new Key(client, cookie);
+        Long ttl = cached(key);
+        return ttl != null ? ttl : load(key);
+    }
+
+    /*
+     * Misses are looked up on the refresher executor, the caller only waits for cached answers
+     */
+    @Override
+    public CompletableFuture<Long> getTtlAsync(PhyConfiguration client, int cookie) {
+        Key key = new Key(client, cookie);
+        Long ttl = cached(key);
+        if (ttl != null)
+            return CompletableFuture.completedFuture(ttl);
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CompletableFuture<Long> existing = loading.putIfAbsent(key, result);
+        if (existing != null)
+            return existing;
+        refresher.execute(() -> fill(key, result));
+        return result;
+    }
+
+    public boolean validate(PhyConfiguration client, int cookie) throws IOException, IWProtocolException {
+        return getTtl(client, cookie) > 0;
+    }
+
+    // ttl from the cache, null on a miss
+    private Long cached(Key key) {
+        long now = clock.getAsLong();
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(key);
+        }
+        if (e == null || now >= e.cachedUntil) {
+            misses.increment();
+            return null;
+        }
+        if (e.expiresAt == 0) {
+            negativeHits.increment();
+            return -1L;
+        }
+        hits.increment();
+        if (now >= e.refreshAt && !e.refreshing) {
+            e.refreshing = true;
+            refresher.execute(() -> refresh(key, e));
+        }
+        return e.expiresAt - now;
+    }
+
+    // ask the source, one lookup per key at a time
+    private long load(Key key) throws IOException, IWProtocolException {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        CompletableFuture<Long> existing = loading.putIfAbsent(key, result);
+        if (existing != null)
+            return CookieValidator.join(existing);
+        fill(key, result);
+        return CookieValidator.join(result);
+    }
+
+    private void fill(Key key, CompletableFuture<Long> result) {
+        try {
+            long ttl = source.getTtl(key.client, key.cookie);
+            put(key, ttl);
+            result.complete(ttl);
+        } catch (IOException | IWProtocolException | RuntimeException e) {
+            // no answer is not a negative answer -> nothing is cached
+            result.completeExceptionally(e);
+        } finally {
+            loading.remove(key, result);
+        }
+    }
+
+    private void refresh(Key key, Entry stale) {
+        refreshes.increment();
+        try {
+            load(key);
+        } catch (IOException | IWProtocolException | RuntimeException e) {
+            // keep the cached result until it runs out, the next hit tries again
+            stale.refreshing = false;
+        }
+    }
+
+    private void put(Key key, long ttl) {
+        long now = clock.getAsLong();
+        Entry e;
+        if (ttl > 0) {
+            long cachedUntil = now + Math.min(ttl, maxAge);
+            e = new Entry(now + ttl, cachedUntil, cachedUntil - (long) ((cachedUntil - now) * REFRESH_AHEAD));
+        } else {
+            e = new Entry(0, now + negativeTtl, Long.MAX_VALUE);
+        }
+        synchronized (entries) {
+            entries.put(key, e);
+        }
+    }
+
+    /*
+     * Forget a cookie, e.g. after the command server rejected it for another reason
+     */
+    public void invalidate(PhyConfiguration client, int cookie) {
+        synchronized (entries) {
+            entries.remove(new Key(client, cookie));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {return hits.sum();}
+    public long getNegativeHits() {return negativeHits.sum();}
+    public long getMisses() {return misses.sum();}
+    public long getRefreshes() {return refreshes.sum();}
+}
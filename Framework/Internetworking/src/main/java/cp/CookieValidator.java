@@ -0,0 +1,50 @@
+package cp;
+
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*
+ * Checks a cookie presented by a client
+ * Implementations: CookieStore / CookieSigner (local), RemoteCookieValidator (asks the cookie server),
+ * CookieValidationCache (in front of any of them)
+ */
+public interface CookieValidator {
+    /*
+     * Remaining time to live (ms) of the client's cookie, -1 if it is not valid for this client
+     */
+    long getTtl(PhyConfiguration client, int cookie) throws IOException, IWProtocolException;
+
+    /*
+     * Same without blocking the caller: validators that have to ask the cookie server complete the
+     * future later, the default answers right away (local validators)
+     */
+    default CompletableFuture<Long> getTtlAsync(PhyConfiguration client, int cookie) {
+        try {
+            return CompletableFuture.completedFuture(getTtl(client, cookie));
+        } catch (IOException | IWProtocolException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /*
+     * Wait for a getTtlAsync result, failing with the exception getTtl would have thrown
+     */
+    static long join(CompletableFuture<Long> ttl) throws IOException, IWProtocolException {
+        try {
+            return ttl.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof IWProtocolException)
+                throw (IWProtocolException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw e;
+        }
+    }
+}
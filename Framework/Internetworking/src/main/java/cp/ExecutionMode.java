@@ -0,0 +1,10 @@
+package cp;
+
+/*
+ * How a cp server handles a decoded request
+ * INLINE:         on the receive loop thread (one request at a time)
+ * VIRTUAL_THREAD: on a new virtual thread per request, the receive loop only decodes and hands off
+ */
+public enum ExecutionMode {
+    INLINE, VIRTUAL_THREAD
+}
@@ -0,0 +1,40 @@
+package cp;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Request latency for one execution mode: time from handing the decoded request off
+ * until the response has been sent
+ */
+public class ExecutionStats {
+    private final ExecutionMode mode;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public ExecutionStats(ExecutionMode mode) {
+        this.mode = mode;
+    }
+
+    public void record(long nanos) {
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public ExecutionMode getMode() {return mode;}
+    public long getCount() {return count.sum();}
+    public long getMaxNanos() {return maxNanos.get();}
+
+    public double getMeanNanos() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalNanos.sum() / n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d requests, mean %.1f us, max %.1f us", mode, getCount(),
+                getMeanNanos() / 1000, getMaxNanos() / 1000.0);
+    }
+}
@@ -0,0 +1,100 @@
+package cp;
+
+/*
+ * Commands of one client that were sent and not yet answered, keyed by command id
+ * Open addressed table of 2 * MAX_WINDOW slots indexed by id & (capacity - 1) with linear probing;
+ * it is never more than half full, so probe runs stay short. Removal shifts the rest of the run back.
+ * The window slides over the order in which commands were added: a command is only added while the
+ * oldest one in flight is less than window commands older. Together with consecutive ids this keeps
+ * every id a server may see retransmitted within 2 * MAX_WINDOW, the replay depth of the command server.
+ * Not thread safe: owned by the reactor thread (async API) or the calling thread (sendPipelined).
+ */
+class InFlightTable {
+    public static final int DEFAULT_WINDOW = 32;
+    public static final int MAX_WINDOW = 64;
+    private static final int CAPACITY = 2 * MAX_WINDOW;
+    private final PendingCommand[] slots = new PendingCommand[CAPACITY];
+    private int size;
+    private int window = DEFAULT_WINDOW;
+    // sequence number of the next added command
+    private long nextSeq;
+
+    void setWindow(int window) {
+        if (window < 1 || window > MAX_WINDOW)
+            throw new IllegalArgumentException("window must be between 1 and " + MAX_WINDOW);
+        this.window = window;
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    boolean hasRoom() {
+        PendingCommand oldest = null;
+        for (PendingCommand pending : slots) {
+            if (pending != null && (oldest == null || pending.seq < oldest.seq))
+                oldest = pending;
+        }
+        return oldest == null || nextSeq - oldest.seq < window;
+    }
+
+    void add(PendingCommand pending) {
+        int id = pending.msg.getCommandId();
+        if (size == MAX_WINDOW)
+            throw new IllegalStateException("More than " + MAX_WINDOW + " commands in flight");
+        int i = id & (CAPACITY - 1);
+        while (slots[i] != null) {
+            if (slots[i].msg.getCommandId() == id)
+                throw new IllegalStateException("Command id " + id + " already in flight");
+            i = (i + 1) & (CAPACITY - 1);
+        }
+        pending.seq = nextSeq++;
+        slots[i] = pending;
+        size++;
+    }
+
+    PendingCommand get(int id) {
+        int i = indexOf(id);
+        return i < 0 ? null : slots[i];
+    }
+
+    PendingCommand remove(int id) {
+        int gap = indexOf(id);
+        if (gap < 0)
+            return null;
+        PendingCommand pending = slots[gap];
+        // move entries of the probe run behind the gap back unless that passes their home slot
+        for (int i = (gap + 1) & (CAPACITY - 1); slots[i] != null; i = (i + 1) & (CAPACITY - 1)) {
+            int home = slots[i].msg.getCommandId() & (CAPACITY - 1);
+            if (((i - home) & (CAPACITY - 1)) >= ((i - gap) & (CAPACITY - 1))) {
+                slots[gap] = slots[i];
+                gap = i;
+            }
+        }
+        slots[gap] = null;
+        size--;
+        return pending;
+    }
+
+    private int indexOf(int id) {
+        for (int i = id & (CAPACITY - 1); slots[i] != null; i = (i + 1) & (CAPACITY - 1)) {
+            if (slots[i].msg.getCommandId() == id)
+                return i;
+        }
+        return -1;
+    }
+
+    // entry with the earliest retransmission deadline, null if nothing is in flight
+    PendingCommand nextDeadline() {
+        PendingCommand next = null;
+        for (PendingCommand pending : slots) {
+            if (pending != null && (next == null || pending.deadline - next.deadline < 0))
+                next = pending;
+        }
+        return next;
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,8 @@
+package cp;
+
+import core.Msg;
+
+import java.util.concurrent.CompletableFuture;
+
+// command server: command of a client whose cookie lookup is still running, lookup is null for commands queued behind it
+record ParkedCommand(Msg msg, long receivedAt, CompletableFuture<Long> lookup) {}
@@ -0,0 +1,37 @@
+package cp;
+
+import core.Msg;
+import exceptions.CookieTimeoutException;
+import phy.PhyReactor;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Command of the asynchronous or pipelined client that was sent and not yet answered (see InFlightTable)
+ */
+class PendingCommand {
+    final CPCommandMsg msg;
+    final CompletableFuture<Msg> result;
+    int retries;
+    long sentAt;
+    // retransmission deadline (System.nanoTime) and order of sending in the InFlightTable
+    long deadline;
+    long seq;
+    final long createdAt = System.nanoTime();
+    PhyReactor.Deadline timeout;
+
+    PendingCommand(CPCommandMsg msg, CompletableFuture<Msg> result) {
+        this.msg = msg;
+        this.result = result;
+    }
+
+    void complete(Msg responseMsg, boolean ok) {
+        if (this.timeout != null)
+            this.timeout.cancel();
+        CPProtocol.commandEvent(msg.getCommandId(), msg.getCommandType(), retries, sentAt, createdAt, ok ? "ok" : "error");
+        if (ok)
+            this.result.complete(responseMsg);
+        else
+            this.result.completeExceptionally(new CookieTimeoutException());
+    }
+}
@@ -0,0 +1,8 @@
+package cp;
+
+import core.Msg;
+
+import java.util.concurrent.CompletableFuture;
+
+// command of the asynchronous or pipelined client waiting for room in the window
+record QueuedCommand(String command, CompletableFuture<Msg> result) {}
@@ -0,0 +1,140 @@
+package cp;
+
+import core.EventLog;
+import core.Msg;
+import core.Protocol;
+import exceptions.CookieTimeoutException;
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+import phy.PhyProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Asks the cookie server whether a cookie is valid (cookie_validate / cookie_ttl)
+ * Any number of threads may validate at the same time over the one phy endpoint:
+ * a daemon thread receives the answers and completes the waiting lookups by (cookie, client).
+ * Concurrent lookups of the same cookie share one request.
+ */
+public class RemoteCookieValidator implements CookieValidator {
+    private static final int ATTEMPTS = 3;
+    private static final EventLog.Event RECEIVE_FAILED = EventLog.event(EventLog.Level.WARN, "cookie validation receive failed: %3$s");
+
+    private final PhyProtocol phy;
+    private final PhyConfiguration cookieServer;
+    private final RttEstimator rtt = new RttEstimator(2000);
+    private final Map<Lookup, CompletableFuture<Long>> pending = new ConcurrentHashMap<>();
+
+    private record Lookup(PhyConfiguration client, int cookie) {}
+
+    public RemoteCookieValidator(PhyProtocol phy, InetAddress host, int port) throws UnknownHostException {
+        this.phy = phy;
+        this.phy.bind(Protocol.proto_id.CP);
+        this.cookieServer = new PhyConfiguration(host, port, Protocol.proto_id.CP);
+        Thread receiver = new Thread(this::receiveLoop, "cookie-validation");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public long getTtl(PhyConfiguration client, int cookie) throws IOException, IWProtocolException {
+        Lookup lookup = new Lookup(client, cookie);
+        CompletableFuture<Long> answer = new CompletableFuture<>();
+        CompletableFuture<Long> existing = pending.putIfAbsent(lookup, answer);
+        if (existing != null)
+            return await(existing);
+        try {
+            CPCookieValidateMsg request = new CPCookieValidateMsg(cookie, client);
+            request.create(null);
+            for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                long sentAt = System.nanoTime();
+                this.phy.send(new String(request.getDataBytes()), this.cookieServer);
+                try {
+                    long ttl = answer.get(rtt.getTimeout(attempt), TimeUnit.MILLISECONDS);
+                    // Karn's rule
+                    if (attempt == 0)
+                        rtt.sample((System.nanoTime() - sentAt) / 1e6);
+                    return ttl;
+                } catch (TimeoutException e) {
+                    // retransmit
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            CookieTimeoutException timeout = new CookieTimeoutException();
+            answer.completeExceptionally(timeout);
+            throw timeout;
+        } finally {
+            pending.remove(lookup, answer);
+        }
+    }
+
+    /*
+     * The lookup and its retransmissions wait on a virtual thread instead of the caller
+     */
+    @Override
+    public CompletableFuture<Long> getTtlAsync(PhyConfiguration client, int cookie) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("cookie-validation").start(() -> {
+            try {
+                result.complete(getTtl(client, cookie));
+            } catch (IOException | IWProtocolException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    // wait for a lookup another thread has sent
+    private static long await(CompletableFuture<Long> answer) throws IOException, IWProtocolException {
+        try {
+            return answer.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IWProtocolException)
+                throw (IWProtocolException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public RttEstimator getRttEstimator() {
+        return rtt;
+    }
+
+    private void receiveLoop() {
+        while (true) {
+            try {
+                Msg in = this.phy.receive();
+                Msg parsed = new CPMsg().parse(in.getData());
+                if (!(parsed instanceof CPCookieTtlMsg))
+                    continue;
+                CPCookieTtlMsg answer = (CPCookieTtlMsg) parsed;
+                CompletableFuture<Long> lookup = pending.get(new Lookup(answer.getClient(), answer.getCookie()));
+                // late duplicate of an answered lookup -> ignore
+                if (lookup != null)
+                    lookup.complete(answer.getTtl());
+            } catch (IWProtocolException e) {
+                // not a validation answer
+            } catch (IOException e) {
+                // endpoint closed
+                EventLog.log(RECEIVE_FAILED, 0, 0, e);
+                return;
+            } catch (RuntimeException e) {
+                EventLog.log(RECEIVE_FAILED, 0, 0, e);
+            }
+        }
+    }
+}
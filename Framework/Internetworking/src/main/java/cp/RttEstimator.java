@@ -0,0 +1,66 @@
+package cp;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Round trip time estimation and retransmission timeout for one peer (RFC 6298)
+ *
+ * SRTT/RTTVAR are updated from samples of unambiguous exchanges only (Karn's rule:
+ * the caller must not sample answers to retransmitted requests). Retransmissions back off
+ * exponentially from the current RTO; a random jitter keeps clients from retrying in lockstep.
+ */
+public class RttEstimator {
+    public static final int MIN_RTO = 100;
+    public static final int MAX_RTO = 60000;
+    private static final double ALPHA = 1.0 / 8;
+    private static final double BETA = 1.0 / 4;
+    private static final int K = 4;
+    // +/- fraction of the backed-off timeout
+    private static final double JITTER = 0.1;
+    private double srtt;
+    private double rttvar;
+    private int rto;
+    private boolean hasSample;
+
+    public RttEstimator(int initialRto) {
+        this.rto = initialRto;
+    }
+
+    /*
+     * Add a measured round trip time (ms)
+     */
+    public synchronized void sample(double rtt) {
+        if (!hasSample) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+            hasSample = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+        }
+        rto = (int) Math.min(MAX_RTO, Math.max(MIN_RTO, Math.ceil(srtt + Math.max(1, K * rttvar))));
+    }
+
+    /*
+     * Timeout (ms) for the given number of previous timeouts of the same exchange
+     * The first attempt uses the RTO as is, later attempts double it and add jitter
+     */
+    public int getTimeout(int timeouts) {
+        int current = getRto();
+        if (timeouts <= 0)
+            return current;
+        double backedOff = Math.min(MAX_RTO, (double) current * (1L << Math.min(timeouts, 16)));
+        double jitter = ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return (int) Math.min(MAX_RTO, backedOff * (1 + jitter));
+    }
+
+    public synchronized int getRto() {return rto;}
+    public synchronized double getSrtt() {return srtt;}
+    public synchronized double getRttvar() {return rttvar;}
+    public synchronized boolean hasSample() {return hasSample;}
+
+    @Override
+    public synchronized String toString() {
+        return String.format("srtt=%.1f ms, rttvar=%.1f ms, rto=%d ms", srtt, rttvar, rto);
+    }
+}
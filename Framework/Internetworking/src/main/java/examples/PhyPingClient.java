@@ -2,22 +2,37 @@ package examples;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.BitSet;
 
+import core.LatencyHistogram;
+import core.Msg;
 import core.Protocol;
-import exceptions.IWProtocolException;
 import phy.PhyConfiguration;
+import phy.PhyPingMsg;
 import phy.PhyProtocol;
 
 /*
- * Client using the phy protocol 
+ * Client using the phy protocol to measure round trip times
+ * Usage: PhyPingClient [host] [count] [interval ms | flood]
+ *  interval: one ping every interval ms (default 1000)
+ *  flood: next ping as soon as the previous echo arrived, at the latest after FLOOD_INTERVAL ms
  */
 public class PhyPingClient {
 
 	private static final String SERVERNAME = "localhost";
 	public static final int CLIENTPORT = 4444;
+	private static final int FLOOD_INTERVAL = 10;
+	// wait for late echoes after the last ping
+	private static final int DRAIN_TIMEOUT = 2000;
 
 	public static void main(String[] args) {
+		String host = args.length > 0 ? args[0] : SERVERNAME;
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		boolean flood = args.length > 2 && args[2].equals("flood");
+		long interval = flood ? FLOOD_INTERVAL : args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
 		// Create a new phy protocol instance with defined UDP port
 		PhyProtocol proto = new PhyProtocol(CLIENTPORT);
 
@@ -25,18 +40,66 @@ public class PhyPingClient {
 		try {
 			// create a new phy configuration object
 			// getByName might throw exception
-			config = new PhyConfiguration(InetAddress.getByName(SERVERNAME), PhyPingServer.SERVERPORT, Protocol.proto_id.APP);
+			config = new PhyConfiguration(InetAddress.getByName(host), PhyPingServer.SERVERPORT, Protocol.proto_id.PHY);
 		} catch (UnknownHostException e1) {
 			e1.printStackTrace();
 			return;
 		}
 
+		LatencyHistogram histogram = new LatencyHistogram();
+		BitSet answered = new BitSet(count);
+		int sent = 0;
+		int duplicates = 0;
+		long nextSend = System.nanoTime();
+		long lastReply = 0;
+		long start = nextSend;
 		try {
-			proto.ping(config);
-		} catch (IWProtocolException | IOException e) {
+			while (true) {
+				long now = System.nanoTime();
+				// in flood mode an echo for the last ping allows the next one right away
+				if (sent < count && (now >= nextSend || (flood && lastReply == sent))) {
+					proto.ping(config, sent++);
+					nextSend = System.nanoTime() + interval * 1_000_000;
+					continue;
+				}
+				long wait = sent < count ? nextSend - now : DRAIN_TIMEOUT * 1_000_000L;
+				int timeout = (int) Math.max(1, wait / 1_000_000);
+				Msg in;
+				try {
+					in = proto.receive(timeout);
+				} catch (SocketTimeoutException e) {
+					if (sent == count)
+						break;
+					continue;
+				}
+				if (!(in instanceof PhyPingMsg) || !((PhyPingMsg) in).isEcho())
+					continue;
+				PhyPingMsg pong = (PhyPingMsg) in;
+				long rtt = System.nanoTime() - pong.getTimestamp();
+				int seq = pong.getCount();
+				if (seq < 0 || seq >= sent || answered.get(seq)) {
+					duplicates++;
+					continue;
+				}
+				answered.set(seq);
+				histogram.record(rtt);
+				if (seq == sent - 1)
+					lastReply = sent;
+				if (!flood)
+					System.out.printf("seq=%d time=%.3f ms%n", seq, rtt / 1e6);
+				if (sent == count && histogram.getCount() == count)
+					break;
+			}
+		} catch (Exception e) {
 			e.printStackTrace();
 		}
 
+		long received = histogram.getCount();
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("--- %s ping statistics ---%n", host);
+		System.out.printf("%d sent, %d received, %d duplicates, %.1f%% loss, %.1f s%n",
+				sent, received, duplicates, sent == 0 ? 0.0 : 100.0 * (sent - received) / sent, elapsed);
+		System.out.println(histogram);
 	}
 
 }
@@ -7,22 +7,32 @@ import exceptions.IWProtocolException;
 import phy.PhyPingMsg;
 import phy.PhyProtocol;
 
+/*
+ * Echo server for PhyPingClient
+ * Usage: PhyPingServer [-v]   (-v: print every ping, slows down flood pings)
+ */
 public class PhyPingServer {
 	protected static final int SERVERPORT = 4455;
 	
 	public static void main(String[] args) throws IWProtocolException {
+		boolean verbose = args.length > 0 && args[0].equals("-v");
 		// create phy protocol instance
 		PhyProtocol phy = new PhyProtocol(SERVERPORT);
-		int count=0;
+		long count = 0;
 		
-		while (count < 2) {
+		while (true) {
 			try {
 				// read the message received via the phy protocol
 				Msg msg = phy.receive();
-				if(msg instanceof PhyPingMsg) {
-					count = ((PhyPingMsg) msg).getCount();
-					System.out.println("Received ping message: " + count);
-				}				
+				if (msg instanceof PhyPingMsg && !((PhyPingMsg) msg).isEcho()) {
+					// echo sequence number and timestamp to the sender
+					phy.pong((PhyPingMsg) msg);
+					count++;
+					if (verbose)
+						System.out.println("Received ping message: " + ((PhyPingMsg) msg).getCount());
+					else if (count % 10000 == 0)
+						System.out.println("Echoed " + count + " pings");
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
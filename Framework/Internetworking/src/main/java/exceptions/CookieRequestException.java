@@ -1,4 +1,24 @@
 package exceptions;
 
 public class CookieRequestException extends IWProtocolException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 5816774022397504204L;
+
+	// reason of a NAK from the cookie server (e.g. TOO_MANY_COOKIES), null if it did not answer
+	private final String reason;
+
+	public CookieRequestException() {
+		this(null);
+	}
+
+	public CookieRequestException(String reason) {
+		this.reason = reason;
+	}
+
+	public String getReason() {
+		return reason;
+	}
 }
@@ -1,4 +1,10 @@
 package exceptions;
 
 public class CookieTimeoutException extends IWProtocolException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -4956217898943849798L;
+
 }
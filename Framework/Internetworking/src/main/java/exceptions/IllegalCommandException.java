@@ -1,4 +1,10 @@
 package exceptions;
 
 public class IllegalCommandException extends IWProtocolException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -8904785980248427274L;
+
 }
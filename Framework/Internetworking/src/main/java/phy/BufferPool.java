@@ -0,0 +1,86 @@
+package phy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded pool of direct byte buffers used by the NIO transport
+ * All buffers are allocated up front; acquire and release only move references between slots,
+ * so the pool itself never allocates once it is created.
+ * Every buffer has a home slot: a slot that is empty is the record that its buffer is handed out,
+ * so release() can reject a buffer that is returned twice or did not come from this pool.
+ * If the pool is exhausted a temporary heap buffer is handed out and counted as a miss.
+ */
+public class BufferPool {
+	private final AtomicReferenceArray<ByteBuffer> slots;
+	// buffer owned by each slot
+	private final ByteBuffer[] buffers;
+	private final int bufferSize;
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger highWaterMark = new AtomicInteger();
+	private final LongAdder acquires = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public BufferPool(int capacity, int bufferSize) {
+		if (capacity < 1 || bufferSize < 1)
+			throw new IllegalArgumentException("Pool capacity and buffer size must be positive");
+		this.bufferSize = bufferSize;
+		this.slots = new AtomicReferenceArray<>(capacity);
+		this.buffers = new ByteBuffer[capacity];
+		for (int i = 0; i < capacity; i++) {
+			this.buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+			this.slots.set(i, this.buffers[i]);
+		}
+	}
+
+	/*
+	 * Take a cleared buffer out of the pool
+	 */
+	public ByteBuffer acquire() {
+		acquires.increment();
+		for (int i = 0; i < slots.length(); i++) {
+			ByteBuffer b = slots.get(i);
+			if (b != null && slots.compareAndSet(i, b, null)) {
+				highWaterMark.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+				b.clear();
+				return b;
+			}
+		}
+		misses.increment();
+		return ByteBuffer.allocate(bufferSize);
+	}
+
+	/*
+	 * Return a buffer to its slot -> temporary heap buffers are left to the garbage collector
+	 * A direct buffer this pool did not hand out, or one that is already back, is rejected
+	 */
+	public void release(ByteBuffer b) {
+		if (b == null || !b.isDirect())
+			return;
+		for (int i = 0; i < buffers.length; i++) {
+			if (buffers[i] == b) {
+				if (!slots.compareAndSet(i, null, b))
+					throw new IllegalStateException("Buffer released twice");
+				inUse.decrementAndGet();
+				return;
+			}
+		}
+		throw new IllegalArgumentException("Buffer does not belong to this pool");
+	}
+
+	public int getCapacity() {return slots.length();}
+	public int getBufferSize() {return bufferSize;}
+	public int getInUse() {return inUse.get();}
+	public int getAvailable() {return slots.length() - inUse.get();}
+	public int getHighWaterMark() {return highWaterMark.get();}
+	public long getAcquires() {return acquires.sum();}
+	public long getMisses() {return misses.sum();}
+
+	@Override
+	public String toString() {
+		return "BufferPool[capacity=" + getCapacity() + ", inUse=" + getInUse() + ", highWaterMark=" + getHighWaterMark()
+				+ ", acquires=" + getAcquires() + ", misses=" + getMisses() + "]";
+	}
+}
@@ -0,0 +1,44 @@
+package phy;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import core.Msg;
+
+/*
+ * Bounded lock-free queue for messages of one protocol id that arrived while
+ * nobody was waiting for them. Offers beyond the capacity are rejected and counted.
+ */
+public class InboundQueue {
+	private final ConcurrentLinkedQueue<Msg> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final LongAdder drops = new LongAdder();
+	private final int capacity;
+
+	public InboundQueue(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public boolean offer(Msg m) {
+		// reserve a slot first so the bound holds under concurrent offers
+		if (size.incrementAndGet() > capacity) {
+			size.decrementAndGet();
+			drops.increment();
+			return false;
+		}
+		queue.offer(m);
+		return true;
+	}
+
+	public Msg poll() {
+		Msg m = queue.poll();
+		if (m != null)
+			size.decrementAndGet();
+		return m;
+	}
+
+	public int size() {return size.get();}
+	public int getCapacity() {return capacity;}
+	public long getDrops() {return drops.sum();}
+}
@@ -0,0 +1,157 @@
+package phy;
+
+import java.net.InetAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * In-process "network" connecting LoopbackPhyProtocol instances by port
+ * Datagrams are copied into the receiver's lock-free queue, no sockets are involved.
+ * Optional impairments (all off by default):
+ *  latency + uniform jitter, loss, duplication and reordering (a reordered datagram is
+ *  held back for reorderDelay ms so later datagrams overtake it).
+ * Delayed datagrams are delivered by one daemon timer thread, everything else on the sender's thread.
+ */
+public class LoopbackNetwork {
+	// first port handed out for port 0 (like the ephemeral port range)
+	private static final int EPHEMERAL_START = 49152;
+	private final ConcurrentHashMap<Integer, LoopbackPhyProtocol> endpoints = new ConcurrentHashMap<>();
+	private final AtomicInteger nextPort = new AtomicInteger(EPHEMERAL_START);
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+	private final LongAdder duplicated = new LongAdder();
+	private final LongAdder reordered = new LongAdder();
+	private final LongAdder unreachable = new LongAdder();
+	private volatile Random random = new Random();
+	private volatile int latency;
+	private volatile int jitter;
+	private volatile double lossRate;
+	private volatile double duplicationRate;
+	private volatile double reorderRate;
+	private volatile int reorderDelay;
+	private ScheduledExecutorService timer;
+
+	/*
+	 * Every datagram is delayed by latency + [0, jitter) ms
+	 */
+	public void setLatency(int latency, int jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	public void setLossRate(double lossRate) {
+		this.lossRate = lossRate;
+	}
+
+	public void setDuplicationRate(double duplicationRate) {
+		this.duplicationRate = duplicationRate;
+	}
+
+	public void setReordering(double reorderRate, int reorderDelay) {
+		this.reorderRate = reorderRate;
+		this.reorderDelay = reorderDelay;
+	}
+
+	/*
+	 * Make the impairments reproducible
+	 */
+	public void setSeed(long seed) {
+		this.random = new Random(seed);
+	}
+
+	public static InetAddress getAddress() {
+		return InetAddress.getLoopbackAddress();
+	}
+
+	/*
+	 * Register an endpoint, port 0 -> next free ephemeral port
+	 */
+	int bind(int port, LoopbackPhyProtocol endpoint) {
+		if (port == 0) {
+			do {
+				port = nextPort.getAndIncrement();
+			} while (endpoints.putIfAbsent(port, endpoint) != null);
+			return port;
+		}
+		if (endpoints.putIfAbsent(port, endpoint) != null)
+			throw new IllegalStateException("Port " + port + " already in use");
+		return port;
+	}
+
+	void unbind(int port) {
+		endpoints.remove(port);
+	}
+
+	/*
+	 * Copy a datagram to the endpoint bound to port (dropped if there is none, like UDP)
+	 */
+	void transmit(byte[] data, int length, int srcPort, int dstPort) {
+		Random rnd = this.random;
+		if (lossRate > 0 && rnd.nextDouble() < lossRate) {
+			lost.increment();
+			return;
+		}
+		int copies = 1;
+		if (duplicationRate > 0 && rnd.nextDouble() < duplicationRate) {
+			duplicated.increment();
+			copies = 2;
+		}
+		for (int i = 0; i < copies; i++) {
+			byte[] copy = new byte[length];
+			System.arraycopy(data, 0, copy, 0, length);
+			int delay = latency + (jitter > 0 ? rnd.nextInt(jitter) : 0);
+			if (reorderRate > 0 && rnd.nextDouble() < reorderRate) {
+				reordered.increment();
+				delay += reorderDelay;
+			}
+			if (delay == 0)
+				deliver(copy, srcPort, dstPort);
+			else
+				timer().schedule(() -> deliver(copy, srcPort, dstPort), delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void deliver(byte[] data, int srcPort, int dstPort) {
+		LoopbackPhyProtocol endpoint = endpoints.get(dstPort);
+		if (endpoint == null) {
+			unreachable.increment();
+			return;
+		}
+		if (endpoint.enqueue(data, srcPort))
+			delivered.increment();
+	}
+
+	private synchronized ScheduledExecutorService timer() {
+		if (timer == null) {
+			timer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "loopback-network");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return timer;
+	}
+
+	public synchronized void shutdown() {
+		if (timer != null)
+			timer.shutdownNow();
+		timer = null;
+	}
+
+	public long getDelivered() {return delivered.sum();}
+	public long getLost() {return lost.sum();}
+	public long getDuplicated() {return duplicated.sum();}
+	public long getReordered() {return reordered.sum();}
+	public long getUnreachable() {return unreachable.sum();}
+
+	@Override
+	public String toString() {
+		return "delivered=" + getDelivered() + " lost=" + getLost() + " duplicated=" + getDuplicated()
+				+ " reordered=" + getReordered() + " unreachable=" + getUnreachable();
+	}
+}
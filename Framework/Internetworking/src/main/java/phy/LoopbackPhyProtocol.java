@@ -0,0 +1,140 @@
+package phy;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import core.*;
+
+/*
+ * Phy protocol on top of a LoopbackNetwork instead of a UDP socket
+ * Same send/receive contract (framing, fragmentation, demux, timeouts) as PhyProtocol,
+ * so CPProtocol clients and servers can run in one JVM without kernel involvement.
+ */
+public class LoopbackPhyProtocol extends PhyProtocol {
+	// datagrams waiting for receive, like the socket receive buffer
+	protected static final int DEFAULT_QUEUE_SIZE = 1024;
+	private final LoopbackNetwork network;
+	// assigned by open() once the endpoint is bound
+	private int port;
+	private final ConcurrentLinkedQueue<Datagram> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final LongAdder receiveDrops = new LongAdder();
+	private final int queueSize;
+	// thread blocked in receiveRaw, unparked by enqueue
+	private volatile Thread waiter;
+	// set while a PhyReactor reads this endpoint, run after every enqueue
+	private volatile Runnable readable;
+	private volatile boolean closed;
+
+	private record Datagram(byte[] data, int srcPort) {}
+
+	private LoopbackPhyProtocol(LoopbackNetwork network, int queueSize) {
+		this.network = network;
+		this.queueSize = queueSize;
+	}
+
+	/*
+	 * Bind a new endpoint, port 0 -> the network picks a free port
+	 * Binding publishes the endpoint to the network's delivery threads, so it happens
+	 * after construction instead of in the constructor.
+	 */
+	public static LoopbackPhyProtocol open(LoopbackNetwork network, int port) {
+		return open(network, port, DEFAULT_QUEUE_SIZE);
+	}
+
+	public static LoopbackPhyProtocol open(LoopbackNetwork network, int port, int queueSize) {
+		LoopbackPhyProtocol phy = new LoopbackPhyProtocol(network, queueSize);
+		phy.port = network.bind(port, phy);
+		return phy;
+	}
+
+	@Override
+	protected void sendRaw(byte[] data, int length, PhyConfiguration config) throws IOException {
+		if (closed)
+			throw new IOException("Endpoint closed");
+		network.transmit(data, length, port, config.getRemotePort());
+	}
+
+	// called by the network on the sender's (or timer) thread
+	boolean enqueue(byte[] data, int srcPort) {
+		if (queued.incrementAndGet() > queueSize) {
+			queued.decrementAndGet();
+			receiveDrops.increment();
+			return false;
+		}
+		queue.offer(new Datagram(data, srcPort));
+		Thread t = waiter;
+		if (t != null)
+			LockSupport.unpark(t);
+		Runnable r = readable;
+		if (r != null)
+			r.run();
+		return true;
+	}
+
+	void setReadable(Runnable readable) {
+		this.readable = readable;
+	}
+
+	/*
+	 * receive with timeout in ms (0 = wait forever) -> SocketTimeoutException if nothing arrives in time
+	 */
+	@Override
+	protected synchronized Msg receiveRaw(int timeout) throws IOException {
+		long deadline = System.nanoTime() + timeout * 1_000_000L;
+		while (true) {
+			Msg in = poll();
+			if (in != null)
+				return in;
+			if (closed)
+				throw new IOException("Endpoint closed");
+			long remaining = deadline - System.nanoTime();
+			if (timeout > 0 && remaining <= 0)
+				throw new SocketTimeoutException("Receive timed out");
+			waiter = Thread.currentThread();
+			// re-check after publishing the waiter, an enqueue in between would be missed otherwise
+			if (queue.isEmpty() && !closed) {
+				if (timeout > 0)
+					LockSupport.parkNanos(this, remaining);
+				else
+					LockSupport.park(this);
+			}
+			waiter = null;
+		}
+	}
+
+	/*
+	 * non-blocking receive -> returns null if no complete message is waiting
+	 */
+	public synchronized Msg poll() throws IOException {
+		Datagram d;
+		while ((d = queue.poll()) != null) {
+			queued.decrementAndGet();
+			// null while a fragmented message is incomplete -> keep reading
+			Msg in = decode(d.data, d.data.length, LoopbackNetwork.getAddress(), d.srcPort);
+			if (in != null)
+				return in;
+		}
+		return null;
+	}
+
+	public int getLocalPort() {
+		return port;
+	}
+
+	public long getReceiveDrops() {
+		return receiveDrops.sum();
+	}
+
+	public void close() {
+		closed = true;
+		network.unbind(port);
+		Thread t = waiter;
+		if (t != null)
+			LockSupport.unpark(t);
+	}
+}
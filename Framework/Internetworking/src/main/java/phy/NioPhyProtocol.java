@@ -0,0 +1,149 @@
+package phy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.LongAdder;
+
+import core.*;
+
+/*
+ * Phy protocol on top of a non-blocking DatagramChannel
+ * Send and receive use direct buffers from a bounded pool instead of allocating
+ * a new array and packet per datagram. Receive timeouts are handled by a selector,
+ * the socket options are never touched.
+ */
+public class NioPhyProtocol extends PhyProtocol {
+	protected static final int DEFAULT_POOL_SIZE = 16;
+	protected DatagramChannel channel;
+	protected Selector selector;
+	protected final BufferPool pool;
+	// receive is serialized, so one scratch array is enough for decoding
+	private final byte[] receiveData = new byte[MAX_DATAGRAM_SIZE];
+	private final LongAdder sendDrops = new LongAdder();
+
+	/*
+	 * Create a new NioPhyProtocol instance bound to the UDP port provided
+	 */
+	public NioPhyProtocol(int port) {
+		this(port, DEFAULT_POOL_SIZE);
+	}
+
+	public NioPhyProtocol(int port, int poolSize) {
+		this(port, poolSize, false);
+	}
+
+	/*
+	 * reusePort: allow several instances to bind the same port (SO_REUSEPORT),
+	 * the kernel then spreads incoming datagrams over them by sender address
+	 */
+	public NioPhyProtocol(int port, int poolSize, boolean reusePort) {
+		this.pool = new BufferPool(poolSize, MAX_DATAGRAM_SIZE);
+		try {
+			this.channel = DatagramChannel.open();
+			if (reusePort)
+				this.channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			this.channel.bind(new InetSocketAddress(port));
+			this.channel.configureBlocking(false);
+			this.selector = Selector.open();
+			this.channel.register(this.selector, SelectionKey.OP_READ);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	protected void sendRaw(byte[] data, int length, PhyConfiguration config) throws IOException {
+		ByteBuffer buf = pool.acquire();
+		try {
+			buf.put(data, 0, length);
+			buf.flip();
+			// a non-blocking channel reports 0 bytes if the socket buffer is full -> datagram is lost
+			if (channel.send(buf, config.getSocketAddress()) == 0)
+				sendDrops.increment();
+		} finally {
+			pool.release(buf);
+		}
+	}
+
+	/*
+	 * receive with timeout in ms (0 = wait forever) -> SocketTimeoutException if nothing arrives in time
+	 */
+	@Override
+	protected synchronized Msg receiveRaw(int timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		Msg in;
+		while ((in = poll()) == null) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (timeout > 0 && remaining <= 0)
+				throw new SocketTimeoutException("Receive timed out");
+			selector.select(timeout > 0 ? remaining : 0);
+			selector.selectedKeys().clear();
+		}
+		return in;
+	}
+
+	/*
+	 * non-blocking receive -> returns null if no complete message is waiting
+	 */
+	public synchronized Msg poll() throws IOException {
+		ByteBuffer buf = pool.acquire();
+		try {
+			while (true) {
+				buf.clear();
+				InetSocketAddress sender = (InetSocketAddress) channel.receive(buf);
+				if (sender == null)
+					return null;
+				buf.flip();
+				int length = buf.remaining();
+				buf.get(receiveData, 0, length);
+				// null while a fragmented message is incomplete -> keep reading
+				Msg in = decode(receiveData, length, sender.getAddress(), sender.getPort());
+				if (in != null)
+					return in;
+			}
+		} finally {
+			pool.release(buf);
+		}
+	}
+
+	/*
+	 * underlying channel, e.g. for registration with a PhyReactor
+	 */
+	public DatagramChannel getChannel() {
+		return channel;
+	}
+
+	/*
+	 * Does the platform support SO_REUSEPORT for datagram channels
+	 */
+	public static boolean isReusePortSupported() {
+		try (DatagramChannel ch = DatagramChannel.open()) {
+			return ch.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public BufferPool getBufferPool() {
+		return pool;
+	}
+
+	public long getSendDrops() {
+		return sendDrops.sum();
+	}
+
+	public int getLocalPort() {
+		return channel.socket().getLocalPort();
+	}
+
+	public void close() throws IOException {
+		selector.close();
+		channel.close();
+	}
+}
@@ -0,0 +1,101 @@
+package phy;
+
+import exceptions.IllegalMsgException;
+
+/*
+ * Helpers for parsing text frames straight from the receive buffer
+ * Same rules as String.trim / split("\\s+") / Integer.parseInt, but without
+ * creating intermediate strings or arrays.
+ */
+final class PhyDecoder {
+	private PhyDecoder() {}
+
+	// characters removed by String.trim
+	static boolean isTrimmed(byte b) {
+		return (b & 0xff) <= ' ';
+	}
+
+	// characters matched by \s
+	static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+	}
+
+	static int trimStart(byte[] b, int from, int to) {
+		while (from < to && isTrimmed(b[from]))
+			from++;
+		return from;
+	}
+
+	static int trimEnd(byte[] b, int from, int to) {
+		while (to > from && isTrimmed(b[to - 1]))
+			to--;
+		return to;
+	}
+
+	// index of the first whitespace character at or after from (to if none)
+	static int tokenEnd(byte[] b, int from, int to) {
+		while (from < to && !isWhitespace(b[from]))
+			from++;
+		return from;
+	}
+
+	static int skipWhitespace(byte[] b, int from, int to) {
+		while (from < to && isWhitespace(b[from]))
+			from++;
+		return from;
+	}
+
+	static boolean startsWith(byte[] b, int from, int to, byte[] prefix) {
+		if (to - from < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (b[from + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Decimal int in b[from, to) with optional sign
+	 */
+	static int parseInt(byte[] b, int from, int to) throws IllegalMsgException {
+		if (from >= to)
+			throw new IllegalMsgException();
+		boolean negative = b[from] == '-';
+		if (negative || b[from] == '+') {
+			if (++from == to)
+				throw new IllegalMsgException();
+		}
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = b[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new IllegalMsgException();
+			value = value * 10 + digit;
+			if (value > (long) Integer.MAX_VALUE + 1)
+				throw new IllegalMsgException();
+		}
+		if (!negative && value > Integer.MAX_VALUE)
+			throw new IllegalMsgException();
+		return (int) (negative ? -value : value);
+	}
+
+	/*
+	 * Decimal non-negative long in b[from, to), e.g. timestamps
+	 */
+	static long parseLong(byte[] b, int from, int to) throws IllegalMsgException {
+		if (from >= to || to - from > 19)
+			throw new IllegalMsgException();
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			int digit = b[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new IllegalMsgException();
+			value = value * 10 + digit;
+		}
+		// at most 19 digits -> an overflow wraps exactly once
+		if (value < 0)
+			throw new IllegalMsgException();
+		return value;
+	}
+}
@@ -0,0 +1,49 @@
+package phy;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * JDK Flight Recorder events of the phy layer
+ * Disabled events cost a check of shouldCommit(), the event objects do not escape and are
+ * usually eliminated by the JIT. Enable with e.g. -XX:StartFlightRecording or JMC.
+ */
+final class PhyEvents {
+	private PhyEvents() {}
+
+	@Name("internetworking.phy.Send")
+	@Label("PHY Send")
+	@Category({"Internetworking", "PHY"})
+	@Description("Message handed to the transport, duration includes all fragments")
+	static final class Send extends Event {
+		@Label("Peer")
+		String peer;
+		@Label("Protocol Id")
+		String pid;
+		@Label("Size")
+		@DataAmount
+		int size;
+		@Label("Datagrams")
+		int datagrams;
+	}
+
+	@Name("internetworking.phy.Receive")
+	@Label("PHY Receive")
+	@Category({"Internetworking", "PHY"})
+	@Description("Datagram decoded, duration covers reassembly and parsing (not the wait)")
+	static final class Receive extends Event {
+		@Label("Peer")
+		String peer;
+		@Label("Protocol Id")
+		String pid;
+		@Label("Size")
+		@DataAmount
+		int size;
+		@Label("Parsed")
+		boolean parsed;
+	}
+}
@@ -0,0 +1,64 @@
+package phy;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import core.Protocol;
+
+/*
+ * Counters of one phy endpoint
+ * Striped LongAdders: recording is a few uncontended adds, no allocation, no locks.
+ */
+public class PhyMetrics implements PhyMetricsMBean {
+	private final LongAdder datagramsIn = new LongAdder();
+	private final LongAdder datagramsOut = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder parseFailures = new LongAdder();
+	// state of the endpoint the gauges read, not the endpoint itself (it is still being constructed)
+	private final Map<Protocol.proto_id, InboundQueue> inboundQueues;
+	private final PhyReassembler reassembler;
+
+	PhyMetrics(Map<Protocol.proto_id, InboundQueue> inboundQueues, PhyReassembler reassembler) {
+		this.inboundQueues = inboundQueues;
+		this.reassembler = reassembler;
+	}
+
+	void received(int length) {
+		datagramsIn.increment();
+		bytesIn.add(length);
+	}
+
+	void sent(int length) {
+		datagramsOut.increment();
+		bytesOut.add(length);
+	}
+
+	void parseFailure() {
+		parseFailures.increment();
+	}
+
+	@Override
+	public long getDatagramsIn() {return datagramsIn.sum();}
+	@Override
+	public long getDatagramsOut() {return datagramsOut.sum();}
+	@Override
+	public long getBytesIn() {return bytesIn.sum();}
+	@Override
+	public long getBytesOut() {return bytesOut.sum();}
+	@Override
+	public long getParseFailures() {return parseFailures.sum();}
+
+	@Override
+	public long getInboundQueueDrops() {
+		long drops = 0;
+		for (InboundQueue queue : inboundQueues.values())
+			drops += queue.getDrops();
+		return drops;
+	}
+
+	@Override
+	public long getFragmentsReassembled() {return reassembler.getReassembled();}
+	@Override
+	public long getFragmentsEvicted() {return reassembler.getEvicted();}
+}
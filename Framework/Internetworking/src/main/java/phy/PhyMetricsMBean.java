@@ -0,0 +1,15 @@
+package phy;
+
+/*
+ * JMX view of PhyMetrics
+ */
+public interface PhyMetricsMBean {
+	long getDatagramsIn();
+	long getDatagramsOut();
+	long getBytesIn();
+	long getBytesOut();
+	long getParseFailures();
+	long getInboundQueueDrops();
+	long getFragmentsReassembled();
+	long getFragmentsEvicted();
+}
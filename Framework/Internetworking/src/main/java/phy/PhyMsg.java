@@ -1,5 +1,8 @@
 package phy;
 
+import java.util.Arrays;
+
+import core.EventLog;
 import core.Msg;
 import core.Protocol;
 import exceptions.IllegalMsgException;
@@ -11,7 +14,18 @@ import exceptions.IllegalMsgException;
  */
 public class PhyMsg extends Msg {
 	protected static final String PHY_HEADER = "phy";
+	protected static final byte[] PHY_HEADER_BYTES = PHY_HEADER.getBytes();
+	// binary frames: high bit of the first byte set, low bits carry the format version
+	protected static final int BINARY_FLAG = 0x80;
+	protected static final byte BINARY_MARKER = (byte) (BINARY_FLAG | 1);
+	protected static final int BINARY_HEADER_LENGTH = 2;
+	// fragments of frames larger than one datagram (see PhyReassembler)
+	protected static final byte FRAGMENT_MARKER = (byte) (BINARY_FLAG | 2);
+	protected static final int FRAGMENT_HEADER_LENGTH = 9;
 	protected Protocol.proto_id pid;
+	protected boolean binary;
+	protected byte[] payload;
+	private static final EventLog.Event ILLEGAL_HEADER = EventLog.event(EventLog.Level.DEBUG, "illegal phy header: %3$s");
 
 	protected PhyMsg() {}
 	protected PhyMsg(PhyConfiguration config) {
@@ -21,23 +35,91 @@ public class PhyMsg extends Msg {
 
 	protected Protocol.proto_id getPid() {return this.pid;}
 
+	public boolean isBinary() {return this.binary;}
+
+	/*
+	 * Payload without phy header
+	 */
+	public byte[] getPayload() {
+		return this.binary ? this.payload : getData().getBytes();
+	}
+
 	/*
 	 * Prepend header for sending
 	 */
 	@Override
 	protected void create(String data) {
 		this.data = data;
-		int id;
 		PhyConfiguration conf = (PhyConfiguration) this.config;
-		id = switch (conf.getPid()) {
-			case PHY -> 1;
-			case APP -> 3;
-			case SLP -> 5;
-			case CP -> 7;
-		};
-		data = PHY_HEADER + " " + id + " " +data;
+		data = PHY_HEADER + " " + toId(conf.getPid()) + " " +data;
 		this.dataBytes = data.getBytes();
 	}
+
+	/*
+	 * Prepend binary header for sending
+	 * byte 0: format/version marker, byte 1: protocol id, rest: payload
+	 */
+	protected void createBinary(byte[] payload) {
+		PhyConfiguration conf = (PhyConfiguration) this.config;
+		this.binary = true;
+		this.payload = payload;
+		this.dataBytes = new byte[BINARY_HEADER_LENGTH + payload.length];
+		this.dataBytes[0] = BINARY_MARKER;
+		this.dataBytes[1] = (byte) toId(conf.getPid());
+		System.arraycopy(payload, 0, this.dataBytes, BINARY_HEADER_LENGTH, payload.length);
+	}
+
+	/*
+	 * Parse raw datagram bytes
+	 * Binary frames are recognized by the marker byte (text frames always start with 'p'),
+	 * so text and binary peers can talk to the same endpoint
+	 */
+	protected Msg parse(byte[] bytes, int length) throws IllegalMsgException {
+		return parse(bytes, 0, length);
+	}
+
+	/*
+	 * Parse bytes[offset, offset+length) without intermediate strings
+	 * Only the payload is copied out of the buffer, the header is read in place.
+	 * dataBytes is rebuilt on demand (see getDataBytes)
+	 */
+	protected Msg parse(byte[] bytes, int offset, int length) throws IllegalMsgException {
+		int end = offset + length;
+		if (length > 0 && (bytes[offset] & BINARY_FLAG) != 0) {
+			if (bytes[offset] != BINARY_MARKER || length < BINARY_HEADER_LENGTH) {
+				EventLog.log(ILLEGAL_HEADER, 0, 0, "binary");
+				throw new IllegalMsgException();
+			}
+			this.binary = true;
+			this.pid = toPid(bytes[offset + 1]);
+			this.payload = Arrays.copyOfRange(bytes, offset + BINARY_HEADER_LENGTH, end);
+			return this;
+		}
+
+		// same tokenization as trim() + split("\\s+", 3): header token, id token, rest
+		int from = PhyDecoder.trimStart(bytes, offset, end);
+		end = PhyDecoder.trimEnd(bytes, from, end);
+		if (!PhyDecoder.startsWith(bytes, from, end, PHY_HEADER_BYTES)) {
+			if (EventLog.isEnabled(ILLEGAL_HEADER.getLevel()))
+				EventLog.log(ILLEGAL_HEADER, 0, 0, new String(bytes, from, end - from));
+			throw new IllegalMsgException();
+		}
+		int idStart = PhyDecoder.skipWhitespace(bytes, PhyDecoder.tokenEnd(bytes, from, end), end);
+		int idEnd = PhyDecoder.tokenEnd(bytes, idStart, end);
+		int restStart = PhyDecoder.skipWhitespace(bytes, idEnd, end);
+		if (idEnd == end)
+			throw new IllegalMsgException();
+		//Check protocol id
+		pid = toPid(PhyDecoder.parseInt(bytes, idStart, idEnd));
+		// If the protocol id is "1" and a ping/pong header follows, call the PhyPingMsg parser
+		if (pid == Protocol.proto_id.PHY && PhyPingMsg.isPing(bytes, restStart, end)) {
+			PhyPingMsg pdu = new PhyPingMsg((PhyConfiguration) this.config);
+			pdu.pid = pid;
+			return pdu.parsePing(bytes, restStart, end);
+		}
+		this.data = new String(bytes, restStart, end - restStart);
+		return this;
+	}
 	
 	/*
 	 * Does the message start with the correct header
@@ -46,37 +128,57 @@ public class PhyMsg extends Msg {
 	 */
 	@Override
 	protected Msg parse(String sentence) throws IllegalMsgException {
-		this.dataBytes = sentence.getBytes();
-		if (!sentence.startsWith(PHY_HEADER)) {
-			System.out.println("Illeagal data header: " + sentence);
-			throw new IllegalMsgException();
-		}
-		String[] parts = sentence.split("\\s+", 3);
-		PhyMsg pdu;
-		// Parse the protocol id
-		int id;
-		try {
-			id = Integer.parseInt(parts[1]);
-		} catch (NumberFormatException e) {
-			throw new IllegalMsgException();
+		byte[] bytes = sentence.getBytes();
+		return parse(bytes, 0, bytes.length);
+	}
+
+	/*
+	 * Received messages only keep the payload -> the complete frame is rebuilt when it is asked for
+	 */
+	@Override
+	public byte[] getDataBytes() {
+		if (this.dataBytes == null && this.pid != null) {
+			if (this.binary) {
+				this.dataBytes = new byte[BINARY_HEADER_LENGTH + this.payload.length];
+				this.dataBytes[0] = BINARY_MARKER;
+				this.dataBytes[1] = (byte) toId(this.pid);
+				System.arraycopy(this.payload, 0, this.dataBytes, BINARY_HEADER_LENGTH, this.payload.length);
+			} else {
+				this.dataBytes = (PHY_HEADER + " " + toId(this.pid) + " " + getData()).getBytes();
+			}
 		}
-		//Check protocol id
-		switch (id) {
-			case 1 -> pid = Protocol.proto_id.PHY;
-			case 3 -> pid = Protocol.proto_id.APP;
-			case 5 -> pid = Protocol.proto_id.SLP;
-			case 7 -> pid = Protocol.proto_id.CP;
+		return this.dataBytes;
+	}
+
+	@Override
+	public int getLength() {
+		return getDataBytes().length;
+	}
+
+	@Override
+	public String getData() {
+		if (this.data == null && this.binary)
+			this.data = new String(this.payload);
+		return this.data;
+	}
+
+	protected static int toId(Protocol.proto_id pid) {
+		return switch (pid) {
+			case PHY -> 1;
+			case APP -> 3;
+			case SLP -> 5;
+			case CP -> 7;
+		};
+	}
+
+	protected static Protocol.proto_id toPid(int id) throws IllegalMsgException {
+		return switch (id) {
+			case 1 -> Protocol.proto_id.PHY;
+			case 3 -> Protocol.proto_id.APP;
+			case 5 -> Protocol.proto_id.SLP;
+			case 7 -> Protocol.proto_id.CP;
 			default -> throw new IllegalMsgException();
-		}
-		// If the second token is "1", call the PhyPingMsg parser
-		if(pid == Protocol.proto_id.PHY && parts[2].startsWith(PhyPingMsg.PHY_PING_HEADER)) {
-			pdu = new PhyPingMsg((PhyConfiguration) this.config);
-			pdu.parse(parts[2]);
-		} else {
-			this.data = parts[2];
-			pdu = this;
-		}
-		return pdu;
+		};
 	}
 	
 }
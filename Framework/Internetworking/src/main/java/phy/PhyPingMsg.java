@@ -1,20 +1,50 @@
 package phy;
 
+import core.EventLog;
 import core.Msg;
 import exceptions.IllegalMsgException;
 
+/*
+ * Ping and echo (pong) messages of the phy layer
+ * Format: "ping <seq> [<timestamp>]" / "pong <seq> <timestamp>"
+ * The timestamp is the sender's System.nanoTime() and is echoed unchanged,
+ * so the round trip time can be computed without keeping per ping state.
+ */
 public class PhyPingMsg extends PhyMsg {
 	protected static final String PHY_PING_HEADER = "ping ";
+	protected static final byte[] PHY_PING_HEADER_BYTES = PHY_PING_HEADER.getBytes();
+	protected static final String PHY_PONG_HEADER = "pong ";
+	protected static final byte[] PHY_PONG_HEADER_BYTES = PHY_PONG_HEADER.getBytes();
+	private static final EventLog.Event ILLEGAL_HEADER = EventLog.event(EventLog.Level.DEBUG, "illegal ping header: %3$s");
 	private int count;
+	private long timestamp;
+	private boolean echo;
 
 	protected PhyPingMsg(PhyConfiguration config) {
 		super(config);
 	}
 	
+	/*
+	 * Sequence number of the ping
+	 */
 	public int getCount() {
 		return count;
 	}
 
+	/*
+	 * Send time of the original ping (System.nanoTime() of the pinging system, 0 if not set)
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/*
+	 * Is this the echo of a ping
+	 */
+	public boolean isEcho() {
+		return echo;
+	}
+
 	/*
 	 * Create ping msg
 	 */
@@ -24,6 +54,17 @@ public class PhyPingMsg extends PhyMsg {
 		String sentence = PHY_PING_HEADER + data;
 		super.create(sentence);
 	}
+
+	/*
+	 * Create timestamped ping or echo msg
+	 */
+	protected void create(int count, long timestamp, boolean echo) {
+		this.count = count;
+		this.timestamp = timestamp;
+		this.echo = echo;
+		super.create((echo ? PHY_PONG_HEADER : PHY_PING_HEADER) + count + " " + timestamp);
+		this.data = null;
+	}
 	
 	/*
 	 * Does the message start with the correct header
@@ -33,19 +74,56 @@ public class PhyPingMsg extends PhyMsg {
 	 */
 	@Override
 	protected Msg parse(String sentence) throws IllegalMsgException {
-		this.dataBytes = sentence.getBytes();
-		if (!sentence.startsWith(PHY_PING_HEADER)) {
-			System.out.println("Illeagal ping header: " + sentence);
+		byte[] bytes = sentence.getBytes();
+		return parsePing(bytes, 0, bytes.length);
+	}
+
+	static boolean isPing(byte[] bytes, int from, int to) {
+		return PhyDecoder.startsWith(bytes, from, to, PHY_PING_HEADER_BYTES)
+				|| PhyDecoder.startsWith(bytes, from, to, PHY_PONG_HEADER_BYTES);
+	}
+
+	/*
+	 * Parse sequence number and optional timestamp from bytes[from, to) without intermediate strings
+	 */
+	protected Msg parsePing(byte[] bytes, int from, int to) throws IllegalMsgException {
+		if (PhyDecoder.startsWith(bytes, from, to, PHY_PONG_HEADER_BYTES)) {
+			this.echo = true;
+		} else if (!PhyDecoder.startsWith(bytes, from, to, PHY_PING_HEADER_BYTES)) {
+			if (EventLog.isEnabled(ILLEGAL_HEADER.getLevel()))
+				EventLog.log(ILLEGAL_HEADER, 0, 0, new String(bytes, from, to - from));
 			throw new IllegalMsgException();
 		}
-		this.data = sentence.substring(PHY_PING_HEADER.length());
-		try {
-			this.count = Integer.parseInt(this.data.trim());
-		} catch (NumberFormatException e) {
+		to = PhyDecoder.trimEnd(bytes, from, to);
+		int countStart = PhyDecoder.skipWhitespace(bytes, from + PHY_PING_HEADER_BYTES.length, to);
+		int countEnd = PhyDecoder.tokenEnd(bytes, countStart, to);
+		this.count = PhyDecoder.parseInt(bytes, countStart, countEnd);
+		int timestampStart = PhyDecoder.skipWhitespace(bytes, countEnd, to);
+		if (timestampStart < to)
+			this.timestamp = PhyDecoder.parseLong(bytes, timestampStart, to);
+		else if (this.echo)
+			// an echo without timestamp is useless
 			throw new IllegalMsgException();
-		}
-		
+		this.data = null;
 		return this;
 	}
 
+	/*
+	 * Received pings only keep count and timestamp -> the frame is rebuilt with the ping/pong header
+	 */
+	@Override
+	public byte[] getDataBytes() {
+		if (this.dataBytes == null && this.pid != null)
+			this.dataBytes = (PHY_HEADER + " " + toId(this.pid) + " " + (this.echo ? PHY_PONG_HEADER : PHY_PING_HEADER)
+					+ getData()).getBytes();
+		return this.dataBytes;
+	}
+
+	@Override
+	public String getData() {
+		if (this.data == null)
+			this.data = this.timestamp == 0 ? Integer.toString(this.count) : this.count + " " + this.timestamp;
+		return this.data;
+	}
+
 }
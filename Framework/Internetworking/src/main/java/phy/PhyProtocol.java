@@ -3,13 +3,47 @@ package phy;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import core.*;
 import exceptions.*;
 
 public class PhyProtocol extends Protocol {
 	protected DatagramSocket socket;
+	protected WireFormat wireFormat = WireFormat.TEXT;
+	// last value passed to setSoTimeout -> the option is only changed when a caller asks for a different timeout
+	private int soTimeout;
+	protected static final int MAX_DATAGRAM_SIZE = 1024;
+	private final byte[] receiveData = new byte[MAX_DATAGRAM_SIZE];
+	private final DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
+	// demultiplexing of received messages by protocol id
+	protected static final int INBOUND_QUEUE_SIZE = 64;
+	protected final Map<Protocol.proto_id, InboundQueue> inboundQueues = new EnumMap<>(Protocol.proto_id.class);
+	protected final Map<Protocol.proto_id, Consumer<Msg>> handlers = new ConcurrentHashMap<>();
+	protected volatile Protocol.proto_id boundPid;
+	// frames larger than one datagram are sent as fragments and reassembled on receipt
+	protected final PhyReassembler reassembler = new PhyReassembler();
+	private final AtomicInteger fragmentedMessageId = new AtomicInteger();
+	protected final PhyMetrics metrics = new PhyMetrics(inboundQueues, reassembler);
+	private static final EventLog.Event PARSE_FAILED = EventLog.event(EventLog.Level.WARN, "unparsable datagram from port %d (%d bytes)");
+	{
+		// filled once, read-only afterwards
+		for (Protocol.proto_id pid : Protocol.proto_id.values())
+			inboundQueues.put(pid, new InboundQueue(INBOUND_QUEUE_SIZE));
+	}
+
+	/*
+	 * Constructor for transports that do not use a DatagramSocket
+	 */
+	protected PhyProtocol() {}
 	
 	/*
 	 * Create a new PhyProtocol instance connected to UDP port provided
@@ -30,16 +64,56 @@ public class PhyProtocol extends Protocol {
 		// Create empty PhyMsg object
 		PhyMsg m = new PhyMsg((PhyConfiguration) config);
 		//Populate PhyMsg object with data
-		m.create(s);
+		if (this.wireFormat == WireFormat.BINARY)
+			m.createBinary(s.getBytes());
+		else
+			m.create(s);
 		// Call actual send method
 		this.send(m);
 	}
+
+	/*
+	 * Send a binary payload -> always uses the binary phy framing
+	 */
+	public void send(byte[] payload, Configuration config) throws IOException {
+		PhyMsg m = new PhyMsg((PhyConfiguration) config);
+		m.createBinary(payload);
+		this.send(m);
+	}
 	
 	public void send(PhyMsg m) throws IOException {
+		PhyConfiguration config = (PhyConfiguration) m.getConfiguration();
+		PhyEvents.Send event = new PhyEvents.Send();
+		event.begin();
+		int datagrams = 1;
+		if (m.getLength() <= MAX_DATAGRAM_SIZE) {
+			sendRaw(m.getDataBytes(), m.getLength(), config);
+			metrics.sent(m.getLength());
+		} else {
+			// too large for the receive buffer -> send as fragments
+			byte[][] fragments = PhyReassembler.fragment(m.getDataBytes(), m.getLength(),
+					fragmentedMessageId.incrementAndGet(), MAX_DATAGRAM_SIZE);
+			for (byte[] f : fragments) {
+				sendRaw(f, f.length, config);
+				metrics.sent(f.length);
+			}
+			datagrams = fragments.length;
+		}
+		if (event.shouldCommit()) {
+			event.peer = config.getSocketAddress().toString();
+			event.pid = String.valueOf(config.getPid());
+			event.size = m.getLength();
+			event.datagrams = datagrams;
+			event.commit();
+		}
+	}
+
+	/*
+	 * transport specific send of one datagram
+	 */
+	protected void sendRaw(byte[] data, int length, PhyConfiguration config) throws IOException {
 		// Create UDP packet
-		DatagramPacket sendPacket = new DatagramPacket(m.getDataBytes(), m.getLength(),
-				((PhyConfiguration) m.getConfiguration()).remoteIPAddress,
-				((PhyConfiguration) m.getConfiguration()).remotePort);
+		DatagramPacket sendPacket = new DatagramPacket(data, length, config.remoteIPAddress, config.remotePort);
 		// send UDP packet
 		socket.send(sendPacket);
 	}
@@ -47,56 +121,209 @@ public class PhyProtocol extends Protocol {
 	/*
 	 * receive incoming message from socket and parse -> call blocks on socket until message is received
 	 * return Msg object to caller
+	 * If an upper layer is bound, only messages of its protocol id are returned
 	 */
 	@Override
 	public Msg receive() throws IOException {
-		// read from UDP socket
-		// data and meta-data contained in receivedPacket object
-		byte[] receiveData = new byte[1024];
-		DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-		socket.receive(receivePacket);
+		return receive(0);
+	}
+
+	/*
+	 * wrapper method to basic receive method -> call blocks on socket until message is received or 
+	 * timeout expires and exception is raised
+	 */
+	public Msg receive(int timeout) throws IOException {
+		Protocol.proto_id pid = this.boundPid;
+		if (pid == null)
+			return receiveRaw(timeout);
+		return receive(pid, timeout);
+	}
+
+	/*
+	 * receive the next message for one protocol id (timeout in ms, 0 = wait forever)
+	 * Messages for other ids that are read meanwhile go to their handler or inbound queue, nothing is dropped
+	 * unless a queue is full
+	 */
+	public Msg receive(Protocol.proto_id pid, int timeout) throws IOException {
+		InboundQueue queue = inboundQueues.get(pid);
+		long deadline = System.currentTimeMillis() + timeout;
+		while (true) {
+			Msg in = queue.poll();
+			if (in != null)
+				return in;
+			int remaining = timeout;
+			if (timeout > 0) {
+				remaining = (int) (deadline - System.currentTimeMillis());
+				if (remaining <= 0)
+					throw new SocketTimeoutException("Receive timed out");
+			}
+			in = receiveRaw(remaining);
+			if (pidOf(in) == pid && !handlers.containsKey(pid))
+				return in;
+			dispatch(in);
+		}
+	}
+
+	/*
+	 * Upper layer that owns this instance -> receive() and receive(int) only return its traffic
+	 */
+	public void bind(Protocol.proto_id pid) {
+		this.boundPid = pid;
+	}
+
+	/*
+	 * Deliver all messages of a protocol id to the handler (on the receiving thread) instead of a queue
+	 */
+	public void registerHandler(Protocol.proto_id pid, Consumer<Msg> handler) {
+		this.handlers.put(pid, handler);
+	}
+
+	public void unregisterHandler(Protocol.proto_id pid) {
+		this.handlers.remove(pid);
+	}
+
+	public InboundQueue getInboundQueue(Protocol.proto_id pid) {
+		return this.inboundQueues.get(pid);
+	}
+
+	/*
+	 * hand a message to the handler or queue of its protocol id
+	 * messages that could not be parsed carry no protocol id and are discarded
+	 */
+	protected void dispatch(Msg in) {
+		Protocol.proto_id pid = pidOf(in);
+		if (pid == null)
+			return;
+		Consumer<Msg> handler = handlers.get(pid);
+		if (handler != null)
+			handler.accept(in);
+		else
+			inboundQueues.get(pid).offer(in);
+	}
+
+	private static Protocol.proto_id pidOf(Msg in) {
+		return ((PhyConfiguration) in.getConfiguration()).getPid();
+	}
+
+	/*
+	 * transport specific receive without demultiplexing (timeout in ms, 0 = wait forever)
+	 */
+	protected Msg receiveRaw(int timeout) throws IOException {
+		applyTimeout(timeout);
+		return receivePacket();
+	}
+
+	private synchronized Msg receivePacket() throws IOException {
+		Msg in;
+		do {
+			// read from UDP socket
+			// data and meta-data contained in receivedPacket object
+			// the parser copies the payload out, so buffer and packet are reused
+			receivePacket.setLength(receiveData.length);
+			socket.receive(receivePacket);
+			// null while a fragmented message is incomplete
+			in = decode(receivePacket.getData(), receivePacket.getLength(), receivePacket.getAddress(), receivePacket.getPort());
+		} while (in == null);
+		return in;
+	}
 
+	/*
+	 * parse received datagram bytes and attach a config object built from the sender's address
+	 * shared by all transports
+	 */
+	protected Msg decode(byte[] data, int length, InetAddress address, int port) throws UnknownHostException {
+		metrics.received(length);
+		PhyEvents.Receive event = new PhyEvents.Receive();
+		event.begin();
+		if (length > 0 && data[0] == PhyMsg.FRAGMENT_MARKER) {
+			data = reassembler.accept(address, port, data, length);
+			if (data == null)
+				return null;
+			length = data.length;
+		}
 		// create msg object for parsing
 		PhyMsg in = new PhyMsg();
-		// get data from packet data
-		String sentence = new String(receivePacket.getData()).trim();
+		boolean parsed = true;
 		try {
 			// parse data to check if message is compliant with protocol specification
-			in = (PhyMsg) in.parse(sentence);
+			in = (PhyMsg) in.parse(data, length);
 		} catch (IllegalMsgException e) {
-			e.printStackTrace();
+			parsed = false;
+			metrics.parseFailure();
+			EventLog.log(PARSE_FAILED, port, length);
 		}
 		// create a config object from packet meta-data
-		PhyConfiguration config = new PhyConfiguration(receivePacket.getAddress(), receivePacket.getPort(), in.getPid());
+		PhyConfiguration config = new PhyConfiguration(address, port, in.getPid());
 		in.setConfiguration(config);
+		if (event.shouldCommit()) {
+			event.peer = address.getHostAddress() + ":" + port;
+			event.pid = String.valueOf(in.getPid());
+			event.size = length;
+			event.parsed = parsed;
+			event.commit();
+		}
 
 		// if message was parsed correctly object is returned to caller  
 		return in;
 	}
 	
+	private void applyTimeout(int timeout) throws SocketException {
+		if (this.soTimeout != timeout) {
+			socket.setSoTimeout(timeout);
+			this.soTimeout = timeout;
+		}
+	}
+	
 	/*
-	 * wrapper method to basic receive method -> call blocks on socket until message is received or 
-	 * timeout expires and exception is raised
+	 * Traffic counters, see core.Metrics for JMX registration
 	 */
-	public Msg receive(int timeout) throws IOException {
-		socket.setSoTimeout(timeout);
-		Msg in;
-		in = receive();
+	public PhyMetrics getMetrics() {
+		return this.metrics;
+	}
 
-		socket.setSoTimeout(0);
-		return in;
+	public PhyReassembler getReassembler() {
+		return this.reassembler;
 	}
-	
+
+	public WireFormat getWireFormat() {
+		return this.wireFormat;
+	}
+
+	public void setWireFormat(WireFormat format) {
+		if (format == WireFormat.BINARY && !supportsBinary())
+			throw new IllegalArgumentException("Transport carries text frames only");
+		this.wireFormat = format;
+	}
+
+	/*
+	 * false for transports that cannot carry binary payloads (send(byte[], ...))
+	 */
+	public boolean supportsBinary() {
+		return true;
+	}
+
 	// Send three ping messages to another system
 	public void ping(Configuration config) throws IOException, IWProtocolException {
 		for(int i=0; i<3;i++) {
-			// Create empty PhyPingMsg object
-			PhyPingMsg m = new PhyPingMsg((PhyConfiguration) config);
-			//Populate PhyPingMsg object with data
-			m.create(Integer.toString(i));
-			// Call actual send method
-			this.send(m);
+			ping(config, i);
 		}
 	}
+
+	// Send one ping carrying its sequence number and send time, the receiver answers with pong()
+	public void ping(Configuration config, int seq) throws IOException {
+		// Create empty PhyPingMsg object
+		PhyPingMsg m = new PhyPingMsg((PhyConfiguration) config);
+		//Populate PhyPingMsg object with data
+		m.create(seq, System.nanoTime(), false);
+		// Call actual send method
+		this.send(m);
+	}
+
+	// Echo a received ping to its sender, sequence number and timestamp are copied
+	public void pong(PhyPingMsg ping) throws IOException {
+		PhyPingMsg m = new PhyPingMsg((PhyConfiguration) ping.getConfiguration());
+		m.create(ping.getCount(), ping.getTimestamp(), true);
+		this.send(m);
+	}
 	
 }
@@ -0,0 +1,269 @@
+package phy;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import core.EventLog;
+import core.Msg;
+
+/*
+ * Single-threaded event loop for NIO phy endpoints
+ * One selector multiplexes any number of NioPhyProtocol channels (LoopbackPhyProtocol endpoints
+ * wake it through the task queue instead), and timeouts
+ * (retries, ping timeouts, ...) are scheduled as deadlines instead of socket options.
+ * Handlers and deadline tasks always run on the reactor thread, so they must not block.
+ * register, schedule and execute may be called from any thread.
+ * A registered endpoint must not be read with receive() at the same time.
+ */
+public class PhyReactor implements Runnable {
+	private final Selector selector;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+	private volatile boolean running;
+	private Thread thread;
+	private long sequence;
+	private static final EventLog.Event LOOP_FAILED = EventLog.event(EventLog.Level.ERROR, "reactor select failed: %3$s");
+	private static final EventLog.Event HANDLER_FAILED = EventLog.event(EventLog.Level.ERROR, "reactor task failed: %3$s");
+	private static final EventLog.Event READ_FAILED = EventLog.event(EventLog.Level.ERROR, "reactor read failed: %3$s");
+	private static final EventLog.Event REGISTER_FAILED = EventLog.event(EventLog.Level.ERROR, "reactor register failed: %3$s");
+
+	/*
+	 * Scheduled task -> can be cancelled until it fires
+	 * A cancelled deadline leaves the heap right away, so retransmission timers that are cancelled
+	 * by their answer do not pile up until they would have been due.
+	 */
+	public static class Deadline implements Comparable<Deadline> {
+		private final PhyReactor reactor;
+		private final long when;
+		private final long seq;
+		private final Runnable task;
+		private volatile boolean cancelled;
+
+		private Deadline(PhyReactor reactor, long when, long seq, Runnable task) {
+			this.reactor = reactor;
+			this.when = when;
+			this.seq = seq;
+			this.task = task;
+		}
+
+		public void cancel() {
+			this.cancelled = true;
+			synchronized (this.reactor.deadlines) {
+				this.reactor.deadlines.remove(this);
+			}
+		}
+
+		public boolean isCancelled() {return this.cancelled;}
+
+		@Override
+		public int compareTo(Deadline o) {
+			if (this.when != o.when)
+				return Long.compare(this.when, o.when);
+			return Long.compare(this.seq, o.seq);
+		}
+	}
+
+	public PhyReactor() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/*
+	 * Start the event loop on a new thread
+	 */
+	public synchronized void start() {
+		if (this.thread != null)
+			return;
+		this.running = true;
+		this.thread = new Thread(this, "phy-reactor");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	public void stop() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	public boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	/*
+	 * Run a task on the reactor thread
+	 */
+	public void execute(Runnable task) {
+		this.tasks.add(task);
+		if (!inEventLoop())
+			this.selector.wakeup();
+	}
+
+	/*
+	 * Read the endpoint on the reactor thread and demultiplex what arrives like a blocking receive would:
+	 * messages go to the handler registered for their protocol id (PhyProtocol.registerHandler)
+	 * or to the inbound queue of that id
+	 * Registering does not wait for a running select(), failures (closed channel) reach the caller.
+	 */
+	public void register(NioPhyProtocol phy) throws IOException {
+		try {
+			phy.getChannel().register(this.selector, SelectionKey.OP_READ, phy);
+		} catch (IOException e) {
+			EventLog.log(REGISTER_FAILED, 0, 0, e);
+			throw e;
+		}
+		if (!inEventLoop())
+			this.selector.wakeup();
+	}
+
+	/*
+	 * Same for an endpoint on a LoopbackNetwork, which has no channel to select on:
+	 * the network wakes the reactor whenever it queues a datagram for the endpoint
+	 */
+	public void register(LoopbackPhyProtocol phy) {
+		phy.setReadable(() -> execute(() -> drain(phy)));
+		// datagrams that arrived before the registration
+		execute(() -> drain(phy));
+	}
+
+	public void unregister(LoopbackPhyProtocol phy) {
+		phy.setReadable(null);
+	}
+
+	public void unregister(NioPhyProtocol phy) {
+		execute(() -> {
+			SelectionKey key = phy.getChannel().keyFor(this.selector);
+			if (key != null)
+				key.cancel();
+		});
+	}
+
+	/*
+	 * Run the task once the delay (ms) has passed
+	 */
+	public Deadline schedule(long delay, Runnable task) {
+		long when = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+		Deadline d;
+		synchronized (this.deadlines) {
+			d = new Deadline(this, when, this.sequence++, task);
+			this.deadlines.add(d);
+		}
+		if (!inEventLoop())
+			this.selector.wakeup();
+		return d;
+	}
+
+	public int getPendingDeadlines() {
+		synchronized (this.deadlines) {
+			return this.deadlines.size();
+		}
+	}
+
+	@Override
+	public void run() {
+		if (this.thread == null)
+			this.thread = Thread.currentThread();
+		this.running = true;
+		while (this.running) {
+			try {
+				runTasks();
+				long timeout = nextTimeout();
+				if (!this.tasks.isEmpty() || timeout < 0)
+					this.selector.selectNow();
+				else
+					this.selector.select(timeout);
+			} catch (IOException e) {
+				EventLog.log(LOOP_FAILED, 0, 0, e);
+			}
+			// one endpoint failing must not hold up the others or the deadlines
+			for (SelectionKey key : this.selector.selectedKeys()) {
+				try {
+					if (key.isValid() && key.isReadable())
+						drain(key);
+				} catch (IOException e) {
+					EventLog.log(READ_FAILED, 0, 0, e);
+				}
+			}
+			this.selector.selectedKeys().clear();
+			fireDeadlines();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			runSafely(task);
+		}
+	}
+
+	/*
+	 * ms until the next deadline: 0 = no deadline (wait for I/O), -1 = already due
+	 */
+	private long nextTimeout() {
+		synchronized (this.deadlines) {
+			Deadline next = this.deadlines.peek();
+			if (next == null)
+				return 0;
+			long nanos = next.when - System.nanoTime();
+			if (nanos <= 0)
+				return -1;
+			return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+		}
+	}
+
+	private void fireDeadlines() {
+		long now = System.nanoTime();
+		while (true) {
+			Deadline d;
+			synchronized (this.deadlines) {
+				d = this.deadlines.peek();
+				if (d == null || d.when - now > 0)
+					return;
+				this.deadlines.poll();
+			}
+			if (!d.cancelled)
+				runSafely(d.task);
+		}
+	}
+
+	// read everything that is queued on the channel
+	private void drain(SelectionKey key) throws IOException {
+		NioPhyProtocol phy = (NioPhyProtocol) key.attachment();
+		if (!phy.getChannel().isOpen()) {
+			key.cancel();
+			return;
+		}
+		Msg in;
+		while ((in = phy.poll()) != null)
+			dispatch(phy, in);
+	}
+
+	private void drain(LoopbackPhyProtocol phy) {
+		try {
+			Msg in;
+			while ((in = phy.poll()) != null)
+				dispatch(phy, in);
+		} catch (IOException e) {
+			EventLog.log(READ_FAILED, 0, 0, e);
+		}
+	}
+
+	private static void dispatch(PhyProtocol phy, Msg in) {
+		try {
+			phy.dispatch(in);
+		} catch (RuntimeException e) {
+			EventLog.log(HANDLER_FAILED, 0, 0, e);
+		}
+	}
+
+	private static void runSafely(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			EventLog.log(HANDLER_FAILED, 0, 0, e);
+		}
+	}
+}
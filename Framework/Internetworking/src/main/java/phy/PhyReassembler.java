@@ -0,0 +1,177 @@
+package phy;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.nio.ByteBuffer;
+
+/*
+ * Collects the fragments of phy frames that were too large for one datagram
+ *
+ * Fragment layout: marker (1) | message id (4) | index (2) | count (2) | chunk
+ * The chunks concatenated give the original (text or binary) frame.
+ *
+ * Buffered bytes are limited by a memory budget; when it is exceeded the oldest incomplete
+ * messages are evicted. Incomplete messages older than the timeout are evicted as well.
+ * The budget covers the bookkeeping of a message too (entry plus one chunk reference per announced
+ * fragment), charged before the entry is allocated: the fragment count comes from the wire, so a
+ * flood of tiny fragments announcing many chunks under fresh message ids cannot pin more than the budget.
+ */
+public class PhyReassembler {
+	public static final int DEFAULT_BUDGET = 256 * 1024;
+	public static final int DEFAULT_TIMEOUT = 5000;
+	// rough heap cost of an entry (key, entry, map node) and of one chunk reference
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int REFERENCE_SIZE = 8;
+	// insertion order = age order, the oldest entry is always first
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+	private final int budget;
+	private final long timeoutNanos;
+	private int bufferedBytes;
+	private long reassembled;
+	private long evicted;
+
+	private record Key(InetAddress address, int port, int messageId) {}
+
+	private static class Entry {
+		final byte[][] chunks;
+		final long created;
+		int received;
+		int length;
+		// bytes charged to the budget: overhead plus chunks
+		int charged;
+
+		Entry(int count, long created) {
+			this.chunks = new byte[count][];
+			this.created = created;
+			this.charged = overhead(count);
+		}
+	}
+
+	private static int overhead(int count) {
+		return ENTRY_OVERHEAD + count * REFERENCE_SIZE;
+	}
+
+	public PhyReassembler() {
+		this(DEFAULT_BUDGET, DEFAULT_TIMEOUT);
+	}
+
+	public PhyReassembler(int budget, int timeout) {
+		this.budget = budget;
+		this.timeoutNanos = timeout * 1_000_000L;
+	}
+
+	/*
+	 * Split a frame into fragments that fit into datagrams of maxDatagram bytes
+	 */
+	public static byte[][] fragment(byte[] frame, int length, int messageId, int maxDatagram) {
+		int chunkSize = maxDatagram - PhyMsg.FRAGMENT_HEADER_LENGTH;
+		int count = (length + chunkSize - 1) / chunkSize;
+		if (count > 0xffff)
+			throw new IllegalArgumentException("Message too large");
+		byte[][] fragments = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			int offset = i * chunkSize;
+			int size = Math.min(chunkSize, length - offset);
+			ByteBuffer buf = ByteBuffer.allocate(PhyMsg.FRAGMENT_HEADER_LENGTH + size);
+			buf.put(PhyMsg.FRAGMENT_MARKER).putInt(messageId).putShort((short) i).putShort((short) count);
+			buf.put(frame, offset, size);
+			fragments[i] = buf.array();
+		}
+		return fragments;
+	}
+
+	/*
+	 * Add a received fragment -> returns the complete frame once all fragments are there, null otherwise
+	 */
+	public synchronized byte[] accept(InetAddress address, int port, byte[] data, int length) {
+		long now = System.nanoTime();
+		evictExpired(now);
+		if (length < PhyMsg.FRAGMENT_HEADER_LENGTH)
+			return null;
+		ByteBuffer buf = ByteBuffer.wrap(data, 1, PhyMsg.FRAGMENT_HEADER_LENGTH - 1);
+		int messageId = buf.getInt();
+		int index = Short.toUnsignedInt(buf.getShort());
+		int count = Short.toUnsignedInt(buf.getShort());
+		int size = length - PhyMsg.FRAGMENT_HEADER_LENGTH;
+		// every chunk carries at least one byte, so the message could never fit if this does not
+		if (size == 0 || index >= count || overhead(count) + count > budget || size > budget)
+			return null;
+
+		Key key = new Key(address, port, messageId);
+		Entry entry = entries.get(key);
+		int charge = size;
+		if (entry == null)
+			charge += overhead(count);
+		else if (entry.chunks.length != count || entry.chunks[index] != null)
+			return null;
+		// make room within the budget by dropping the oldest other incomplete messages
+		while (bufferedBytes + charge > budget) {
+			if (!evictOldestExcept(entry)) {
+				// the message alone exceeds the budget
+				if (entry != null) {
+					entries.remove(key);
+					bufferedBytes -= entry.charged;
+					evicted++;
+				}
+				return null;
+			}
+		}
+		if (entry == null) {
+			entry = new Entry(count, now);
+			entries.put(key, entry);
+		}
+
+		byte[] chunk = new byte[size];
+		System.arraycopy(data, PhyMsg.FRAGMENT_HEADER_LENGTH, chunk, 0, size);
+		entry.chunks[index] = chunk;
+		entry.received++;
+		entry.length += size;
+		entry.charged += size;
+		bufferedBytes += charge;
+		if (entry.received < count)
+			return null;
+
+		entries.remove(key);
+		bufferedBytes -= entry.charged;
+		reassembled++;
+		byte[] frame = new byte[entry.length];
+		int offset = 0;
+		for (byte[] c : entry.chunks) {
+			System.arraycopy(c, 0, frame, offset, c.length);
+			offset += c.length;
+		}
+		return frame;
+	}
+
+	private boolean evictOldestExcept(Entry keep) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (e != keep) {
+				it.remove();
+				bufferedBytes -= e.charged;
+				evicted++;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void evictExpired(long now) {
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next();
+			if (now - e.created < timeoutNanos)
+				return;
+			it.remove();
+			bufferedBytes -= e.charged;
+			evicted++;
+		}
+	}
+
+	public synchronized int getPending() {return entries.size();}
+	public synchronized int getBufferedBytes() {return bufferedBytes;}
+	public synchronized long getReassembled() {return reassembled;}
+	public synchronized long getEvicted() {return evicted;}
+}
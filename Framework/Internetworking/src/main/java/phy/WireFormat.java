@@ -0,0 +1,11 @@
+package phy;
+
+/*
+ * Framing used when sending
+ * TEXT:   "phy <id> <payload>"
+ * BINARY: one byte format/version marker, one byte protocol id, payload
+ * Receivers always accept both formats.
+ */
+public enum WireFormat {
+	TEXT, BINARY
+}
@@ -0,0 +1,108 @@
+package slp;
+
+import core.Configuration;
+import core.Msg;
+import exceptions.IllegalMsgException;
+
+/*
+ * Messages of the sliding window protocol
+ *   slp data <epoch> <seq> <base> [<payload>]
+ *   slp ack <epoch> <cumulative> [<selective> ...]
+ * epoch:      random session number of the sender, chosen when it starts; an ack carries the epoch
+ *             of the data it acknowledges -> sequence numbers of a restarted peer are not mistaken
+ *             for duplicates of its previous run
+ * cumulative: next sequence number expected in order (everything below has been received)
+ * selective:  sequence numbers above it that have been received and buffered
+ * base:       sender's lowest unacknowledged sequence number -> lets the receiver skip
+ *             messages the sender has given up on
+ * The phy layer trims trailing white space, so an empty payload arrives without its separator.
+ */
+public class SLPMsg extends Msg {
+	protected static final String SLP_HEADER = "slp";
+	protected static final String DATA_HEADER = "data";
+	protected static final String ACK_HEADER = "ack";
+	private boolean ack;
+	private int epoch;
+	private int seq;
+	private int base;
+	private int[] selectiveAcks = new int[0];
+
+	protected SLPMsg() {}
+
+	protected SLPMsg(Configuration config) {
+		this.config = config;
+	}
+
+	public boolean isAck() {return ack;}
+	public int getEpoch() {return epoch;}
+	public int getSeq() {return seq;}
+	public int getBase() {return base;}
+	public int[] getSelectiveAcks() {return selectiveAcks;}
+
+	/*
+	 * Create data message -> data is the payload
+	 */
+	protected void createData(int epoch, int seq, int base, String data) {
+		this.epoch = epoch;
+		this.seq = seq;
+		this.base = base;
+		create(data);
+	}
+
+	/*
+	 * Create ack message
+	 */
+	protected void createAck(int epoch, int cumulative, int[] selectiveAcks) {
+		this.ack = true;
+		this.epoch = epoch;
+		this.seq = cumulative;
+		this.selectiveAcks = selectiveAcks;
+		create(null);
+	}
+
+	@Override
+	protected void create(String data) {
+		this.data = data;
+		StringBuilder sb = new StringBuilder(SLP_HEADER).append(' ');
+		if (this.ack) {
+			sb.append(ACK_HEADER).append(' ').append(this.epoch).append(' ').append(this.seq);
+			for (int s : this.selectiveAcks)
+				sb.append(' ').append(s);
+		} else {
+			sb.append(DATA_HEADER).append(' ').append(this.epoch).append(' ').append(this.seq)
+					.append(' ').append(this.base).append(' ').append(data);
+		}
+		this.dataBytes = sb.toString().getBytes();
+	}
+
+	@Override
+	protected Msg parse(String sentence) throws IllegalMsgException {
+		this.dataBytes = sentence.getBytes();
+		String[] parts = sentence.split("\\s+", 5);
+		if (parts.length < 4 || !parts[0].equals(SLP_HEADER))
+			throw new IllegalMsgException();
+		try {
+			this.epoch = Integer.parseInt(parts[2]);
+			this.seq = Integer.parseInt(parts[3]);
+			if (parts[1].equals(DATA_HEADER)) {
+				if (parts.length < 5)
+					throw new IllegalMsgException();
+				String[] rest = parts[4].split("\\s", 2);
+				this.base = Integer.parseInt(rest[0]);
+				// no separator after the base -> empty payload
+				this.data = rest.length == 2 ? rest[1] : "";
+			} else if (parts[1].equals(ACK_HEADER)) {
+				this.ack = true;
+				String[] sacks = parts.length == 5 ? parts[4].split("\\s+") : new String[0];
+				this.selectiveAcks = new int[sacks.length];
+				for (int i = 0; i < sacks.length; i++)
+					this.selectiveAcks[i] = Integer.parseInt(sacks[i]);
+			} else {
+				throw new IllegalMsgException();
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalMsgException();
+		}
+		return this;
+	}
+}
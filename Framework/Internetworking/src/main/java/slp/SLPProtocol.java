@@ -0,0 +1,324 @@
+package slp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import core.*;
+import exceptions.*;
+import phy.PhyConfiguration;
+import phy.PhyProtocol;
+
+/*
+ * Selective repeat sliding window protocol on top of the phy layer (protocol id SLP)
+ *
+ * Every peer has its own window: up to <window> data messages may be unacknowledged.
+ * The receiver buffers out-of-order messages within the window, delivers in order and
+ * answers every data message with a cumulative plus selective ack. Unacknowledged
+ * messages are retransmitted individually when their timeout expires.
+ * A background thread reads from the phy layer and drives the retransmissions.
+ * Every instance numbers its messages in a new random epoch: a receiver that sees another epoch
+ * from the same peer starts a new session at the sender's base (the peer restarted, or this side
+ * did and lost its state), acks of an earlier epoch are ignored.
+ */
+public class SLPProtocol extends Protocol implements Runnable {
+	public static final int DEFAULT_WINDOW = 32;
+	public static final int DEFAULT_RTO = 500;
+	protected static final int MAX_RETRIES = 10;
+	// pump granularity: how often retransmission timers are checked
+	private static final int TICK = 20;
+	private static final EventLog.Event RECEIVE_FAILED = EventLog.event(EventLog.Level.WARN, "slp receive failed: %3$s");
+	private static final EventLog.Event RETRANSMIT_FAILED = EventLog.event(EventLog.Level.WARN, "slp retransmission of %d failed: %3$s");
+	private final PhyProtocol phy;
+	private final int window;
+	private final int rto;
+	private final int epoch = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+	private final Map<PhyConfiguration, Peer> peers = new ConcurrentHashMap<>();
+	private final BlockingQueue<SLPMsg> delivered = new LinkedBlockingQueue<>();
+	private final LongAdder retransmissions = new LongAdder();
+	private final LongAdder duplicates = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder resets = new LongAdder();
+	private volatile boolean running = true;
+	// started by open() once the instance is complete
+	private Thread pump;
+
+	private static class Outstanding {
+		final String data;
+		long sentAt;
+		int retries;
+
+		Outstanding(String data, long sentAt) {
+			this.data = data;
+			this.sentAt = sentAt;
+		}
+	}
+
+	private static class Peer {
+		final PhyConfiguration config;
+		// sender side: seq -> unacknowledged message
+		final TreeMap<Integer, Outstanding> unacked = new TreeMap<>();
+		int nextSeq;
+		// receiver side: out-of-order messages waiting for the gap to close
+		final TreeMap<Integer, String> buffered = new TreeMap<>();
+		int expected;
+		// epoch of the peer's messages (0 = none received yet) and the one before, whose stragglers are dropped
+		int remoteEpoch;
+		int retiredEpoch;
+
+		Peer(PhyConfiguration config) {
+			this.config = config;
+		}
+
+		// lowest sequence number not yet acknowledged
+		int base() {
+			return unacked.isEmpty() ? nextSeq : unacked.firstKey();
+		}
+	}
+
+	private SLPProtocol(PhyProtocol phy, int window, int rto) {
+		this.phy = phy;
+		this.window = window;
+		this.rto = rto;
+	}
+
+	public static SLPProtocol open(PhyProtocol phy) {
+		return open(phy, DEFAULT_WINDOW, DEFAULT_RTO);
+	}
+
+	/*
+	 * Create an instance and start its pump thread
+	 * window: max. unacknowledged messages per peer, rto: retransmission timeout in ms
+	 * The pump runs this instance, so it is started after construction instead of in the constructor.
+	 */
+	public static SLPProtocol open(PhyProtocol phy, int window, int rto) {
+		SLPProtocol slp = new SLPProtocol(phy, window, rto);
+		slp.pump = new Thread(slp, "slp-pump");
+		slp.pump.setDaemon(true);
+		slp.pump.start();
+		return slp;
+	}
+
+	/*
+	 * Send reliably to the peer in config -> blocks while the peer's window is full
+	 */
+	@Override
+	public void send(String s, Configuration config) throws IOException, IWProtocolException {
+		PhyConfiguration pc = (PhyConfiguration) config;
+		Peer peer = peer(pc.getRemoteIPAddress(), pc.getRemotePort());
+		int seq;
+		int base;
+		synchronized (peer) {
+			while (peer.nextSeq - peer.base() >= window) {
+				try {
+					peer.wait();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			}
+			seq = peer.nextSeq++;
+			peer.unacked.put(seq, new Outstanding(s, System.nanoTime()));
+			base = peer.base();
+		}
+		transmit(peer, seq, base, s);
+	}
+
+	/*
+	 * Next message delivered in order (from any peer); the configuration identifies the sender
+	 */
+	@Override
+	public Msg receive() throws IOException {
+		try {
+			return delivered.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/*
+	 * as receive(), timeout in ms (0 = wait forever)
+	 */
+	public Msg receive(int timeout) throws IOException {
+		if (timeout == 0)
+			return receive();
+		try {
+			SLPMsg m = delivered.poll(timeout, TimeUnit.MILLISECONDS);
+			if (m == null)
+				throw new SocketTimeoutException("Receive timed out");
+			return m;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	public void close() {
+		this.running = false;
+		this.pump.interrupt();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				handle(phy.receive(proto_id.SLP, TICK));
+			} catch (SocketTimeoutException e) {
+				// nothing received -> only check the timers
+			} catch (IOException e) {
+				if (running)
+					EventLog.log(RECEIVE_FAILED, 0, 0, e);
+			}
+			retransmitExpired();
+		}
+	}
+
+	private Peer peer(InetAddress address, int port) throws IOException {
+		PhyConfiguration key = new PhyConfiguration(address, port, proto_id.SLP);
+		return peers.computeIfAbsent(key, Peer::new);
+	}
+
+	private void transmit(Peer peer, int seq, int base, String data) throws IOException {
+		SLPMsg m = new SLPMsg(peer.config);
+		m.createData(this.epoch, seq, base, data);
+		sendMsg(m, peer.config);
+	}
+
+	private void sendMsg(SLPMsg m, PhyConfiguration config) throws IOException {
+		try {
+			phy.send(new String(m.getDataBytes()), config);
+		} catch (IWProtocolException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private void handle(Msg in) throws IOException {
+		PhyConfiguration pc = (PhyConfiguration) in.getConfiguration();
+		SLPMsg m = new SLPMsg();
+		try {
+			m.parse(in.getData());
+		} catch (IllegalMsgException e) {
+			return;
+		}
+		Peer peer = peer(pc.getRemoteIPAddress(), pc.getRemotePort());
+		if (m.isAck())
+			handleAck(peer, m);
+		else
+			handleData(peer, m);
+	}
+
+	private void handleAck(Peer peer, SLPMsg m) {
+		// acknowledges what an earlier run of this instance's address sent
+		if (m.getEpoch() != this.epoch)
+			return;
+		synchronized (peer) {
+			peer.unacked.headMap(m.getSeq()).clear();
+			for (int s : m.getSelectiveAcks())
+				peer.unacked.remove(s);
+			peer.notifyAll();
+		}
+	}
+
+	private void handleData(Peer peer, SLPMsg m) throws IOException {
+		List<String> inOrder = new ArrayList<>();
+		SLPMsg ack = new SLPMsg(peer.config);
+		synchronized (peer) {
+			int seq = m.getSeq();
+			if (m.getEpoch() != peer.remoteEpoch) {
+				if (m.getEpoch() == peer.retiredEpoch) {
+					// delayed message of the peer's previous run
+					duplicates.increment();
+					return;
+				}
+				// first message of the peer or the peer restarted -> new session from its base,
+				// out-of-order messages of the old one can no longer be completed
+				if (peer.remoteEpoch != 0)
+					resets.increment();
+				peer.retiredEpoch = peer.remoteEpoch;
+				peer.remoteEpoch = m.getEpoch();
+				peer.buffered.clear();
+				peer.expected = m.getBase();
+			}
+			if (m.getBase() > peer.expected) {
+				// the sender gave up on the gap -> deliver what is buffered below its base and move on
+				var skipped = peer.buffered.headMap(m.getBase());
+				inOrder.addAll(skipped.values());
+				skipped.clear();
+				peer.expected = m.getBase();
+			}
+			if (seq < peer.expected || peer.buffered.containsKey(seq)) {
+				duplicates.increment();
+			} else if (seq < peer.expected + window) {
+				peer.buffered.put(seq, m.getData());
+				while (!peer.buffered.isEmpty() && peer.buffered.firstKey() == peer.expected) {
+					inOrder.add(peer.buffered.pollFirstEntry().getValue());
+					peer.expected++;
+				}
+			}
+			int[] sacks = new int[peer.buffered.size()];
+			int i = 0;
+			for (int s : peer.buffered.keySet())
+				sacks[i++] = s;
+			ack.createAck(m.getEpoch(), peer.expected, sacks);
+		}
+		for (String data : inOrder) {
+			SLPMsg d = new SLPMsg(peer.config);
+			d.setData(data);
+			delivered.add(d);
+		}
+		sendMsg(ack, peer.config);
+	}
+
+	private void retransmitExpired() {
+		long now = System.nanoTime();
+		long rtoNanos = TimeUnit.MILLISECONDS.toNanos(rto);
+		for (Peer peer : peers.values()) {
+			List<Integer> due = new ArrayList<>();
+			List<String> data = new ArrayList<>();
+			int base;
+			synchronized (peer) {
+				var it = peer.unacked.entrySet().iterator();
+				while (it.hasNext()) {
+					var e = it.next();
+					Outstanding o = e.getValue();
+					if (now - o.sentAt < rtoNanos)
+						continue;
+					if (++o.retries > MAX_RETRIES) {
+						// give up on this message and free the window slot, the receiver skips it via the base field
+						it.remove();
+						failures.increment();
+						peer.notifyAll();
+						continue;
+					}
+					o.sentAt = now;
+					due.add(e.getKey());
+					data.add(o.data);
+				}
+				base = peer.base();
+			}
+			for (int i = 0; i < due.size(); i++) {
+				try {
+					transmit(peer, due.get(i), base, data.get(i));
+					retransmissions.increment();
+				} catch (IOException e) {
+					EventLog.log(RETRANSMIT_FAILED, due.get(i), 0, e);
+				}
+			}
+		}
+	}
+
+	public int getWindow() {return window;}
+	public long getRetransmissions() {return retransmissions.sum();}
+	public long getDuplicates() {return duplicates.sum();}
+	public long getFailures() {return failures.sum();}
+	public long getResets() {return resets.sum();}
+}
@@ -0,0 +1,69 @@
+package slp;
+
+import java.io.IOException;
+
+import core.*;
+import exceptions.IWProtocolException;
+import phy.PhyConfiguration;
+import phy.PhyProtocol;
+
+/*
+ * Lets a layer written against PhyProtocol (e.g. CPProtocol) ride on the sliding window protocol
+ * Text messages are sent reliably via SLP; received messages carry the protocol id of the upper layer.
+ * SLP frames are text, so binary framing is refused (supportsBinary) and the transport carries the
+ * traffic of that one upper layer only.
+ */
+public class SLPTransport extends PhyProtocol {
+	private final SLPProtocol slp;
+	private final Protocol.proto_id pid;
+
+	public SLPTransport(SLPProtocol slp, Protocol.proto_id pid) {
+		this.slp = slp;
+		this.pid = pid;
+	}
+
+	@Override
+	public void send(String s, Configuration config) throws IOException, IWProtocolException {
+		slp.send(s, config);
+	}
+
+	@Override
+	public void send(byte[] payload, Configuration config) throws IOException {
+		throw new IOException("Binary frames are not supported over slp");
+	}
+
+	@Override
+	public boolean supportsBinary() {
+		return false;
+	}
+
+	@Override
+	public void bind(Protocol.proto_id pid) {
+		checkPid(pid);
+		super.bind(pid);
+	}
+
+	@Override
+	public Msg receive() throws IOException {
+		return receive(0);
+	}
+
+	@Override
+	public Msg receive(int timeout) throws IOException {
+		Msg in = slp.receive(timeout);
+		PhyConfiguration from = (PhyConfiguration) in.getConfiguration();
+		in.setConfiguration(new PhyConfiguration(from.getRemoteIPAddress(), from.getRemotePort(), this.pid));
+		return in;
+	}
+
+	@Override
+	public Msg receive(Protocol.proto_id pid, int timeout) throws IOException {
+		checkPid(pid);
+		return receive(timeout);
+	}
+
+	private void checkPid(Protocol.proto_id pid) {
+		if (pid != this.pid)
+			throw new IllegalArgumentException("Transport carries " + this.pid + " traffic only, not " + pid);
+	}
+}
@@ -0,0 +1,76 @@
+package core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EventLogTest {
+    private static final EventLog.Event INFO_EVENT = EventLog.event(EventLog.Level.INFO, "datagram from port %d, %d bytes");
+    private static final EventLog.Event DEBUG_EVENT = EventLog.event(EventLog.Level.DEBUG, "debug %3$s");
+    private final EventLog.Level level = EventLog.getLevel();
+
+    @AfterEach
+    void restore() {
+        EventLog.flush();
+        EventLog.setLevel(level);
+        EventLog.setOutput(System.out);
+    }
+
+    @Test
+    @DisplayName("Records are formatted by the drain thread")
+    void formatTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog.setOutput(new PrintStream(out, true));
+        EventLog.setLevel(EventLog.Level.INFO);
+
+        EventLog.log(INFO_EVENT, 4711, 42);
+        EventLog.flush();
+        assertTrue(out.toString().contains("INFO datagram from port 4711, 42 bytes"), out.toString());
+    }
+
+    @Test
+    @DisplayName("Disabled levels are not recorded and can be switched at runtime")
+    void levelTest() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog.setOutput(new PrintStream(out, true));
+        EventLog.setLevel(EventLog.Level.INFO);
+
+        EventLog.log(DEBUG_EVENT, 0, 0, "hidden");
+        EventLog.flush();
+        assertEquals("", out.toString());
+
+        EventLog.getMBean().setThreshold("debug");
+        assertEquals(EventLog.Level.DEBUG, EventLog.getLevel());
+        EventLog.log(DEBUG_EVENT, 0, 0, "shown");
+        EventLog.flush();
+        assertTrue(out.toString().contains("DEBUG debug shown"));
+    }
+
+    @Test
+    @DisplayName("Concurrent producers lose no records below capacity")
+    void concurrentTest() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventLog.setOutput(new PrintStream(out, true));
+        EventLog.setLevel(EventLog.Level.INFO);
+        long dropped = EventLog.getDroppedRecords();
+
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    EventLog.log(INFO_EVENT, i, 1);
+            });
+            producers[t].start();
+        }
+        for (Thread t : producers)
+            t.join();
+        EventLog.flush();
+        long lines = out.toString().lines().count();
+        assertEquals(4000, lines + EventLog.getDroppedRecords() - dropped);
+    }
+}
@@ -0,0 +1,63 @@
+package core;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+    @Test
+    @DisplayName("Small values are recorded exactly")
+    void exactTest() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            h.record(i);
+        assertEquals(100, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(100, h.getMax());
+        assertEquals(50.5, h.getMean(), 1e-9);
+        assertEquals(50, h.getValueAtPercentile(50));
+        assertEquals(99, h.getValueAtPercentile(99));
+        assertEquals(100, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    @DisplayName("Percentiles of large values are within the bucket resolution")
+    void resolutionTest() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1_000; v <= 1_000_000_000L; v *= 10)
+            h.record(v);
+        for (long v = 1_000, p = 1; v <= 1_000_000_000L; v *= 10, p++) {
+            long value = h.getValueAtPercentile(100.0 * (p - 0.5) / 7);
+            assertTrue(value >= v && value <= v + v / 64, "value " + value + " for " + v);
+        }
+        assertEquals(1_000, h.getMin());
+        assertEquals(1_000_000_000L, h.getMax());
+    }
+
+    @Test
+    @DisplayName("Out of range values are clamped")
+    void clampTest() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(0, h.getMin());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    @DisplayName("Merge and reset")
+    void addResetTest() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(10);
+        b.record(30);
+        a.add(b);
+        assertEquals(2, a.getCount());
+        assertEquals(30, a.getMax());
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getValueAtPercentile(50));
+    }
+}
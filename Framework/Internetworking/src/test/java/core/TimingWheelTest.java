@@ -0,0 +1,56 @@
+package core;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+    @Test
+    @DisplayName("Timers fire at the first tick after their deadline")
+    void fireTest() {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<Long> fired = new ArrayList<>();
+        wheel.schedule(25, () -> fired.add(25L));
+        wheel.schedule(5, () -> fired.add(5L));
+        assertEquals(0, wheel.advance(9));
+        assertEquals(1, wheel.advance(10));
+        assertEquals(0, wheel.advance(29));
+        assertEquals(1, wheel.advance(30));
+        assertEquals(List.of(5L, 25L), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Far deadlines cascade down through all levels")
+    void cascadeTest() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        List<Long> fired = new ArrayList<>();
+        long[] deadlines = {63, 64, 4095, 4096, 300_000, 20_000_000};
+        for (long d : deadlines)
+            wheel.schedule(d, () -> fired.add(d));
+        for (long d : deadlines) {
+            wheel.advance(d - 1);
+            assertFalse(fired.contains(d));
+            wheel.advance(d);
+            assertTrue(fired.contains(d));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    @DisplayName("Cancelled timers do not fire")
+    void cancelTest() {
+        TimingWheel wheel = new TimingWheel(10, 0);
+        List<String> fired = new ArrayList<>();
+        TimingWheel.Timeout t = wheel.schedule(100, () -> fired.add("cancelled"));
+        wheel.schedule(100, () -> fired.add("kept"));
+        assertTrue(t.cancel());
+        assertFalse(t.cancel());
+        wheel.advance(1000);
+        assertEquals(List.of("kept"), fired);
+    }
+}
@@ -0,0 +1,91 @@
+package cp;
+
+import core.Msg;
+import core.Protocol;
+import exceptions.CookieRequestException;
+import exceptions.CookieTimeoutException;
+import phy.LoopbackPhyProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPAsyncClientTest {
+    private static Throwable failure(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    @Test
+    @DisplayName("The first command requests the cookie, later commands reuse it")
+    void cookieThenCommandTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol cookieServer = net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setCookieValidator(cookieServer.getCookieStore());
+            net.serve(commandServer);
+            CPProtocol client = net.client(2000, 3000);
+            client.attachReactor(net.reactor());
+
+            Msg print = client.sendAsync("print hello").get(5, TimeUnit.SECONDS);
+            assertTrue(print.getData().contains(" ok 0"), print.getData());
+            Msg status = client.sendAsync("status").get(5, TimeUnit.SECONDS);
+            assertTrue(status.getData().contains("{\"processed\":2,"), status.getData());
+            assertEquals(1, cookieServer.getMetrics().getCookiesIssued());
+            assertEquals(0, client.getCommandIds().getInUse());
+        }
+    }
+
+    @Test
+    @DisplayName("A NAK fails the cookie request with the server's reason")
+    void cookieNakTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.cookieServer(3000);
+            CPProtocol client = net.client(2000, 3000);
+            client.attachReactor(net.reactor());
+
+            assertTrue(client.requestCookieAsync().get(5, TimeUnit.SECONDS) >= 0);
+            // the first cookie is still valid
+            Throwable nak = failure(client.requestCookieAsync());
+            assertInstanceOf(CookieRequestException.class, nak);
+            assertTrue(((CookieRequestException) nak).getReason().contains("ACTIVE_COOKIE_EXISTS"));
+        }
+    }
+
+    @Test
+    @DisplayName("Unanswered commands are retransmitted and fail after the last retry")
+    void timeoutTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.cookieServer(3000);
+            // stands in for the command server and decides which copies it answers
+            LoopbackPhyProtocol server = LoopbackPhyProtocol.open(net.net(), 2000);
+            server.bind(Protocol.proto_id.CP);
+            CPProtocol client = net.client(2000, 3000);
+            client.attachReactor(net.reactor());
+
+            // the first copy is "lost", the retransmission is answered
+            CompletableFuture<Msg> answered = client.sendAsync("status");
+            int id = CPCommandMsg.parseCommand(server.receive(5000).getData()).getCommandId();
+            Msg retransmission = server.receive(5000);
+            assertEquals(id, CPCommandMsg.parseCommand(retransmission.getData()).getCommandId());
+            CPCommandResponseMsg response = new CPCommandResponseMsg(id, true);
+            response.create("{}");
+            server.send(response.getData(), retransmission.getConfiguration());
+            assertTrue(answered.get(5, TimeUnit.SECONDS).getData().contains(" ok 2 {}"));
+            assertEquals(1, client.getMetrics().getRetries());
+
+            // nothing is answered: the original and one retransmission, the command fails after the second timeout
+            CompletableFuture<Msg> unanswered = client.sendAsync("print lost");
+            for (int i = 0; i < 2; i++)
+                assertEquals("lost", CPCommandMsg.parseCommand(server.receive(5000).getData()).getMessage());
+            assertInstanceOf(CookieTimeoutException.class, failure(unanswered));
+            assertThrows(SocketTimeoutException.class, () -> server.receive(300));
+            assertEquals(0, client.getCommandIds().getInUse());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cp;
+
+import exceptions.BadChecksumException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPBinaryCodecTest {
+    @Test
+    @DisplayName("Binary command round trip test")
+    void commandRoundTripTest() throws Exception {
+        byte[] frame = CPBinaryCodec.encodeCommand(65535, -42, true, "Hello");
+        assertEquals(10 + 5 + 4, frame.length);
+
+        CPBinaryCodec.Frame decoded = CPBinaryCodec.decode(frame);
+        assertEquals(CPBinaryCodec.COMMAND, decoded.getType());
+        assertEquals(65535, decoded.getId());
+        assertEquals(-42, decoded.getCookie());
+        assertTrue(decoded.isSet());
+        assertEquals("Hello", decoded.getMessageString());
+    }
+
+    @Test
+    @DisplayName("Binary cookie response test")
+    void cookieResponseTest() throws Exception {
+        CPCookieResponseMsg resp = CPCookieResponseMsg.fromFrame(
+                CPBinaryCodec.decode(CPBinaryCodec.encodeCookieResponse(true, 12345, null)));
+        assertTrue(resp.getSuccess());
+        assertEquals(12345, resp.getCookie());
+    }
+
+    @Test
+    @DisplayName("Corrupted binary frame test")
+    void badChecksumTest() {
+        byte[] frame = CPBinaryCodec.encodeCommandResponse(7, true, "ok");
+        frame[11] ^= 1;
+        assertThrows(BadChecksumException.class, () -> CPBinaryCodec.decode(frame));
+    }
+}
@@ -0,0 +1,122 @@
+package cp;
+
+import core.Msg;
+import core.Protocol;
+import exceptions.BadChecksumException;
+import exceptions.IllegalMsgException;
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import phy.PhyConfiguration;
+import phy.WireFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPCommandBatchTest {
+    private static CPCommandBatchMsg batch(int cookie, String... commands) {
+        CPCommandBatchMsg batch = new CPCommandBatchMsg(cookie);
+        int id = 1;
+        for (String command : commands) {
+            CPCommandMsg msg = new CPCommandMsg(cookie, id++);
+            msg.create(command);
+            batch.add(msg);
+        }
+        return batch;
+    }
+
+    @Test
+    @DisplayName("Batches and batch responses round trip in both wire formats")
+    void parseTest() throws Exception {
+        CPCommandBatchMsg text = batch(4711, "print hello  world", "status", "print x");
+        text.create(null);
+        CPCommandBatchMsg parsed = CPCommandBatchMsg.parseBatch(text.getData());
+        assertEquals(4711, parsed.getCookie());
+        assertEquals(3, parsed.getCommands().size());
+        assertEquals("hello  world", parsed.getCommands().get(0).getMessage());
+        assertEquals(CommandType.STATUS, parsed.getCommands().get(1).getCommandType());
+        assertEquals(3, parsed.getCommands().get(2).getCommandId());
+        assertThrows(BadChecksumException.class, () -> CPCommandBatchMsg.parseBatch(text.getData().replace("world", "w0rld")));
+
+        CPCommandBatchMsg binary = batch(4711, "print hello  world", "status");
+        binary.createBinary();
+        parsed = CPCommandBatchMsg.fromFrame(CPBinaryCodec.decode(binary.getDataBytes()));
+        assertEquals("hello  world", parsed.getCommands().get(0).getMessage());
+        assertEquals(CommandType.STATUS, parsed.getCommands().get(1).getCommandType());
+        assertThrows(IllegalMsgException.class, () -> CPCommandMsg.fromFrame(CPBinaryCodec.decode(binary.getDataBytes())));
+
+        CPCommandBatchResponseMsg response = new CPCommandBatchResponseMsg();
+        response.add(new CPCommandBatchResponseMsg.Result(1, true, ""));
+        response.add(new CPCommandBatchResponseMsg.Result(2, false, "Invalid cookie"));
+        response.create(null);
+        List<CPCommandBatchResponseMsg.Result> results = CPCommandBatchResponseMsg.parseResponse(response.getData()).getResults();
+        assertEquals(response.getResults(), results);
+        response.createBinary();
+        assertEquals(results, CPCommandBatchResponseMsg.fromFrame(CPBinaryCodec.decode(response.getDataBytes())).getResults());
+    }
+
+    @Test
+    @DisplayName("Pipelined commands share datagrams and are answered individually")
+    void batchTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol cookieServer = net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setCookieValidator(cookieServer.getCookieStore());
+            net.serve(commandServer);
+
+            for (WireFormat format : WireFormat.values()) {
+                CPProtocol client = net.client(2000, 3000);
+                client.setWireFormat(format);
+                client.setWindow(16);
+                client.setBatchSize(8);
+                client.requestCookie();
+                List<String> commands = new ArrayList<>();
+                for (int i = 0; i < 20; i++)
+                    commands.add(i % 2 == 0 ? "print line " + i : "status");
+
+                long delivered = net.net().getDelivered();
+                List<CompletableFuture<Msg>> results = client.sendPipelined(commands);
+                for (int i = 0; i < results.size(); i++) {
+                    String response = results.get(i).join().getData();
+                    assertTrue(response.contains(i % 2 == 0 ? " ok 0 " : "\"processed\":"), response);
+                }
+                // three batches and their responses instead of 40 datagrams
+                long datagrams = net.net().getDelivered() - delivered;
+                assertTrue(datagrams <= 8, "datagrams: " + datagrams);
+                assertEquals(0, client.getCommandIds().getInUse());
+            }
+            assertEquals(20, commandServer.getMetrics().getPrintCommands());
+            assertEquals(20, commandServer.getMetrics().getStatusCommands());
+        }
+    }
+
+    @Test
+    @DisplayName("A retransmitted command of a batch is answered without running it again")
+    void retransmissionTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setCookieValidator((client, cookie) -> 60000);
+            net.serve(commandServer);
+            LoopbackPhyProtocol client = LoopbackPhyProtocol.open(net.net(), 0);
+            client.bind(Protocol.proto_id.CP);
+            PhyConfiguration server = new PhyConfiguration(LoopbackNetwork.getAddress(), 2000, Protocol.proto_id.CP);
+
+            CPCommandBatchMsg batch = batch(4711, "print once", "status");
+            batch.create(null);
+            client.send(batch.getData(), server);
+            List<CPCommandBatchResponseMsg.Result> results =
+                    CPCommandBatchResponseMsg.parseResponse(client.receive(1000).getData()).getResults();
+            assertEquals(2, results.size());
+            assertTrue(results.get(0).ok());
+
+            // the batch response was "lost", the client retransmits the print on its own
+            client.send(batch.getCommands().get(0).getData(), server);
+            assertTrue(client.receive(1000).getData().startsWith("cp command_response 1 ok 0 "));
+            assertEquals(1, commandServer.getMetrics().getPrintCommands());
+        }
+    }
+}
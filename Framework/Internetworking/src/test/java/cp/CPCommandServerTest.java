@@ -0,0 +1,196 @@
+package cp;
+
+import core.Protocol;
+import exceptions.BadChecksumException;
+import exceptions.CookieTimeoutException;
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import phy.PhyConfiguration;
+import phy.WireFormat;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPCommandServerTest {
+    @Test
+    @DisplayName("Command messages round trip through create and parseCommand")
+    void parseTest() throws Exception {
+        CPCommandMsg print = new CPCommandMsg(4711, 7);
+        print.create("print hello world");
+        CPCommandMsg parsed = CPCommandMsg.parseCommand(print.getData());
+        assertEquals(7, parsed.getCommandId());
+        assertEquals(4711, parsed.getCookie());
+        assertEquals(CommandType.PRINT, parsed.getCommandType());
+        assertEquals("hello world", parsed.getMessage());
+
+        CPCommandMsg status = new CPCommandMsg(4711, 8);
+        status.create("status");
+        assertEquals(CommandType.STATUS, CPCommandMsg.parseCommand(status.getData()).getCommandType());
+        assertThrows(BadChecksumException.class, () -> CPCommandMsg.parseCommand(status.getData().replace("status", "statuz")));
+    }
+
+    @Test
+    @DisplayName("Commands are answered after the cookie was validated")
+    void commandTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol cookieServer = net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setWorkers(2);
+            commandServer.setCookieValidator(cookieServer.getCookieStore());
+            net.serve(commandServer);
+
+            for (WireFormat format : WireFormat.values()) {
+                CPProtocol client = net.client(2000, 3000);
+                client.setWireFormat(format);
+                client.send("print hello world", null);
+                assertTrue(client.receive().getData().contains(" ok 0"));
+                client.send("status", null);
+                String status = client.receive().getData();
+                assertTrue(status.contains("{\"processed\":2,\"ttl\":"), status);
+            }
+            assertEquals(2, commandServer.getMetrics().getPrintCommands());
+            assertEquals(2, commandServer.getMetrics().getStatusCommands());
+        }
+    }
+
+    @Test
+    @DisplayName("Commands with an invalid cookie are answered with an error")
+    void invalidCookieTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setCookieValidator((client, cookie) -> -1);
+            net.serve(commandServer);
+
+            CPProtocol client = net.client(2000, 3000);
+            client.send("status", null);
+            assertThrows(CookieTimeoutException.class, client::receive);
+            assertEquals(1, commandServer.getMetrics().getCookiesRejected());
+        }
+    }
+
+    @Test
+    @DisplayName("A response delayed beyond the RTO arrives after retransmissions, the command runs once")
+    void slowResponseTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol cookieServer = net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            // cold lookup at the cookie server, much longer than the client's RTO
+            commandServer.setCookieValidator(new CookieValidator() {
+                @Override
+                public long getTtl(PhyConfiguration client, int cookie) {
+                    return cookieServer.getCookieStore().getTtl(client, cookie);
+                }
+
+                @Override
+                public CompletableFuture<Long> getTtlAsync(PhyConfiguration client, int cookie) {
+                    return CompletableFuture.supplyAsync(() -> getTtl(client, cookie),
+                            CompletableFuture.delayedExecutor(800, TimeUnit.MILLISECONDS));
+                }
+            });
+            net.serve(commandServer);
+
+            CPProtocol client = net.client(2000, 3000);
+            RttEstimator rtt = client.getRttEstimator(new PhyConfiguration(LoopbackNetwork.getAddress(), 2000, Protocol.proto_id.CP));
+            rtt.sample(1);
+            assertEquals(RttEstimator.MIN_RTO, rtt.getRto());
+            client.send("print slow", null);
+            assertTrue(client.receive().getData().contains(" ok 0"));
+
+            assertTrue(client.getMetrics().getRetries() >= 2);
+            assertEquals(1, commandServer.getMetrics().getPrintCommands());
+            // the answer to a retransmitted command is no RTT sample
+            assertEquals(1.0, rtt.getSrtt());
+        }
+    }
+
+    private static void sendCommand(LoopbackPhyProtocol client, int cookie, int id, String command) throws Exception {
+        CPCommandMsg msg = new CPCommandMsg(cookie, id);
+        msg.create(command);
+        client.send(msg.getData(), new PhyConfiguration(LoopbackNetwork.getAddress(), 2000, Protocol.proto_id.CP));
+    }
+
+    private static LoopbackPhyProtocol rawClient(CPTestNetwork net) {
+        LoopbackPhyProtocol client = LoopbackPhyProtocol.open(net.net(), 0);
+        client.bind(Protocol.proto_id.CP);
+        return client;
+    }
+
+    @Test
+    @DisplayName("Commands beyond a full worker queue are answered with Out of Resources")
+    void rejectTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CountDownLatch busy = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setWorkers(1, 1);
+            // a local validator that blocks keeps the only worker busy
+            commandServer.setCookieValidator((client, cookie) -> {
+                busy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 60000;
+            });
+            net.serve(commandServer);
+            LoopbackPhyProtocol client = rawClient(net);
+
+            sendCommand(client, 42, 1, "print one");
+            assertTrue(busy.await(2, TimeUnit.SECONDS));
+            // 2 waits in the queue, 3 does not fit
+            sendCommand(client, 42, 2, "print two");
+            sendCommand(client, 42, 3, "print three");
+            String rejected = client.receive(1000).getData();
+            assertTrue(rejected.startsWith("cp command_response 3 error 16 Out of Resources "), rejected);
+            assertEquals(1, commandServer.getMetrics().getCommandsRejected());
+
+            release.countDown();
+            assertTrue(client.receive(1000).getData().startsWith("cp command_response 1 ok 0 "));
+            assertTrue(client.receive(1000).getData().startsWith("cp command_response 2 ok 0 "));
+        }
+    }
+
+    @Test
+    @DisplayName("A pending cookie lookup parks its client without holding up the worker")
+    void parkedLookupTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CompletableFuture<Long> slowLookup = new CompletableFuture<>();
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setWorkers(1);
+            commandServer.setCookieValidator(new CookieValidator() {
+                @Override
+                public long getTtl(PhyConfiguration client, int cookie) {
+                    throw new AssertionError("the worker must not block on a lookup");
+                }
+
+                @Override
+                public CompletableFuture<Long> getTtlAsync(PhyConfiguration client, int cookie) {
+                    return cookie == 1 ? slowLookup : CompletableFuture.completedFuture(60000L);
+                }
+            });
+            net.serve(commandServer);
+            LoopbackPhyProtocol parked = rawClient(net);
+            LoopbackPhyProtocol other = rawClient(net);
+
+            sendCommand(parked, 1, 1, "print first");
+            sendCommand(parked, 1, 2, "status");
+            sendCommand(other, 2, 1, "print other");
+            assertTrue(other.receive(1000).getData().startsWith("cp command_response 1 ok 0 "));
+            assertThrows(SocketTimeoutException.class, () -> parked.receive(200));
+
+            // the answer resumes both commands on the worker, in the order they arrived
+            slowLookup.complete(60000L);
+            assertTrue(parked.receive(1000).getData().startsWith("cp command_response 1 ok 0 "));
+            String status = parked.receive(1000).getData();
+            assertTrue(status.contains("{\"processed\":2,"), status);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package cp;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPEventsTest {
+    @Test
+    @DisplayName("Cookie exchange emits JFR events on both layers")
+    void cookieEventsTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.cookieServer(3000);
+            CPProtocol client = net.client(2000, 3000);
+
+            Path file = Files.createTempFile("cp-events", ".jfr");
+            List<RecordedEvent> events;
+            try (Recording recording = new Recording()) {
+                recording.enable("internetworking.cp.CookieRequest");
+                recording.enable("internetworking.cp.CookieDecision");
+                recording.enable("internetworking.phy.Send");
+                recording.start();
+                client.requestCookie();
+                recording.stop();
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+
+            RecordedEvent request = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("internetworking.cp.CookieRequest")).findFirst().orElseThrow();
+            assertEquals("ACK", request.getString("outcome"));
+            assertEquals(1, request.getInt("attempts"));
+            RecordedEvent decision = events.stream()
+                    .filter(e -> e.getEventType().getName().equals("internetworking.cp.CookieDecision")).findFirst().orElseThrow();
+            assertEquals("ISSUED", decision.getString("decision"));
+            // the server's send may still be committing when the client has its answer
+            assertTrue(events.stream().anyMatch(e -> e.getEventType().getName().equals("internetworking.phy.Send")));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package cp;
+
+import core.Metrics;
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPMetricsTest {
+    @Test
+    @DisplayName("Cookie exchange is counted on both layers and visible via JMX")
+    void cookieMetricsTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            LoopbackPhyProtocol serverPhy = LoopbackPhyProtocol.open(net.net(), 3000);
+            CPProtocol server = net.serve(new CPProtocol(serverPhy, true));
+
+            LoopbackPhyProtocol clientPhy = LoopbackPhyProtocol.open(net.net(), 0);
+            CPProtocol client = new CPProtocol(LoopbackNetwork.getAddress(), 2000, clientPhy);
+            client.setCookieServer(LoopbackNetwork.getAddress(), 3000);
+            client.requestCookie();
+
+            assertEquals(1, server.getMetrics().getCookiesIssued());
+            assertEquals(1, server.getMetrics().getCookieMapOccupancy());
+            assertEquals(0, client.getMetrics().getRetries());
+            assertEquals(1, clientPhy.getMetrics().getDatagramsOut());
+            assertEquals(1, clientPhy.getMetrics().getDatagramsIn());
+            assertEquals(clientPhy.getMetrics().getBytesOut(), serverPhy.getMetrics().getBytesIn());
+
+            ObjectName name = Metrics.register("CPProtocol", "test-server", server.getMetrics());
+            assertNotNull(name);
+            assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "CookiesIssued"));
+            Metrics.unregister(name);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cp;
+
+import core.Msg;
+import core.Protocol;
+import phy.LoopbackPhyProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CPPipeliningTest {
+    private static PendingCommand pending(int id, long deadline) {
+        CPCommandMsg msg = new CPCommandMsg(1, id);
+        msg.create("status");
+        PendingCommand pending = new PendingCommand(msg, new CompletableFuture<>());
+        pending.deadline = deadline;
+        return pending;
+    }
+
+    @Test
+    @DisplayName("In-flight commands are found by id and removed in any order")
+    void inFlightTableTest() {
+        InFlightTable table = new InFlightTable();
+        table.setWindow(3);
+        PendingCommand a = pending(1, 300);
+        PendingCommand b = pending(2, 100);
+        PendingCommand c = pending(65535, 200);
+        table.add(a);
+        table.add(b);
+        table.add(c);
+        assertFalse(table.hasRoom());
+        assertThrows(IllegalStateException.class, () -> table.add(pending(2, 0)));
+        assertSame(b, table.nextDeadline());
+
+        assertSame(b, table.remove(2));
+        assertNull(table.remove(2));
+        assertNull(table.get(2));
+        assertSame(c, table.get(65535));
+        assertSame(c, table.nextDeadline());
+        assertSame(a, table.remove(1));
+        assertTrue(table.hasRoom());
+        assertSame(c, table.remove(65535));
+        assertEquals(0, table.size());
+        assertNull(table.nextDeadline());
+        assertThrows(IllegalArgumentException.class, () -> table.setWindow(InFlightTable.MAX_WINDOW + 1));
+    }
+
+    @Test
+    @DisplayName("Ids sharing a slot stay reachable when one of them is removed")
+    void inFlightCollisionTest() {
+        InFlightTable table = new InFlightTable();
+        // 1, 129 and 257 share a home slot, 2 is displaced by them
+        PendingCommand[] commands = { pending(1, 0), pending(129, 0), pending(2, 0), pending(257, 0) };
+        for (PendingCommand command : commands)
+            table.add(command);
+        assertSame(commands[1], table.remove(129));
+        assertSame(commands[0], table.get(1));
+        assertSame(commands[2], table.get(2));
+        assertSame(commands[3], table.get(257));
+        assertNull(table.get(129));
+        assertSame(commands[0], table.remove(1));
+        assertSame(commands[3], table.remove(257));
+        assertSame(commands[2], table.get(2));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    @DisplayName("The window slides: an unanswered command holds back commands a window newer")
+    void slidingWindowTest() {
+        InFlightTable table = new InFlightTable();
+        table.setWindow(3);
+        table.add(pending(1, 0));
+        table.add(pending(2, 0));
+        table.add(pending(3, 0));
+        table.remove(2);
+        table.remove(3);
+        // 1 is still in flight, 4 would be three commands newer
+        assertFalse(table.hasRoom());
+        table.remove(1);
+        assertTrue(table.hasRoom());
+    }
+
+    // new commands that reach the fake command server until it hears nothing for a while (retransmissions are skipped)
+    private static List<Msg> receiveWindow(LoopbackPhyProtocol server, Set<Integer> seen) throws Exception {
+        List<Msg> received = new ArrayList<>();
+        while (true) {
+            try {
+                Msg in = server.receive(received.isEmpty() ? 5000 : 150);
+                if (seen.add(CPCommandMsg.parseCommand(in.getData()).getCommandId()))
+                    received.add(in);
+            } catch (SocketTimeoutException e) {
+                return received;
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A whole window of commands is sent before the first response")
+    void pipelineTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.cookieServer(3000);
+            // stands in for the command server, so the test sees what is in flight before anything is answered
+            LoopbackPhyProtocol server = LoopbackPhyProtocol.open(net.net(), 2000);
+            server.bind(Protocol.proto_id.CP);
+            CPProtocol client = net.client(2000, 3000);
+            client.setWindow(10);
+            List<String> commands = new ArrayList<>();
+            for (int i = 0; i < 20; i++)
+                commands.add("print line " + i);
+            FutureTask<List<CompletableFuture<Msg>>> pipelined = new FutureTask<>(() -> client.sendPipelined(commands));
+            new Thread(pipelined).start();
+
+            // one round trip per window: 10 commands arrive, the 11th waits for a response
+            Set<Integer> seen = new HashSet<>();
+            for (int window = 0; window < 2; window++) {
+                List<Msg> received = receiveWindow(server, seen);
+                assertEquals(10, received.size());
+                Collections.reverse(received);
+                for (Msg in : received) {
+                    CPCommandResponseMsg response = new CPCommandResponseMsg(CPCommandMsg.parseCommand(in.getData()).getCommandId(), true);
+                    response.create("");
+                    server.send(response.getData(), in.getConfiguration());
+                }
+            }
+
+            List<CompletableFuture<Msg>> results = pipelined.get(5, TimeUnit.SECONDS);
+            for (CompletableFuture<Msg> result : results)
+                assertTrue(result.join().getData().contains(" ok 0"));
+            assertEquals(0, client.getCommandIds().getInUse());
+        }
+    }
+
+    @Test
+    @DisplayName("Reordered responses complete their own command")
+    void reorderTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            net.net().setSeed(42);
+            net.net().setReordering(0.5, 30);
+            CPProtocol cookieServer = net.cookieServer(3000);
+            CPProtocol commandServer = net.commandServer(2000);
+            commandServer.setCookieValidator(cookieServer.getCookieStore());
+            net.serve(commandServer);
+
+            CPProtocol client = net.client(2000, 3000);
+            List<String> commands = new ArrayList<>();
+            for (int i = 0; i < 32; i++)
+                commands.add("status");
+            List<CompletableFuture<Msg>> results = client.sendPipelined(commands);
+
+            for (CompletableFuture<Msg> result : results) {
+                Msg response = result.join();
+                assertTrue(response.getData().contains("\"processed\":"), response.getData());
+            }
+            assertTrue(net.net().getReordered() > 0);
+        }
+    }
+}
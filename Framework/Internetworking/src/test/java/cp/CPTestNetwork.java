@@ -0,0 +1,79 @@
+package cp;
+
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import phy.PhyReactor;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/*
+ * LoopbackNetwork with CP servers receiving in daemon threads
+ * A server thread cannot fail the test itself, so close() fails it with whatever a server threw
+ * and shuts the network (and the reactor, if one was started) down.
+ */
+class CPTestNetwork implements AutoCloseable {
+    private final LoopbackNetwork net = new LoopbackNetwork();
+    private final List<Throwable> failures = new CopyOnWriteArrayList<>();
+    private PhyReactor reactor;
+
+    LoopbackNetwork net() {
+        return net;
+    }
+
+    CPProtocol serve(CPProtocol server) {
+        Thread t = new Thread(() -> {
+            try {
+                server.receive();
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+        return server;
+    }
+
+    // cookie server, already receiving
+    CPProtocol cookieServer(int port) {
+        return serve(new CPProtocol(LoopbackPhyProtocol.open(net, port), true));
+    }
+
+    // cookie server shard on its own port, already receiving
+    CPProtocol cookieShard(int port, CookieStore cookies) {
+        return serve(new CPProtocol(LoopbackPhyProtocol.open(net, port), cookies));
+    }
+
+    // command server, pass it to serve() once it is configured
+    CPProtocol commandServer(int port) {
+        return new CPProtocol(LoopbackPhyProtocol.open(net, port), false);
+    }
+
+    CPProtocol client(int commandPort, int cookiePort) throws UnknownHostException {
+        CPProtocol client = new CPProtocol(LoopbackNetwork.getAddress(), commandPort, LoopbackPhyProtocol.open(net, 0));
+        client.setCookieServer(LoopbackNetwork.getAddress(), cookiePort);
+        return client;
+    }
+
+    // running reactor for asynchronous clients, shared by all of them
+    PhyReactor reactor() throws IOException {
+        if (reactor == null) {
+            reactor = new PhyReactor();
+            reactor.start();
+        }
+        return reactor;
+    }
+
+    @Override
+    public void close() {
+        if (reactor != null)
+            reactor.stop();
+        net.shutdown();
+        if (!failures.isEmpty())
+            fail("server failed", failures.get(0));
+    }
+}
@@ -0,0 +1,51 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandIdAllocatorTest {
+    @Test
+    @DisplayName("Ids are handed out round robin and reused after release")
+    void wraparoundTest() {
+        CommandIdAllocator ids = new CommandIdAllocator();
+        assertEquals(1, ids.allocate());
+        assertEquals(2, ids.allocate());
+        assertTrue(ids.release(1));
+        assertFalse(ids.release(1));
+        // 1 is free again, but the cursor moves on first
+        assertEquals(3, ids.allocate());
+        for (int i = 4; i <= CommandIdAllocator.MAX_ID; i++)
+            assertEquals(i, ids.allocate());
+        assertEquals(1, ids.allocate());
+        assertEquals(-1, ids.allocate());
+        assertEquals(CommandIdAllocator.MAX_ID, ids.getInUse());
+
+        ids.release(500);
+        assertEquals(500, ids.allocate());
+    }
+
+    @Test
+    @DisplayName("Concurrent allocations never hand out the same id twice")
+    void concurrentTest() throws InterruptedException {
+        CommandIdAllocator ids = new CommandIdAllocator();
+        Set<Integer> seen = ConcurrentHashMap.newKeySet();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++)
+                    assertTrue(seen.add(ids.allocate()));
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(40000, seen.size());
+        assertFalse(seen.contains(0));
+        assertEquals(40000, ids.getInUse());
+    }
+}
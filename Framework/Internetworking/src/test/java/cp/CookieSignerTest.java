@@ -0,0 +1,46 @@
+package cp;
+
+import core.Protocol;
+import phy.PhyConfiguration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieSignerTest {
+    private static final byte[] SECRET = "secret".getBytes(StandardCharsets.UTF_8);
+
+    private static PhyConfiguration peer(int port) throws Exception {
+        return new PhyConfiguration(InetAddress.getLoopbackAddress(), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("Any signer with the same secret validates a cookie")
+    void validateTest() throws Exception {
+        AtomicLong now = new AtomicLong(10_500);
+        CookieSigner issuer = new CookieSigner(SECRET, 1000, now::get);
+        CookieSigner validator = new CookieSigner(SECRET, 1000, now::get);
+        int cookie = issuer.issue(peer(5000));
+        assertEquals(cookie, issuer.issue(peer(5000)));
+        assertEquals(1500, validator.getTtl(peer(5000), cookie));
+        assertFalse(validator.validate(peer(5001), cookie));
+        assertFalse(new CookieSigner("other".getBytes(), 1000, now::get).validate(peer(5000), cookie));
+    }
+
+    @Test
+    @DisplayName("Cookies stay valid across one key rotation")
+    void rotationTest() throws Exception {
+        AtomicLong now = new AtomicLong(10_500);
+        CookieSigner signer = new CookieSigner(SECRET, 1000, now::get);
+        int cookie = signer.issue(peer(5000));
+        now.set(11_999);
+        assertEquals(1, signer.getTtl(peer(5000), cookie));
+        assertNotEquals(cookie, signer.issue(peer(5000)));
+        now.set(12_000);
+        assertEquals(-1, signer.getTtl(peer(5000), cookie));
+    }
+}
@@ -0,0 +1,67 @@
+package cp;
+
+import core.Protocol;
+import exceptions.CookieRequestException;
+import phy.PhyConfiguration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieStoreTest {
+    private static PhyConfiguration peer(int port) throws Exception {
+        return new PhyConfiguration(InetAddress.getLoopbackAddress(), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("One active cookie per client")
+    void activeCookieTest() throws Exception {
+        AtomicLong now = new AtomicLong();
+        CookieStore store = new CookieStore(20, 1000, now::get);
+        assertEquals(CookieStore.Decision.ISSUED, store.issue(peer(5000), 1));
+        assertEquals(CookieStore.Decision.ACTIVE_COOKIE_EXISTS, store.issue(peer(5000), 2));
+        assertEquals(1, store.get(peer(5000)).getCookieValue());
+        now.set(400);
+        assertEquals(600, store.getTtl(peer(5000)));
+    }
+
+    @Test
+    @DisplayName("Capacity is enforced and freed on expiry")
+    void expiryTest() throws Exception {
+        AtomicLong now = new AtomicLong();
+        CookieStore store = new CookieStore(2, 1000, now::get);
+        assertEquals(CookieStore.Decision.ISSUED, store.issue(peer(5000), 1));
+        assertEquals(CookieStore.Decision.ISSUED, store.issue(peer(5001), 2));
+        assertEquals(CookieStore.Decision.TOO_MANY_COOKIES, store.issue(peer(5002), 3));
+
+        now.set(1000);
+        assertNull(store.get(peer(5000)));
+        assertEquals(-1, store.getTtl(peer(5000)));
+        assertEquals(2, store.expire());
+        assertEquals(0, store.size());
+        assertEquals(CookieStore.Decision.ISSUED, store.issue(peer(5002), 3));
+        assertEquals(CookieStore.Decision.ISSUED, store.issue(peer(5000), 4));
+        assertEquals(4, store.get(peer(5000)).getCookieValue());
+    }
+
+    @Test
+    @DisplayName("Shards sharing one store enforce a single limit however clients are spread")
+    void shardTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CookieStore cookies = new CookieStore(2, CookieStore.DEFAULT_TTL);
+            net.cookieShard(3000, cookies);
+            net.cookieShard(3001, cookies);
+
+            // both clients land on the first shard, the second shard has not issued anything
+            net.client(2000, 3000).requestCookie();
+            net.client(2000, 3000).requestCookie();
+            CookieRequestException e = assertThrows(CookieRequestException.class,
+                    () -> net.client(2000, 3001).requestCookie());
+            assertTrue(e.getReason().contains("TOO_MANY_COOKIES"));
+            assertEquals(2, cookies.size());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cp;
+
+import core.Protocol;
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import phy.PhyConfiguration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieValidationCacheTest {
+    private static PhyConfiguration peer(int port) throws Exception {
+        return new PhyConfiguration(InetAddress.getLoopbackAddress(), port, Protocol.proto_id.CP);
+    }
+
+    @Test
+    @DisplayName("Only the first lookup of a cookie reaches the source")
+    void cacheTest() throws Exception {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger lookups = new AtomicInteger();
+        List<Runnable> refreshes = new ArrayList<>();
+        CookieValidator source = (client, cookie) -> {
+            lookups.incrementAndGet();
+            return cookie == 42 ? 60000 - now.get() : -1;
+        };
+        CookieValidationCache cache = new CookieValidationCache(source, 100, 10000, 1000, refreshes::add, now::get);
+
+        assertEquals(60000, cache.getTtl(peer(5000), 42));
+        now.set(5000);
+        assertEquals(55000, cache.getTtl(peer(5000), 42));
+        assertFalse(cache.validate(peer(5000), 7));
+        assertFalse(cache.validate(peer(5000), 7));
+        assertEquals(2, lookups.get());
+        assertEquals(1, cache.getNegativeHits());
+
+        // last 20 % of the cache lifetime -> cached answer plus one background refresh
+        now.set(8500);
+        assertTrue(cache.validate(peer(5000), 42));
+        assertTrue(cache.validate(peer(5000), 42));
+        assertEquals(1, refreshes.size());
+        refreshes.get(0).run();
+        assertEquals(3, lookups.get());
+        now.set(17000);
+        assertTrue(cache.validate(peer(5000), 42));
+        assertEquals(3, lookups.get());
+    }
+
+    @Test
+    @DisplayName("Asynchronous misses are looked up on the refresher and shared")
+    void asyncTest() throws Exception {
+        AtomicInteger lookups = new AtomicInteger();
+        List<Runnable> loads = new ArrayList<>();
+        CookieValidator source = (client, cookie) -> {
+            lookups.incrementAndGet();
+            return 60000;
+        };
+        CookieValidationCache cache = new CookieValidationCache(source, 100, 10000, 1000, loads::add, () -> 0);
+
+        CompletableFuture<Long> first = cache.getTtlAsync(peer(5000), 42);
+        assertSame(first, cache.getTtlAsync(peer(5000), 42));
+        assertFalse(first.isDone());
+        assertEquals(1, loads.size());
+        loads.get(0).run();
+        assertEquals(60000, (long) first.join());
+        assertEquals(60000, (long) cache.getTtlAsync(peer(5000), 42).getNow(-2L));
+        assertEquals(1, lookups.get());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("Command server validates against the cookie server")
+    void remoteTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol server = net.cookieServer(3000);
+            server.setValidationPeers(List.of(LoopbackNetwork.getAddress()));
+            PhyConfiguration client = new PhyConfiguration(LoopbackNetwork.getAddress(), 5000, Protocol.proto_id.CP);
+            server.getCookieStore().issue(client, 42);
+
+            RemoteCookieValidator remote = new RemoteCookieValidator(LoopbackPhyProtocol.open(net.net(), 0), LoopbackNetwork.getAddress(), 3000);
+            CookieValidationCache cache = new CookieValidationCache(remote);
+            long ttl = cache.getTtl(client, 42);
+            assertTrue(ttl > 0 && ttl <= CookieStore.DEFAULT_TTL);
+            assertFalse(cache.validate(client, 43));
+            assertTrue(cache.validate(client, 42));
+            assertEquals(2, cache.getMisses());
+        }
+    }
+
+    @Test
+    @DisplayName("A cookie issued by one shard is validated by another")
+    void shardTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CookieStore cookies = new CookieStore(CPProtocol.CP_HASHMAP_SIZE, CookieStore.DEFAULT_TTL);
+            net.cookieShard(3000, cookies);
+            CPProtocol other = net.cookieShard(3001, cookies);
+            other.setValidationPeers(List.of(LoopbackNetwork.getAddress()));
+            LoopbackPhyProtocol clientPhy = LoopbackPhyProtocol.open(net.net(), 0);
+            CPProtocol client = new CPProtocol(LoopbackNetwork.getAddress(), 2000, clientPhy);
+            client.setCookieServer(LoopbackNetwork.getAddress(), 3000);
+            client.requestCookie();
+            PhyConfiguration clientConfig = new PhyConfiguration(LoopbackNetwork.getAddress(), clientPhy.getLocalPort(), Protocol.proto_id.CP);
+            int cookie = cookies.get(clientConfig).getCookieValue();
+
+            // the command server's validation socket is hashed to the shard that did not issue the cookie
+            RemoteCookieValidator remote = new RemoteCookieValidator(LoopbackPhyProtocol.open(net.net(), 0), LoopbackNetwork.getAddress(), 3001);
+            CookieValidationCache cache = new CookieValidationCache(remote);
+            assertTrue(cache.validate(clientConfig, cookie));
+            assertFalse(cache.validate(clientConfig, cookie + 1));
+        }
+    }
+
+    @Test
+    @DisplayName("The cookie server answers validation requests only from its command servers")
+    void refusedTest() throws Exception {
+        try (CPTestNetwork net = new CPTestNetwork()) {
+            CPProtocol server = net.cookieServer(3000);
+            PhyConfiguration client = new PhyConfiguration(LoopbackNetwork.getAddress(), 5000, Protocol.proto_id.CP);
+            server.getCookieStore().issue(client, 42);
+            LoopbackPhyProtocol prober = LoopbackPhyProtocol.open(net.net(), 0);
+            prober.bind(Protocol.proto_id.CP);
+            PhyConfiguration cookieServer = new PhyConfiguration(LoopbackNetwork.getAddress(), 3000, Protocol.proto_id.CP);
+            CPCookieValidateMsg request = new CPCookieValidateMsg(42, client);
+            request.create(null);
+
+            // loopback is not one of the command servers -> no answer, valid cookie or not
+            server.setValidationPeers(List.of(InetAddress.getByName("192.0.2.1")));
+            prober.send(new String(request.getDataBytes()), cookieServer);
+            assertThrows(SocketTimeoutException.class, () -> prober.receive(300));
+
+            server.setValidationPeers(List.of(LoopbackNetwork.getAddress()));
+            prober.send(new String(request.getDataBytes()), cookieServer);
+            assertTrue(prober.receive(1000).getData().startsWith("cp cookie_ttl 42 "));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cp;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RttEstimatorTest {
+    @Test
+    @DisplayName("Initial RTO until the first sample")
+    void initialRtoTest() {
+        RttEstimator rtt = new RttEstimator(2000);
+        assertFalse(rtt.hasSample());
+        assertEquals(2000, rtt.getTimeout(0));
+    }
+
+    @Test
+    @DisplayName("RTO follows SRTT + 4 * RTTVAR")
+    void sampleTest() {
+        RttEstimator rtt = new RttEstimator(2000);
+        rtt.sample(200);
+        assertEquals(200, rtt.getSrtt(), 1e-9);
+        assertEquals(100, rtt.getRttvar(), 1e-9);
+        assertEquals(600, rtt.getRto());
+
+        rtt.sample(200);
+        assertEquals(200, rtt.getSrtt(), 1e-9);
+        assertEquals(75, rtt.getRttvar(), 1e-9);
+        assertEquals(500, rtt.getRto());
+    }
+
+    @Test
+    @DisplayName("RTO is clamped to its bounds")
+    void boundsTest() {
+        RttEstimator rtt = new RttEstimator(2000);
+        for (int i = 0; i < 50; i++)
+            rtt.sample(0.1);
+        assertEquals(RttEstimator.MIN_RTO, rtt.getRto());
+        assertTrue(rtt.getTimeout(30) <= RttEstimator.MAX_RTO);
+    }
+
+    @Test
+    @DisplayName("Retransmissions back off exponentially with jitter")
+    void backoffTest() {
+        RttEstimator rtt = new RttEstimator(1000);
+        for (int i = 0; i < 100; i++) {
+            int t1 = rtt.getTimeout(1);
+            int t2 = rtt.getTimeout(2);
+            assertTrue(t1 >= 1800 && t1 <= 2200);
+            assertTrue(t2 >= 3600 && t2 <= 4400);
+        }
+    }
+}
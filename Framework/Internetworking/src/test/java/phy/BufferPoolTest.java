@@ -0,0 +1,71 @@
+package phy;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BufferPoolTest {
+    @Test
+    @DisplayName("Pooled buffers are reused and occupancy is tracked")
+    void reuseTest() {
+        BufferPool pool = new BufferPool(2, 64);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer b = pool.acquire();
+        assertTrue(a.isDirect());
+        assertEquals(2, pool.getInUse());
+        assertEquals(0, pool.getAvailable());
+
+        pool.release(a);
+        assertSame(a, pool.acquire());
+        assertEquals(2, pool.getHighWaterMark());
+        assertEquals(0, pool.getMisses());
+        pool.release(a);
+        pool.release(b);
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    @DisplayName("Exhausted pool hands out temporary buffers")
+    void exhaustedTest() {
+        BufferPool pool = new BufferPool(1, 64);
+        ByteBuffer a = pool.acquire();
+        ByteBuffer tmp = pool.acquire();
+        assertFalse(tmp.isDirect());
+        assertEquals(1, pool.getMisses());
+        pool.release(tmp);
+        assertEquals(1, pool.getInUse());
+        pool.release(a);
+        assertEquals(1, pool.getAvailable());
+    }
+
+    @Test
+    @DisplayName("A buffer released twice is rejected and occupancy stays consistent")
+    void doubleReleaseTest() {
+        BufferPool pool = new BufferPool(2, 64);
+        ByteBuffer a = pool.acquire();
+        pool.release(a);
+        assertThrows(IllegalStateException.class, () -> pool.release(a));
+        assertEquals(0, pool.getInUse());
+        assertEquals(2, pool.getAvailable());
+
+        // a handed out once, not twice
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertNotSame(first, second);
+        assertTrue(second.isDirect());
+    }
+
+    @Test
+    @DisplayName("A direct buffer of the right size that the pool did not hand out is rejected")
+    void foreignReleaseTest() {
+        BufferPool pool = new BufferPool(1, 64);
+        ByteBuffer a = pool.acquire();
+        assertThrows(IllegalArgumentException.class, () -> pool.release(ByteBuffer.allocateDirect(64)));
+        assertEquals(1, pool.getInUse());
+        pool.release(a);
+        assertEquals(0, pool.getInUse());
+    }
+}
@@ -149,7 +149,9 @@ public class CPClientCookieRequestTest {
         // Run the test
         assertThrows(CookieRequestException.class,
                 ()->cProtocol.requestCookie());
-        verify(phyProtocolMock, times(3)).receive(2000);
+        // first attempt waits for the initial RTO, retransmissions back off
+        verify(phyProtocolMock, times(1)).receive(2000);
+        verify(phyProtocolMock, times(3)).receive(anyInt());
         verify(phyProtocolMock, times(3)).send(eq("cp cookie_request"), any(PhyConfiguration.class));
     }
 
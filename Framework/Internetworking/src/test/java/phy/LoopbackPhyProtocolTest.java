@@ -0,0 +1,110 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import cp.CPProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.SocketTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoopbackPhyProtocolTest {
+    private static PhyConfiguration to(LoopbackPhyProtocol p, Protocol.proto_id pid) throws Exception {
+        return new PhyConfiguration(LoopbackNetwork.getAddress(), p.getLocalPort(), pid);
+    }
+
+    @Test
+    @DisplayName("Send and receive without sockets")
+    void sendReceiveTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+
+        a.send("hello", to(b, Protocol.proto_id.APP));
+        Msg in = b.receive(1000);
+        assertEquals("hello", in.getData());
+        assertEquals(a.getLocalPort(), ((PhyConfiguration) in.getConfiguration()).getRemotePort());
+        assertThrows(SocketTimeoutException.class, () -> b.receive(50));
+
+        // large messages are fragmented and reassembled as on UDP
+        String big = "x".repeat(5000);
+        a.send(big, to(b, Protocol.proto_id.APP));
+        assertEquals(big, b.receive(1000).getData());
+        a.close();
+        b.close();
+    }
+
+    @Test
+    @DisplayName("Blocked receive is woken up by a delayed datagram")
+    void latencyTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        net.setLatency(50, 0);
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+
+        long start = System.nanoTime();
+        a.send("late", to(b, Protocol.proto_id.APP));
+        assertEquals("late", b.receive(2000).getData());
+        assertTrue(System.nanoTime() - start >= 50_000_000L);
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("Loss and duplication are injected")
+    void impairmentTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+
+        net.setLossRate(1.0);
+        a.send("lost", to(b, Protocol.proto_id.APP));
+        assertThrows(SocketTimeoutException.class, () -> b.receive(50));
+        assertEquals(1, net.getLost());
+
+        net.setLossRate(0);
+        net.setDuplicationRate(1.0);
+        a.send("twice", to(b, Protocol.proto_id.APP));
+        assertEquals("twice", b.receive(1000).getData());
+        assertEquals("twice", b.receive(1000).getData());
+        assertEquals(1, net.getDuplicated());
+    }
+
+    @Test
+    @DisplayName("Reordered datagrams are overtaken")
+    void reorderTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+
+        net.setReordering(1.0, 50);
+        a.send("first", to(b, Protocol.proto_id.APP));
+        net.setReordering(0, 0);
+        a.send("second", to(b, Protocol.proto_id.APP));
+        assertEquals("second", b.receive(1000).getData());
+        assertEquals("first", b.receive(1000).getData());
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("CP cookie request against an in-process cookie server")
+    void cookieServerTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol serverPhy = LoopbackPhyProtocol.open(net, 3000);
+        CPProtocol server = new CPProtocol(serverPhy, true);
+        Thread t = new Thread(() -> {
+            try {
+                server.receive();
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+
+        CPProtocol client = new CPProtocol(LoopbackNetwork.getAddress(), 2000, LoopbackPhyProtocol.open(net, 0));
+        client.setCookieServer(LoopbackNetwork.getAddress(), 3000);
+        assertDoesNotThrow(client::requestCookie);
+    }
+}
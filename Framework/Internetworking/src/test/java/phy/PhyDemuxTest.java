@@ -0,0 +1,64 @@
+package phy;
+
+import core.Msg;
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhyDemuxTest {
+    @Test
+    @DisplayName("Messages of other protocol ids are queued, not dropped")
+    void queueTest() throws Exception {
+        NioPhyProtocol receiver = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        receiver.bind(Protocol.proto_id.CP);
+        InetAddress lo = InetAddress.getLoopbackAddress();
+
+        sender.send("app data", new PhyConfiguration(lo, receiver.getLocalPort(), Protocol.proto_id.APP));
+        sender.send("cp data", new PhyConfiguration(lo, receiver.getLocalPort(), Protocol.proto_id.CP));
+
+        assertEquals("cp data", receiver.receive(2000).getData());
+        assertEquals(1, receiver.getInboundQueue(Protocol.proto_id.APP).size());
+        assertEquals("app data", receiver.receive(Protocol.proto_id.APP, 2000).getData());
+        assertThrows(SocketTimeoutException.class, () -> receiver.receive(100));
+        receiver.close();
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("Registered handlers receive their protocol's traffic")
+    void handlerTest() throws Exception {
+        NioPhyProtocol receiver = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        List<Msg> slp = new ArrayList<>();
+        receiver.registerHandler(Protocol.proto_id.SLP, slp::add);
+        InetAddress lo = InetAddress.getLoopbackAddress();
+
+        sender.send("slp data", new PhyConfiguration(lo, receiver.getLocalPort(), Protocol.proto_id.SLP));
+        sender.send("cp data", new PhyConfiguration(lo, receiver.getLocalPort(), Protocol.proto_id.CP));
+
+        assertEquals("cp data", receiver.receive(Protocol.proto_id.CP, 2000).getData());
+        assertEquals(1, slp.size());
+        assertEquals("slp data", slp.get(0).getData());
+        receiver.close();
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("Full inbound queues count drops")
+    void boundTest() {
+        InboundQueue queue = new InboundQueue(1);
+        assertTrue(queue.offer(new PhyMsg()));
+        assertFalse(queue.offer(new PhyMsg()));
+        assertEquals(1, queue.getDrops());
+        assertNotNull(queue.poll());
+        assertNull(queue.poll());
+    }
+}
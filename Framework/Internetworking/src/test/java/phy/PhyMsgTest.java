@@ -1,13 +1,14 @@
 package phy;
 
 import core.Protocol;
+import exceptions.IllegalMsgException;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
-import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class PhyMsgTest {
     @Test
@@ -26,4 +27,83 @@ public class PhyMsgTest {
 
         assertEquals("phy 3 Hello World", new String(msg.getDataBytes()));
     }
+
+    @Test
+    @DisplayName("Binary message round trip test")
+    void binaryRoundTripTest() throws Exception {
+        PhyConfiguration config = new PhyConfiguration(InetAddress.getByName("localhost"), 1000, Protocol.proto_id.CP);
+        PhyMsg msg = new PhyMsg(config);
+        msg.createBinary("Hello World".getBytes());
+        byte[] frame = msg.getDataBytes();
+        assertEquals(PhyMsg.BINARY_MARKER, frame[0]);
+        assertEquals(7, frame[1]);
+        assertEquals(2 + 11, frame.length);
+
+        PhyMsg parsed = (PhyMsg) new PhyMsg().parse(frame, frame.length);
+        assertTrue(parsed.isBinary());
+        assertEquals(Protocol.proto_id.CP, parsed.getPid());
+        assertEquals("Hello World", new String(parsed.getPayload()));
+    }
+
+    @Test
+    @DisplayName("Byte parser accepts text frames")
+    void textFromBytesTest() throws Exception {
+        byte[] frame = "phy 3 Hello World".getBytes();
+        PhyMsg parsed = (PhyMsg) new PhyMsg().parse(frame, frame.length);
+        assertFalse(parsed.isBinary());
+        assertEquals(Protocol.proto_id.APP, parsed.getPid());
+        assertEquals("Hello World", parsed.getData());
+    }
+
+    @Test
+    @DisplayName("Ping message parse test")
+    void pingParseTest() throws Exception {
+        byte[] frame = "phy 1 ping 42  ".getBytes();
+        PhyMsg parsed = (PhyMsg) new PhyMsg().parse(frame, frame.length);
+        assertInstanceOf(PhyPingMsg.class, parsed);
+        assertEquals(42, ((PhyPingMsg) parsed).getCount());
+        assertEquals(Protocol.proto_id.PHY, parsed.getPid());
+        assertEquals("phy 1 ping 42", new String(parsed.getDataBytes()));
+        assertEquals(13, parsed.getLength());
+    }
+
+    @Test
+    @DisplayName("Timestamped ping and echo round trip test")
+    void pingEchoTest() throws Exception {
+        PhyConfiguration config = new PhyConfiguration(InetAddress.getLoopbackAddress(), 4455, Protocol.proto_id.PHY);
+        PhyPingMsg ping = new PhyPingMsg(config);
+        ping.create(7, 123456789012345L, false);
+        assertEquals("phy 1 ping 7 123456789012345", new String(ping.getDataBytes()));
+
+        PhyPingMsg pong = new PhyPingMsg(config);
+        pong.create(7, 123456789012345L, true);
+        PhyMsg parsed = (PhyMsg) new PhyMsg().parse(pong.getDataBytes(), pong.getLength());
+        assertInstanceOf(PhyPingMsg.class, parsed);
+        assertTrue(((PhyPingMsg) parsed).isEcho());
+        assertEquals(7, ((PhyPingMsg) parsed).getCount());
+        assertEquals(123456789012345L, ((PhyPingMsg) parsed).getTimestamp());
+        assertEquals("phy 1 pong 7 123456789012345", new String(parsed.getDataBytes()));
+
+        byte[] noTimestamp = "phy 1 pong 7".getBytes();
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse(noTimestamp, noTimestamp.length));
+    }
+
+    @Test
+    @DisplayName("Parser uses the same tokenization as the text format")
+    void whitespaceTest() throws Exception {
+        byte[] frame = "  phy\t7   cp cookie_response ACK 12345\n\0\0".getBytes();
+        PhyMsg parsed = (PhyMsg) new PhyMsg().parse(frame, frame.length);
+        assertEquals("cp cookie_response ACK 12345", parsed.getData());
+        assertEquals("phy 7 cp cookie_response ACK 12345", new String(parsed.getDataBytes()));
+    }
+
+    @Test
+    @DisplayName("Illegal text frames are rejected")
+    void illegalTest() {
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy 7"));
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy 4 data"));
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy x data"));
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("slp 7 data"));
+        assertThrows(IllegalMsgException.class, () -> new PhyMsg().parse("phy 1 ping 99999999999"));
+    }
 }
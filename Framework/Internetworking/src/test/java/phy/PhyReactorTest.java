@@ -0,0 +1,143 @@
+package phy;
+
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhyReactorTest {
+    @Test
+    @DisplayName("Deadlines fire in order and cancelled deadlines are skipped")
+    void deadlineTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        reactor.start();
+        List<Integer> fired = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        reactor.schedule(60, () -> { fired.add(3); done.countDown(); });
+        reactor.schedule(20, () -> fired.add(1));
+        PhyReactor.Deadline cancelled = reactor.schedule(40, () -> fired.add(2));
+        cancelled.cancel();
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 3), fired);
+        reactor.stop();
+    }
+
+    @Test
+    @DisplayName("Messages of several endpoints are dispatched by one reactor")
+    void multiplexTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        NioPhyProtocol a = new NioPhyProtocol(0);
+        NioPhyProtocol b = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(4);
+        a.registerHandler(Protocol.proto_id.APP, m -> received.add("a:" + m.getData()));
+        b.registerHandler(Protocol.proto_id.APP, m -> received.add("b:" + m.getData()));
+        reactor.register(a);
+        reactor.register(b);
+        reactor.start();
+
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        sender.send("one", new PhyConfiguration(lo, a.getLocalPort(), Protocol.proto_id.APP));
+        sender.send("two", new PhyConfiguration(lo, b.getLocalPort(), Protocol.proto_id.APP));
+
+        String first = received.poll(2, TimeUnit.SECONDS);
+        String second = received.poll(2, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(List.of(first, second).containsAll(List.of("a:one", "b:two")));
+        reactor.stop();
+        a.close();
+        b.close();
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("The reactor demultiplexes like receive: handlers per protocol id, other ids are queued")
+    void dispatchTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        NioPhyProtocol endpoint = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(4);
+        endpoint.registerHandler(Protocol.proto_id.CP, m -> received.add(m.getData()));
+        reactor.register(endpoint);
+        reactor.start();
+
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        sender.send("for the app", new PhyConfiguration(lo, endpoint.getLocalPort(), Protocol.proto_id.APP));
+        sender.send("for cp", new PhyConfiguration(lo, endpoint.getLocalPort(), Protocol.proto_id.CP));
+
+        assertEquals("for cp", received.poll(2, TimeUnit.SECONDS));
+        // sent first, so it was dispatched before the cp message
+        assertEquals("for the app", endpoint.getInboundQueue(Protocol.proto_id.APP).poll().getData());
+        assertTrue(received.isEmpty());
+        reactor.stop();
+        endpoint.close();
+        sender.close();
+    }
+
+    @Test
+    @DisplayName("Cancelled deadlines leave the heap at once")
+    void cancelTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        List<PhyReactor.Deadline> timers = new java.util.ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            timers.add(reactor.schedule(60_000, () -> fail("cancelled deadline fired")));
+        assertEquals(100, reactor.getPendingDeadlines());
+        timers.forEach(PhyReactor.Deadline::cancel);
+        assertEquals(0, reactor.getPendingDeadlines());
+    }
+
+    @Test
+    @DisplayName("Registering a closed endpoint fails for the caller")
+    void registerClosedTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        NioPhyProtocol endpoint = new NioPhyProtocol(0);
+        endpoint.close();
+        assertThrows(IOException.class, () -> reactor.register(endpoint));
+    }
+
+    @Test
+    @DisplayName("An endpoint failing to read does not hold up other endpoints or deadlines")
+    void readFailureTest() throws Exception {
+        PhyReactor reactor = new PhyReactor();
+        NioPhyProtocol broken = new NioPhyProtocol(0) {
+            @Override
+            public synchronized core.Msg poll() throws IOException {
+                throw new IOException("broken endpoint");
+            }
+        };
+        NioPhyProtocol healthy = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        BlockingQueue<String> received = new ArrayBlockingQueue<>(4);
+        healthy.registerHandler(Protocol.proto_id.APP, m -> received.add(m.getData()));
+        reactor.register(broken);
+        reactor.register(healthy);
+        reactor.start();
+
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        CountDownLatch fired = new CountDownLatch(1);
+        reactor.schedule(50, fired::countDown);
+        sender.send("lost", new PhyConfiguration(lo, broken.getLocalPort(), Protocol.proto_id.APP));
+        Thread.sleep(20);
+        sender.send("delivered", new PhyConfiguration(lo, healthy.getLocalPort(), Protocol.proto_id.APP));
+
+        assertEquals("delivered", received.poll(2, TimeUnit.SECONDS));
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        reactor.stop();
+        broken.close();
+        healthy.close();
+        sender.close();
+    }
+}
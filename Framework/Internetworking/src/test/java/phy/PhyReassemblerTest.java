@@ -0,0 +1,101 @@
+package phy;
+
+import core.Protocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PhyReassemblerTest {
+    private static byte[] frame(int length) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++)
+            frame[i] = (byte) ('a' + i % 26);
+        return frame;
+    }
+
+    @Test
+    @DisplayName("Fragments are reassembled in any order")
+    void reassemblyTest() {
+        byte[] frame = frame(2500);
+        byte[][] fragments = PhyReassembler.fragment(frame, frame.length, 1, 1024);
+        assertEquals(3, fragments.length);
+
+        PhyReassembler reassembler = new PhyReassembler();
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        assertNull(reassembler.accept(lo, 1, fragments[2], fragments[2].length));
+        assertNull(reassembler.accept(lo, 1, fragments[0], fragments[0].length));
+        assertEquals(1, reassembler.getPending());
+        assertArrayEquals(frame, reassembler.accept(lo, 1, fragments[1], fragments[1].length));
+        assertEquals(0, reassembler.getPending());
+        assertEquals(0, reassembler.getBufferedBytes());
+    }
+
+    @Test
+    @DisplayName("Incomplete messages are evicted when the budget is exceeded")
+    void budgetTest() {
+        byte[] frame = frame(2000);
+        byte[][] first = PhyReassembler.fragment(frame, frame.length, 1, 1024);
+        byte[][] second = PhyReassembler.fragment(frame, frame.length, 2, 1024);
+        PhyReassembler reassembler = new PhyReassembler(2500, 5000);
+        InetAddress lo = InetAddress.getLoopbackAddress();
+
+        assertNull(reassembler.accept(lo, 1, first[0], first[0].length));
+        assertNull(reassembler.accept(lo, 1, second[0], second[0].length));
+        assertEquals(0, reassembler.getEvicted());
+        // completing the second message needs the space of the first one
+        assertArrayEquals(frame, reassembler.accept(lo, 1, second[1], second[1].length));
+        assertEquals(1, reassembler.getEvicted());
+        assertNull(reassembler.accept(lo, 1, first[1], first[1].length));
+    }
+
+    private static byte[] fragment(int messageId, int index, int count, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(PhyMsg.FRAGMENT_HEADER_LENGTH + size);
+        buf.put(PhyMsg.FRAGMENT_MARKER).putInt(messageId).putShort((short) index).putShort((short) count);
+        return buf.array();
+    }
+
+    @Test
+    @DisplayName("Tiny fragments under fresh message ids cannot pin more than the budget")
+    void floodTest() {
+        PhyReassembler reassembler = new PhyReassembler(64 * 1024, 5000);
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        byte[] empty = fragment(1, 0, 2, 0);
+        byte[] huge = fragment(2, 0, 0xffff, 1);
+        assertNull(reassembler.accept(lo, 1, empty, empty.length));
+        // 65535 chunk references alone are larger than the budget
+        assertNull(reassembler.accept(lo, 1, huge, huge.length));
+        assertEquals(0, reassembler.getPending());
+
+        for (int id = 0; id < 100_000; id++) {
+            byte[] f = fragment(id, 0, 1000, 1);
+            assertNull(reassembler.accept(lo, 1, f, f.length));
+            assertTrue(reassembler.getBufferedBytes() <= 64 * 1024);
+        }
+        // each entry is charged for its 1000 chunk references
+        assertTrue(reassembler.getPending() <= 64 * 1024 / (1000 * 8));
+        assertTrue(reassembler.getEvicted() > 99_000);
+
+        // the budget still leaves room for real messages
+        byte[] frame = frame(2000);
+        byte[][] fragments = PhyReassembler.fragment(frame, frame.length, 7, 1024);
+        assertNull(reassembler.accept(lo, 1, fragments[0], fragments[0].length));
+        assertArrayEquals(frame, reassembler.accept(lo, 1, fragments[1], fragments[1].length));
+    }
+
+    @Test
+    @DisplayName("Large messages cross the NIO transport")
+    void largeMessageTest() throws Exception {
+        NioPhyProtocol receiver = new NioPhyProtocol(0);
+        NioPhyProtocol sender = new NioPhyProtocol(0);
+        String text = new String(frame(5000));
+        sender.send(text, new PhyConfiguration(InetAddress.getLoopbackAddress(), receiver.getLocalPort(), Protocol.proto_id.APP));
+
+        assertEquals(text, receiver.receive(2000).getData());
+        receiver.close();
+        sender.close();
+    }
+}
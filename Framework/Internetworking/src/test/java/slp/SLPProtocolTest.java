@@ -0,0 +1,276 @@
+package slp;
+
+import core.Protocol;
+import cp.CPProtocol;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import phy.LoopbackNetwork;
+import phy.LoopbackPhyProtocol;
+import phy.NioPhyProtocol;
+import phy.PhyConfiguration;
+import phy.WireFormat;
+
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SLPProtocolTest {
+    @Test
+    @DisplayName("Data message round trip test")
+    void msgTest() throws Exception {
+        SLPMsg data = new SLPMsg();
+        data.createData(42, 7, 5, "Hello  World");
+        assertEquals("slp data 42 7 5 Hello  World", new String(data.getDataBytes()));
+        SLPMsg parsed = (SLPMsg) new SLPMsg().parse(new String(data.getDataBytes()));
+        assertFalse(parsed.isAck());
+        assertEquals(42, parsed.getEpoch());
+        assertEquals(7, parsed.getSeq());
+        assertEquals(5, parsed.getBase());
+        assertEquals("Hello  World", parsed.getData());
+
+        SLPMsg ack = new SLPMsg();
+        ack.createAck(42, 3, new int[]{5, 6});
+        parsed = (SLPMsg) new SLPMsg().parse(new String(ack.getDataBytes()));
+        assertTrue(parsed.isAck());
+        assertEquals(42, parsed.getEpoch());
+        assertEquals(3, parsed.getSeq());
+        assertEquals(2, parsed.getSelectiveAcks().length);
+
+        // the phy layer drops the separator of an empty payload
+        SLPMsg empty = new SLPMsg();
+        empty.createData(42, 8, 5, "");
+        parsed = (SLPMsg) new SLPMsg().parse(new String(empty.getDataBytes()).trim());
+        assertEquals(8, parsed.getSeq());
+        assertEquals("", parsed.getData());
+    }
+
+    @Test
+    @DisplayName("Messages are delivered in order with many in flight")
+    void windowTest() throws Exception {
+        NioPhyProtocol a = new NioPhyProtocol(0);
+        NioPhyProtocol b = new NioPhyProtocol(0);
+        SLPProtocol sender = SLPProtocol.open(a, 8, 200);
+        SLPProtocol receiver = SLPProtocol.open(b, 8, 200);
+        PhyConfiguration to = new PhyConfiguration(InetAddress.getLoopbackAddress(), b.getLocalPort(), Protocol.proto_id.SLP);
+
+        for (int i = 0; i < 100; i++)
+            sender.send("msg " + i, to);
+        for (int i = 0; i < 100; i++)
+            assertEquals("msg " + i, receiver.receive(2000).getData());
+        sender.close();
+        receiver.close();
+    }
+
+    private static SLPMsg receiveSlp(LoopbackPhyProtocol phy) throws Exception {
+        return (SLPMsg) new SLPMsg().parse(phy.receive(1000).getData());
+    }
+
+    private static void sendSlp(LoopbackPhyProtocol phy, SLPMsg m, PhyConfiguration to) throws Exception {
+        phy.send(new String(m.getDataBytes()), to);
+    }
+
+    @Test
+    @DisplayName("Messages lost on the network are retransmitted and delivered in order")
+    void lossTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        net.setSeed(7);
+        net.setLossRate(0.2);
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+        SLPProtocol sender = SLPProtocol.open(a, 8, 50);
+        SLPProtocol receiver = SLPProtocol.open(b, 8, 50);
+        PhyConfiguration to = new PhyConfiguration(LoopbackNetwork.getAddress(), b.getLocalPort(), Protocol.proto_id.SLP);
+
+        for (int i = 0; i < 100; i++)
+            sender.send("msg " + i, to);
+        for (int i = 0; i < 100; i++)
+            assertEquals("msg " + i, receiver.receive(5000).getData());
+        assertTrue(net.getLost() > 0);
+        assertTrue(sender.getRetransmissions() > 0);
+        assertEquals(0, sender.getFailures());
+        sender.close();
+        receiver.close();
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("The receiver acknowledges buffered messages selectively")
+    void receiverSackTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol peer = LoopbackPhyProtocol.open(net, 0);
+        peer.bind(Protocol.proto_id.SLP);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+        SLPProtocol receiver = SLPProtocol.open(b, 8, 200);
+        PhyConfiguration to = new PhyConfiguration(LoopbackNetwork.getAddress(), b.getLocalPort(), Protocol.proto_id.SLP);
+
+        // message 0 is "lost", 1 and 2 wait in the receive window
+        for (int seq = 1; seq <= 2; seq++) {
+            SLPMsg data = new SLPMsg();
+            data.createData(1, seq, 0, "msg " + seq);
+            sendSlp(peer, data, to);
+            SLPMsg ack = receiveSlp(peer);
+            assertTrue(ack.isAck());
+            assertEquals(0, ack.getSeq());
+            assertEquals(seq, ack.getSelectiveAcks().length);
+        }
+        assertThrows(SocketTimeoutException.class, () -> receiver.receive(100));
+
+        SLPMsg data = new SLPMsg();
+        data.createData(1, 0, 0, "msg 0");
+        sendSlp(peer, data, to);
+        SLPMsg ack = receiveSlp(peer);
+        assertEquals(3, ack.getSeq());
+        assertEquals(0, ack.getSelectiveAcks().length);
+        for (int i = 0; i < 3; i++)
+            assertEquals("msg " + i, receiver.receive(1000).getData());
+        receiver.close();
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("The sender retransmits only messages that were not acknowledged selectively")
+    void senderSackTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol peer = LoopbackPhyProtocol.open(net, 0);
+        peer.bind(Protocol.proto_id.SLP);
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        SLPProtocol sender = SLPProtocol.open(a, 8, 200);
+        PhyConfiguration to = new PhyConfiguration(LoopbackNetwork.getAddress(), peer.getLocalPort(), Protocol.proto_id.SLP);
+        PhyConfiguration back = new PhyConfiguration(LoopbackNetwork.getAddress(), a.getLocalPort(), Protocol.proto_id.SLP);
+
+        for (int i = 0; i < 3; i++)
+            sender.send("msg " + i, to);
+        int epoch = 0;
+        for (int i = 0; i < 3; i++) {
+            SLPMsg data = receiveSlp(peer);
+            assertEquals(i, data.getSeq());
+            epoch = data.getEpoch();
+        }
+        // acks of an earlier run of the sender are ignored
+        SLPMsg stale = new SLPMsg();
+        stale.createAck(epoch + 1, 3, new int[0]);
+        sendSlp(peer, stale, back);
+        // 0 was "lost", 1 and 2 arrived
+        SLPMsg sack = new SLPMsg();
+        sack.createAck(epoch, 0, new int[]{1, 2});
+        sendSlp(peer, sack, back);
+
+        SLPMsg retransmission = receiveSlp(peer);
+        assertEquals(0, retransmission.getSeq());
+        assertEquals("msg 0", retransmission.getData());
+        SLPMsg ack = new SLPMsg();
+        ack.createAck(epoch, 3, new int[0]);
+        sendSlp(peer, ack, back);
+        assertThrows(SocketTimeoutException.class, () -> peer.receive(500));
+        assertEquals(1, sender.getRetransmissions());
+        sender.close();
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("A restarted peer starts a new session instead of being taken for duplicates")
+    void restartTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol peer = LoopbackPhyProtocol.open(net, 0);
+        peer.bind(Protocol.proto_id.SLP);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+        SLPProtocol receiver = SLPProtocol.open(b, 8, 200);
+        PhyConfiguration to = new PhyConfiguration(LoopbackNetwork.getAddress(), b.getLocalPort(), Protocol.proto_id.SLP);
+
+        for (int seq = 0; seq < 3; seq++) {
+            SLPMsg data = new SLPMsg();
+            data.createData(1, seq, seq, "first run " + seq);
+            sendSlp(peer, data, to);
+            assertEquals(seq + 1, receiveSlp(peer).getSeq());
+            assertEquals("first run " + seq, receiver.receive(1000).getData());
+        }
+
+        // the peer restarts and numbers from 0 again
+        SLPMsg data = new SLPMsg();
+        data.createData(2, 0, 0, "second run 0");
+        sendSlp(peer, data, to);
+        SLPMsg ack = receiveSlp(peer);
+        assertEquals(2, ack.getEpoch());
+        assertEquals(1, ack.getSeq());
+        assertEquals("second run 0", receiver.receive(1000).getData());
+        assertEquals(1, receiver.getResets());
+
+        // a straggler of the first run is not delivered
+        SLPMsg late = new SLPMsg();
+        late.createData(1, 3, 3, "first run 3");
+        sendSlp(peer, late, to);
+        assertThrows(SocketTimeoutException.class, () -> receiver.receive(200));
+        receiver.close();
+        net.shutdown();
+    }
+
+    @Test
+    @DisplayName("Empty payloads are delivered")
+    void emptyPayloadTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        LoopbackPhyProtocol a = LoopbackPhyProtocol.open(net, 0);
+        LoopbackPhyProtocol b = LoopbackPhyProtocol.open(net, 0);
+        SLPProtocol sender = SLPProtocol.open(a, 8, 50);
+        SLPProtocol receiver = SLPProtocol.open(b, 8, 50);
+        PhyConfiguration to = new PhyConfiguration(LoopbackNetwork.getAddress(), b.getLocalPort(), Protocol.proto_id.SLP);
+
+        sender.send("", to);
+        sender.send("after", to);
+        assertEquals("", receiver.receive(1000).getData());
+        assertEquals("after", receiver.receive(1000).getData());
+        Thread.sleep(200);
+        assertEquals(0, sender.getRetransmissions());
+        sender.close();
+        receiver.close();
+        net.shutdown();
+    }
+
+    private static void serve(CPProtocol server) {
+        Thread t = new Thread(() -> {
+            try {
+                server.receive();
+            } catch (Exception e) {
+                // the network is shut down at the end of the test
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Test
+    @DisplayName("CP cookie and command exchanges ride on SLP over a lossy network")
+    void cpTransportTest() throws Exception {
+        LoopbackNetwork net = new LoopbackNetwork();
+        net.setSeed(11);
+        net.setLossRate(0.2);
+        SLPProtocol cookieSlp = SLPProtocol.open(LoopbackPhyProtocol.open(net, 3000), 8, 50);
+        SLPProtocol commandSlp = SLPProtocol.open(LoopbackPhyProtocol.open(net, 2000), 8, 50);
+        SLPProtocol clientSlp = SLPProtocol.open(LoopbackPhyProtocol.open(net, 0), 8, 50);
+        CPProtocol cookieServer = new CPProtocol(new SLPTransport(cookieSlp, Protocol.proto_id.CP), true);
+        CPProtocol commandServer = new CPProtocol(new SLPTransport(commandSlp, Protocol.proto_id.CP), false);
+        commandServer.setCookieValidator(cookieServer.getCookieStore());
+        serve(cookieServer);
+        serve(commandServer);
+
+        SLPTransport transport = new SLPTransport(clientSlp, Protocol.proto_id.CP);
+        CPProtocol client = new CPProtocol(LoopbackNetwork.getAddress(), 2000, transport);
+        client.setCookieServer(LoopbackNetwork.getAddress(), 3000);
+        // SLP frames are text
+        assertThrows(IllegalArgumentException.class, () -> client.setWireFormat(WireFormat.BINARY));
+        assertThrows(IllegalArgumentException.class, () -> transport.receive(Protocol.proto_id.APP, 100));
+
+        for (int i = 0; i < 10; i++) {
+            client.send("print over slp " + i, null);
+            assertTrue(client.receive().getData().contains(" ok 0"));
+        }
+        assertEquals(1, cookieServer.getMetrics().getCookiesIssued());
+        assertEquals(10, commandServer.getMetrics().getPrintCommands());
+        assertTrue(net.getLost() > 0);
+        assertTrue(clientSlp.getRetransmissions() + commandSlp.getRetransmissions() + cookieSlp.getRetransmissions() > 0);
+        clientSlp.close();
+        cookieSlp.close();
+        commandSlp.close();
+        net.shutdown();
+    }
+}